@@ -0,0 +1,109 @@
+package com.akoscz.googleanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of validating and encoding an event hit, on the caller thread of send(), for every way to build a hit.
+ * The benchmark lives in the package of GoogleAnalytics to reach the package private build methods.
+ *
+ *  - validateRequiredParams, buildUrlString, buildPostParams and buildPayload of a GoogleAnalytics hit.
+ *  - parameterToString and parameterCountBytes of a single GoogleAnalyticsParameter.
+ *  - templatePayload encodes the slots of a HitTemplate hit, concurrentTrackerPayload an immutable Hit.
+ *
+ * Run with the gc profiler to see the bytes allocated per hit:
+ *      ./gradlew jmh -Pjmh.include=HitBuildBenchmark -Pjmh.profilers=gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitBuildBenchmark {
+
+    private static final UUID CLIENT_ID = UUID.fromString("35009a79-1a05-49d7-b876-2b884d0f825b");
+
+    private GoogleAnalytics hit;
+    private GoogleAnalyticsParameter parameter;
+    private HitTemplate template;
+    private ConcurrentTracker concurrentTracker;
+    private Hit immutableHit;
+
+    @Setup
+    public void setup() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        GoogleAnalytics.Tracker tracker = GoogleAnalytics.buildTracker("UA-12345-123", CLIENT_ID, "Benchmark", config)
+                .applicationVersion("1.0");
+
+        template = tracker.type(GoogleAnalytics.HitType.event).category("Video").action("play").build().template();
+        hit = tracker.type(GoogleAnalytics.HitType.event).category("Video").action("play")
+                .label("Big Buck Bunny").value(42).build();
+        parameter = GoogleAnalyticsParameter.of("el", "Big Buck Bunny & friends");
+
+        concurrentTracker = GoogleAnalytics.buildConcurrentTracker("UA-12345-123", CLIENT_ID, "Benchmark", config)
+                .applicationVersion("1.0")
+                .build();
+        immutableHit = Hit.event("Video", "play").label("Big Buck Bunny").value(42).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        GoogleAnalytics.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public GoogleAnalytics validateRequiredParams() {
+        hit.validateRequiredParams();
+        return hit;
+    }
+
+    @Benchmark
+    public String buildUrlString() {
+        return hit.buildUrlString();
+    }
+
+    @Benchmark
+    public List<GoogleAnalyticsParameter> buildPostParams() {
+        return hit.buildPostParams();
+    }
+
+    @Benchmark
+    public String buildPayload() {
+        return hit.buildPayload();
+    }
+
+    @Benchmark
+    public String parameterToString() {
+        return parameter.toString();
+    }
+
+    @Benchmark
+    public int parameterCountBytes() {
+        return parameter.countBytes();
+    }
+
+    @Benchmark
+    public String templatePayload() {
+        return template.hit().label("Big Buck Bunny").value(42).buildPayload();
+    }
+
+    @Benchmark
+    public String concurrentTrackerPayload() {
+        return concurrentTracker.buildPayload(immutableHit);
+    }
+}
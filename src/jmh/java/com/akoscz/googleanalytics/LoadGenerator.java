@@ -0,0 +1,327 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.benchmark.StubCollector;
+import com.akoscz.googleanalytics.util.OverflowHandler;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A load test of the whole sender: producer threads send() event hits on a shared ConcurrentTracker against a
+ * StubCollector on the loopback interface, which answers after a fixed latency and fails a share of the requests.
+ * The run is reported as
+ *  - the offered and the delivered hits per second
+ *  - the hits dropped and spilled because the queue was full, the requests failed by the collector
+ *  - the hits pending on the runtime, queued on the executor and the active workers, sampled over time
+ *  - the p50, p99, p999 and max latency of send() on the producer threads (enqueue latency) and from send() until the
+ *    collector accepted the hit (delivery latency, including queue wait, batching linger and retries)
+ *
+ * The hits, the client id and the failed requests are derived from the seed and nothing leaves the machine, so runs
+ * with the same options are comparable.  Options are key=value arguments, keys starting with "config." set the
+ * GoogleAnalyticsConfig property of that name:
+ *      ./gradlew loadTest -Pargs="producers=8 hits=20000 latencyMillis=20 errorRate=0.01 config.autoBatching=true"
+ */
+public class LoadGenerator {
+
+    // held so that the level is not lost when the logger is garbage collected
+    private static final Logger LOGGER = Logger.getLogger(LoadGenerator.class.getPackage().getName());
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+    static {
+        // producer threads and the hits each of them sends
+        DEFAULTS.put("producers", "4");
+        DEFAULTS.put("hits", "10000");
+        // hits per second of every producer, 0 sends as fast as send() returns
+        DEFAULTS.put("rate", "0");
+        // the collector
+        DEFAULTS.put("latencyMillis", "10");
+        DEFAULTS.put("errorRate", "0");
+        DEFAULTS.put("collectorThreads", "32");
+        DEFAULTS.put("seed", "1");
+        // the queue depth sampling interval and the time to wait for the last hits
+        DEFAULTS.put("sampleMillis", "100");
+        DEFAULTS.put("timeoutSeconds", "60");
+        // the level of the library log, which logs every hit sent at INFO
+        DEFAULTS.put("logLevel", "WARNING");
+    }
+
+    private final Map<String, String> options;
+    private final GoogleAnalyticsConfig config;
+    private final int producers;
+    private final int hits;
+
+    private final Latencies deliveryLatencies;
+    private final List<long[]> depthSamples = new ArrayList<long[]>();
+
+    LoadGenerator(Map<String, String> options, GoogleAnalyticsConfig config) {
+        this.options = options;
+        this.config = config;
+        this.producers = Integer.parseInt(options.get("producers"));
+        this.hits = Integer.parseInt(options.get("hits"));
+        this.deliveryLatencies = new Latencies(producers * hits);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>(DEFAULTS);
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Expected key=value but was: " + arg);
+            }
+            String key = arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+            if (key.startsWith("config.")) {
+                setProperty(config, key.substring("config.".length()), value);
+            } else if (DEFAULTS.containsKey(key)) {
+                options.put(key, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + key + ", expected one of " + DEFAULTS.keySet());
+            }
+        }
+        LOGGER.setLevel(Level.parse(options.get("logLevel")));
+        new LoadGenerator(options, config).run();
+    }
+
+    void run() throws IOException, InterruptedException {
+        final long seed = Long.parseLong(options.get("seed"));
+        StubCollector collector = new StubCollector(Integer.parseInt(options.get("collectorThreads")),
+                Long.parseLong(options.get("latencyMillis")), Double.parseDouble(options.get("errorRate")), seed) {
+            @Override
+            protected void received(String hit) {
+                long sentNanos = sentNanos(hit);
+                if (sentNanos != 0) {
+                    deliveryLatencies.record(System.nanoTime() - sentNanos);
+                }
+            }
+        };
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        ConcurrentTracker tracker = null;
+        try {
+            config.setEndpoint(collector.getEndpoint());
+            config.setBatchEndpoint(collector.getBatchEndpoint());
+            tracker = GoogleAnalytics.buildConcurrentTracker("UA-12345-123", new UUID(seed, seed), "Load Generator",
+                    config).build();
+            run(tracker, collector, sampler);
+        } finally {
+            sampler.shutdownNow();
+            if (tracker != null) {
+                tracker.shutdown(1, TimeUnit.SECONDS);
+            }
+            collector.close();
+        }
+    }
+
+    private void run(final ConcurrentTracker tracker, StubCollector collector, ScheduledExecutorService sampler)
+            throws InterruptedException {
+        final AnalyticsRuntime runtime = tracker.getRuntime();
+
+        final long start = System.nanoTime();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                ThreadPoolExecutor executor = runtime.getExecutor();
+                synchronized (depthSamples) {
+                    depthSamples.add(new long[]{System.nanoTime() - start, runtime.pendingHits(),
+                            executor.getQueue().size(), executor.getActiveCount()});
+                }
+            }
+        }, 0, Long.parseLong(options.get("sampleMillis")), TimeUnit.MILLISECONDS);
+
+        long rate = Long.parseLong(options.get("rate"));
+        final long intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+        final long[][] enqueueLatencies = new long[producers][hits];
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        produce(tracker, "producer " + producer, enqueueLatencies[producer], start, intervalNanos);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-producer-" + p);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long produced = System.nanoTime() - start;
+
+        ShutdownReport report = tracker.flush(Long.parseLong(options.get("timeoutSeconds")), TimeUnit.SECONDS);
+        long drained = System.nanoTime() - start;
+        sampler.shutdown();
+        sampler.awaitTermination(1, TimeUnit.SECONDS);
+
+        Latencies enqueue = new Latencies(producers * hits);
+        for (long[] latencies : enqueueLatencies) {
+            for (long latency : latencies) {
+                enqueue.record(latency);
+            }
+        }
+        report(report, produced, drained, runtime.getGraph().overflowHandler(), collector, enqueue);
+    }
+
+    /**
+     * Send the hits of one producer, every hit labeled with the System.nanoTime() it was sent at.
+     */
+    private void produce(ConcurrentTracker tracker, String action, long[] latencies, long start,
+                         long intervalNanos) {
+        for (int i = 0; i < hits; i++) {
+            if (intervalNanos > 0) {
+                long wait = start + i * intervalNanos - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+            }
+            long sent = System.nanoTime();
+            tracker.send(Hit.event("Load", action).label(Long.toString(sent)).value(i).build());
+            latencies[i] = System.nanoTime() - sent;
+        }
+    }
+
+    /**
+     * @return The send time in the event label of the encoded hit, or 0 if it has none.
+     */
+    static long sentNanos(String hit) {
+        int start = hit.startsWith("el=") ? 3 : hit.indexOf("&el=");
+        if (start < 0) return 0;
+        if (start > 0) start += 4;
+        int end = hit.indexOf('&', start);
+        try {
+            return Long.parseLong(end < 0 ? hit.substring(start) : hit.substring(start, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void report(ShutdownReport report, long produced, long drained, OverflowHandler overflowHandler,
+                        StubCollector collector, Latencies enqueue) {
+        long sent = (long) producers * hits;
+        System.out.println("Options:  " + options);
+        System.out.printf(Locale.ROOT, "Config:   httpMethod=%s transportType=%s autoBatching=%s executorType=%s"
+                        + " queueType=%s queueSize=%d overflowPolicy=%s threads=%d-%d maxRetries=%d%n",
+                config.getHttpMethod(), config.getTransportType(), config.isAutoBatching(), config.getExecutorType(),
+                config.getQueueType(), config.getQueueSize(), config.getOverflowPolicy(), config.getMinThreads(),
+                config.getMaxThreads(), config.getMaxRetries());
+        System.out.printf(Locale.ROOT, "Offered:  %d hits in %.2f s, %.0f hits/s%n",
+                sent, produced / 1e9, sent / (produced / 1e9));
+        System.out.printf(Locale.ROOT, "Received: %d hits in %d requests (%d failed) in %.2f s, %.0f hits/s%n",
+                collector.getHitCount(), collector.getRequestCount(), collector.getErrorCount(), drained / 1e9,
+                collector.getHitCount() / (drained / 1e9));
+        System.out.printf(Locale.ROOT, "Lost:     %d dropped, %d spilled, %d failed, %d abandoned after the flush%n",
+                overflowHandler.getDroppedCount(), overflowHandler.getSpilledCount(), report.getFailed(),
+                report.getAbandoned());
+        System.out.println("Latency   " + Latencies.HEADER);
+        System.out.println("enqueue   " + enqueue);
+        System.out.println("delivery  " + deliveryLatencies);
+        System.out.println();
+        System.out.printf("%8s %8s %8s %8s%n", "time s", "pending", "queued", "active");
+        long maxPending = 0;
+        synchronized (depthSamples) {
+            for (long[] sample : depthSamples) {
+                System.out.printf(Locale.ROOT, "%8.1f %8d %8d %8d%n",
+                        sample[0] / 1e9, sample[1], sample[2], sample[3]);
+                maxPending = Math.max(maxPending, sample[1]);
+            }
+        }
+        System.out.println("max pending " + maxPending);
+    }
+
+    /**
+     * Set a property of the config from its string value, by its bean setter.
+     */
+    static void setProperty(GoogleAnalyticsConfig config, String name, String value) {
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(GoogleAnalyticsConfig.class);
+            for (PropertyDescriptor property : beanInfo.getPropertyDescriptors()) {
+                if (property.getName().equals(name) && property.getWriteMethod() != null) {
+                    property.getWriteMethod().invoke(config, convert(property.getPropertyType(), value));
+                    return;
+                }
+            }
+        } catch (IntrospectionException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalArgumentException("Cannot set config." + name, e);
+        }
+        throw new IllegalArgumentException("Unknown config property " + name);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object convert(Class<?> type, String value) {
+        if (type == int.class) return Integer.parseInt(value);
+        if (type == long.class) return Long.parseLong(value);
+        if (type == double.class) return Double.parseDouble(value);
+        if (type == boolean.class) return Boolean.parseBoolean(value);
+        if (type.isEnum()) return Enum.valueOf((Class<? extends Enum>) type, value.toUpperCase(Locale.ROOT));
+        return value;
+    }
+
+    /**
+     * A preallocated set of latencies recorded by many threads, reported as percentiles in milliseconds.
+     */
+    static class Latencies {
+        static final String HEADER = String.format("%10s %10s %10s %10s %10s", "count", "p50 ms", "p99 ms",
+                "p999 ms", "max ms");
+
+        private final AtomicLongArray nanos;
+        private final AtomicInteger count = new AtomicInteger();
+
+        Latencies(int capacity) {
+            nanos = new AtomicLongArray(capacity);
+        }
+
+        void record(long latencyNanos) {
+            int index = count.getAndIncrement();
+            if (index < nanos.length()) {
+                nanos.set(index, latencyNanos);
+            }
+        }
+
+        /**
+         * @return The sorted latencies recorded so far.
+         */
+        long[] sorted() {
+            long[] sorted = new long[Math.min(count.get(), nanos.length())];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = nanos.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted = sorted();
+            return String.format(Locale.ROOT, "%10d %10.3f %10.3f %10.3f %10.3f", sorted.length,
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, percentile(sorted, 99.9) / 1e6,
+                    sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.akoscz.googleanalytics.benchmark;
+
+import com.akoscz.googleanalytics.AnalyticsRuntime;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.ExecutorType;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.TransportType;
+import com.akoscz.googleanalytics.ShutdownReport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of async hits while 100 or 1000 of them are in flight, each taking 10ms on the RECORDING transport.
+ *
+ *  - PLATFORM sends on a pool of as many platform threads as hits in flight.
+ *  - VIRTUAL sends every hit on a virtual thread, at most as many at a time as the connection pool holds.
+ *
+ * Every invocation sends 1000 hits and flushes the runtime.  Run with the gc profiler to compare the allocations per
+ * hit, and with -XX:NativeMemoryTracking=summary to compare the thread stacks reserved per request in flight.
+ * VIRTUAL requires Java 21 or later, older runtimes measure the platform threads twice.
+ *
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    private static final int HITS = 1000;
+    private static final long LATENCY_MILLIS = 10;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutorType executorType;
+
+    @Param({"100", "1000"})
+    public int inFlight;
+
+    private AnalyticsRuntime runtime;
+    private TransportRequest request;
+
+    @Setup
+    public void setup() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setTransportType(TransportType.RECORDING);
+        config.setRecordingLatencyMillis(LATENCY_MILLIS);
+        config.setExecutorType(executorType);
+        config.setMinThreads(inFlight);
+        config.setMaxThreads(inFlight);
+        config.setPoolMaxTotal(inFlight);
+        config.setQueueSize(HITS);
+        runtime = new AnalyticsRuntime(config).start();
+
+        request = TransportRequest.post(config.getEndpoint(), "text/plain",
+                "v=1&tid=UA-12345-123&cid=35009a79-1a05-49d7-b876-2b884d0f825b&t=pageview&an=Benchmark", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        runtime.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HITS)
+    public ShutdownReport sendAsync() {
+        // the report only counts the hits delivered while flushing, many are delivered before
+        long sent = runtime.getMetrics().getHitsSent();
+        for (int i = 0; i < HITS; i++) {
+            runtime.send(request, true);
+        }
+        ShutdownReport report = runtime.flush(1, TimeUnit.MINUTES);
+        if (runtime.getMetrics().getHitsSent() - sent != HITS) {
+            throw new IllegalStateException("Not all hits were delivered: " + report);
+        }
+        return report;
+    }
+}
@@ -0,0 +1,122 @@
+package com.akoscz.googleanalytics.benchmark;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.TransportType;
+import com.akoscz.googleanalytics.dagger.HttpClientModule;
+import com.akoscz.googleanalytics.transport.ApacheHttpTransport;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import com.akoscz.googleanalytics.transport.UrlConnectionTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-hit latency of a GET hit against a local collect endpoint.
+ *
+ *  - URL_CONNECTION opens and disconnects a new HttpURLConnection for every hit, the way GET hits used to be sent.
+ *  - BLOCKING sends every hit over the keep-alive connections of the pooled http client.
+ *
+ * The endpoint is plain http on the loopback interface, so the difference only shows the cost of the TCP connection
+ * setup.  Against the real https endpoint every new connection also pays for a TLS handshake.
+ *
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GetTransportBenchmark {
+
+    private static final Transport.Callback IGNORE_RESPONSE = new Transport.Callback() {
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            throw new IllegalStateException("GET request failed: " + request.getUri(), throwable);
+        }
+    };
+
+    @Param({"URL_CONNECTION", "BLOCKING"})
+    public TransportType transportType;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Transport transport;
+    private TransportRequest request;
+
+    @Setup
+    public void setup() throws IOException {
+        // otherwise Nagle's algorithm on the server side adds the delayed ACK timeout to every kept alive response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // the collect endpoint answers every hit with a tiny gif
+                exchange.sendResponseHeaders(200, 35);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(new byte[35]);
+                outputStream.close();
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setHttpMethod(GoogleAnalyticsConfig.HttpMethod.GET);
+        config.setTransportType(transportType);
+
+        switch (transportType) {
+            case URL_CONNECTION:
+                transport = new UrlConnectionTransport(config.getUserAgent());
+                break;
+            case BLOCKING:
+                HttpClientModule module = new HttpClientModule();
+                transport = new ApacheHttpTransport(module.providesHttpClient(
+                        module.providesHttpClientBuilder(module.providesConnectionManager(module.providesDnsResolver(config), config), config), config));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported transport: " + transportType);
+        }
+
+        request = TransportRequest.get("http://localhost:" + server.getAddress().getPort()
+                + "/collect?v=1&tid=UA-12345-123&cid=35009a79-1a05-49d7-b876-2b884d0f825b&t=pageview&an=Benchmark", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Integer sendGet() throws Exception {
+        return transport.send(request, IGNORE_RESPONSE).get();
+    }
+}
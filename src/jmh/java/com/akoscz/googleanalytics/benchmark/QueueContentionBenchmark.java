@@ -0,0 +1,89 @@
+package com.akoscz.googleanalytics.benchmark;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.QueueType;
+import com.akoscz.googleanalytics.util.RingBufferBlockingQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the send queue while 1, 8, 32 and 128 threads hand off hits at the same time.
+ *
+ *  - LINKED is the default LinkedBlockingDeque, one lock guards both of its ends.
+ *  - RING_BUFFER is the lock-free RingBufferBlockingQueue.
+ *
+ * Every invocation offers a hit and polls one, so each thread is both a request thread calling send() and a worker
+ * draining the queue and the queue neither fills up nor runs dry.
+ *
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QueueContentionBenchmark {
+
+    private static final Runnable HIT = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Param({"LINKED", "RING_BUFFER"})
+    public QueueType queueType;
+
+    private BlockingQueue<Runnable> queue;
+
+    @Setup
+    public void setup() {
+        int queueSize = new GoogleAnalyticsConfig().getQueueSize();
+        queue = queueType == QueueType.RING_BUFFER
+                ? new RingBufferBlockingQueue<Runnable>(queueSize)
+                : new LinkedBlockingDeque<Runnable>(queueSize);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Runnable threads001() {
+        return offerPoll();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Runnable threads008() {
+        return offerPoll();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Runnable threads032() {
+        return offerPoll();
+    }
+
+    @Benchmark
+    @Threads(128)
+    public Runnable threads128() {
+        return offerPoll();
+    }
+
+    private Runnable offerPoll() {
+        queue.offer(HIT);
+        return queue.poll();
+    }
+}
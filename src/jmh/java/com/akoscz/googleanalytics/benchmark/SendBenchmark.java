@@ -0,0 +1,87 @@
+package com.akoscz.googleanalytics.benchmark;
+
+import com.akoscz.googleanalytics.GoogleAnalytics;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.HttpMethod;
+import com.akoscz.googleanalytics.ShutdownReport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the whole pipeline, from building the hit through validation, encoding, the send queue and the
+ * transport, to the response of a StubCollector on the loopback interface.
+ *
+ *  - POST and GET send every hit in a request of its own over the pooled keep-alive connections.
+ *  - autoBatching packs the POST hits into requests to the batch endpoint.
+ *
+ * Every invocation sends 1000 hits with send() and flushes the runtime.
+ *
+ * Run with: ./gradlew jmh -Pjmh.include=SendBenchmark -Pjmh.profilers=gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+
+    private static final int HITS = 1000;
+
+    @Param({"POST", "GET"})
+    public HttpMethod httpMethod;
+
+    @Param({"false", "true"})
+    public boolean autoBatching;
+
+    private StubCollector collector;
+    private GoogleAnalytics.Tracker tracker;
+
+    @Setup
+    public void setup() throws IOException {
+        collector = new StubCollector(8);
+
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setEndpoint(collector.getEndpoint());
+        config.setBatchEndpoint(collector.getBatchEndpoint());
+        config.setHttpMethod(httpMethod);
+        config.setAutoBatching(autoBatching);
+        config.setQueueSize(HITS);
+        tracker = GoogleAnalytics.buildTracker("UA-12345-123", UUID.randomUUID(), "Benchmark", config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        GoogleAnalytics.shutdown(10, TimeUnit.SECONDS);
+        collector.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HITS)
+    public ShutdownReport send() {
+        for (int i = 0; i < HITS; i++) {
+            tracker.type(GoogleAnalytics.HitType.event).category("Video").action("play").label("Big Buck Bunny")
+                    .value(i).build().send();
+        }
+        ShutdownReport report = GoogleAnalytics.flush(1, TimeUnit.MINUTES);
+        if (!report.isDrained()) {
+            throw new IllegalStateException("Not all hits were sent: " + report);
+        }
+        return report;
+    }
+}
@@ -0,0 +1,171 @@
+package com.akoscz.googleanalytics.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the collect and batch endpoints, so that benchmarks send hits end to end without leaving the
+ * machine.  Every request is answered with the tiny gif of the collect endpoint, and the hits received are counted.
+ *
+ * A collector can answer after a fixed latency and reject a share of the requests with a 503, drawn from a seeded
+ * Random so that the same requests fail in every run.
+ */
+public class StubCollector implements Closeable {
+
+    private static final int GIF_LENGTH = 35;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final long latencyMillis;
+    private final double errorRate;
+    private final Random random;
+
+    /**
+     * Start the collector on an ephemeral port of the loopback interface, answering every request right away.
+     * @param threads The number of threads answering requests.
+     */
+    public StubCollector(int threads) throws IOException {
+        this(threads, 0, 0, 0);
+    }
+
+    /**
+     * Start the collector on an ephemeral port of the loopback interface.
+     * @param threads The number of threads answering requests, which bounds the requests served in parallel.
+     * @param latencyMillis The time to wait before answering a request.
+     * @param errorRate The share of requests, between 0 and 1, answered with a 503.
+     * @param seed The seed of the Random choosing the failed requests.
+     */
+    public StubCollector(int threads, long latencyMillis, double errorRate, long seed) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+        // otherwise Nagle's algorithm on the server side adds the delayed ACK timeout to every kept alive response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new CollectHandler(false));
+        server.createContext("/batch", new CollectHandler(true));
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/collect";
+    }
+
+    public String getBatchEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/batch";
+    }
+
+    /**
+     * @return The number of hits received, counting every line of a batch.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of requests answered with an error.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers a request after the configured latency, failing it at the configured error rate.
+     * @param hits The payload of every hit of the request.
+     * @return The response code.
+     */
+    protected int respond(String[] hits) {
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 503;
+            }
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            return 503;
+        }
+        return 200;
+    }
+
+    /**
+     * Called for every hit of an accepted request.  Override to inspect the hits.
+     * @param hit The payload of the hit.
+     */
+    protected void received(String hit) {
+    }
+
+    private class CollectHandler implements HttpHandler {
+        private final boolean batch;
+
+        CollectHandler(boolean batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String[] hits = readHits(exchange);
+            requestCount.incrementAndGet();
+
+            int statusCode = respond(hits);
+            if (statusCode >= 200 && statusCode < 300) {
+                hitCount.addAndGet(hits.length);
+                for (String hit : hits) {
+                    received(hit);
+                }
+            } else {
+                errorCount.incrementAndGet();
+            }
+            exchange.sendResponseHeaders(statusCode, GIF_LENGTH);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(new byte[GIF_LENGTH]);
+            outputStream.close();
+        }
+
+        /**
+         * A GET hit is the query string, a POST hit is the body and a batch has one line per hit.
+         */
+        private String[] readHits(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            InputStream body = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            body.close();
+
+            String payload = bytes.size() == 0 ? exchange.getRequestURI().getRawQuery() : bytes.toString("US-ASCII");
+            if (payload == null || payload.isEmpty()) return new String[0];
+            return batch ? payload.split("\n") : new String[]{payload};
+        }
+    }
+}
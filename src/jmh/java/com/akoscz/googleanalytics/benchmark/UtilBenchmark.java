@@ -0,0 +1,61 @@
+package com.akoscz.googleanalytics.benchmark;
+
+import com.akoscz.googleanalytics.util.ExceptionParser;
+import com.akoscz.googleanalytics.util.UserAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The helpers on the path of exception hits and of every request.
+ *
+ *  - exceptionDescription describes a wrapped exception thrown 50 frames deep, the way the ExceptionReporter does.
+ *  - userAgentToString formats the user agent of the default config.
+ *
+ * Run with: ./gradlew jmh -Pjmh.include=UtilBenchmark -Pjmh.profilers=gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    private static final int STACK_DEPTH = 50;
+
+    private ExceptionParser exceptionParser;
+    private Throwable throwable;
+    private UserAgent userAgent;
+
+    @Setup
+    public void setup() {
+        exceptionParser = new ExceptionParser("com.akoscz");
+        throwable = new RuntimeException("wrapped", deepException(STACK_DEPTH));
+        userAgent = new UserAgent("Benchmark", "1.0", "en-US");
+    }
+
+    private static Throwable deepException(int depth) {
+        if (depth == 0) return new IllegalStateException("Benchmark exception");
+        return deepException(depth - 1);
+    }
+
+    @Benchmark
+    public String exceptionDescription() {
+        return exceptionParser.getDescription("main", throwable);
+    }
+
+    @Benchmark
+    public String userAgentToString() {
+        return userAgent.toString();
+    }
+}
@@ -0,0 +1,615 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.dagger.BaseComponent;
+import com.akoscz.googleanalytics.dagger.ConfigModule;
+import com.akoscz.googleanalytics.dagger.DaggerBaseComponent;
+import com.akoscz.googleanalytics.metrics.SenderMetrics;
+import com.akoscz.googleanalytics.spool.SpoolingTransport;
+import com.akoscz.googleanalytics.transport.ApacheHttpTransport;
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import com.akoscz.googleanalytics.util.ConnectionWarmer;
+import com.akoscz.googleanalytics.util.GoogleAnalyticsThreadFactory;
+import com.akoscz.googleanalytics.util.HitEvent;
+import com.akoscz.googleanalytics.util.OverflowTask;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.concurrent.BasicFuture;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The runtime shared by all hits of a tracker: the Dagger graph with the thread pool, the connection pool and the
+ * Transport built from the config, and the BatchAccumulator.  Hits are plain data objects which hand their encoded
+ * requests to the runtime.
+ *
+ * The runtime is created and started by buildTracker() and reused by every hit the tracker builds.  Building a tracker
+ * with the same config instance keeps the running runtime, building one with another config starts a new runtime and
+ * closes the previous one.
+ *
+ * To use a runtime:
+ *      AnalyticsRuntime runtime = new AnalyticsRuntime(config).start();
+ *      runtime.send(request, true);
+ *      runtime.shutdown(10, TimeUnit.SECONDS);
+ *
+ * flush() and shutdown() drain the queued hits on all worker threads, up to maxThreads, until the deadline and report
+ * how many hits were delivered, failed, spooled or abandoned.  The counters and latencies of all hits are recorded in
+ * the SenderMetrics of the runtime, see getMetrics().  When the config enables the shutdown hook the runtime
+ * is shut down with shutdownTimeoutMillis when the JVM exits, the worker threads are daemons and would otherwise lose
+ * the queued hits.
+ */
+@Log
+public class AnalyticsRuntime {
+
+    private static final String WARM_UP_THREAD_NAME_FORMAT = "googleanalytics-warmup-thread-{0}";
+    private static final String SHUTDOWN_HOOK_THREAD_NAME = "googleanalytics-shutdown-hook";
+    private static final long DRAIN_POLL_MILLIS = 10;
+
+    @Getter
+    private final GoogleAnalyticsConfig config;
+    @Getter
+    private final BaseComponent graph;
+
+    // guarded by 'this'
+    private boolean started;
+    private boolean closed;
+    private BatchAccumulator batchAccumulator;
+    private Thread shutdownHook;
+
+    // numbers of hits, a batch request counts as all of its hits
+    private final AtomicLong queuedHits = new AtomicLong();
+    private final AtomicLong inFlightHits = new AtomicLong();
+    private final AtomicLong deliveredHits = new AtomicLong();
+    private final AtomicLong failedHits = new AtomicLong();
+
+    public AnalyticsRuntime(@NonNull GoogleAnalyticsConfig config) {
+        this.config = config;
+        this.graph = DaggerBaseComponent.builder()
+                .configModule(new ConfigModule(config))
+                .build();
+    }
+
+    /**
+     * Start the worker threads, create the transport and, if configured, warm up the pooled connections.
+     * Starting a started runtime does nothing.
+     * @return This runtime.
+     */
+    public synchronized AnalyticsRuntime start() {
+        if (closed) throw new IllegalStateException("The runtime is closed");
+        if (started) return this;
+        started = true;
+
+        Transport transport = graph.transport();
+        ThreadPoolExecutor executor = graph.executor();
+        // virtual threads are cheap to start on demand and would time out unused
+        if (transport.isBlocking() && !executor.allowsCoreThreadTimeOut()) {
+            executor.prestartAllCoreThreads();
+        }
+        if (config.getWarmUpConnections() > 0) {
+            warmUpConnections();
+        }
+        if (config.isJmxEnabled()) {
+            graph.metrics().register();
+        }
+        if (config.isShutdownHook()) {
+            shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ShutdownReport report = shutdown(config.getShutdownTimeoutMillis(), TimeUnit.MILLISECONDS);
+                    log.info("Shut down on JVM exit: " + report);
+                }
+            }, SHUTDOWN_HOOK_THREAD_NAME);
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        return this;
+    }
+
+    public synchronized boolean isRunning() {
+        return started && !closed;
+    }
+
+    /**
+     * Send the accumulated hits and wait for the queued and in-flight hits to be sent.  The runtime keeps running.
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return What happened to the hits sent while flushing.
+     */
+    public ShutdownReport flush(long timeout, @NonNull TimeUnit unit) {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        Counts before = new Counts();
+
+        BatchAccumulator accumulator;
+        synchronized (this) {
+            accumulator = batchAccumulator;
+        }
+        if (accumulator != null) {
+            accumulator.flush();
+        }
+
+        ThreadPoolExecutor executor = graph.executor();
+        int corePoolSize = executor.getCorePoolSize();
+        boolean drained;
+        try {
+            drainInParallel(executor);
+            drained = awaitDrained(deadlineNanos);
+        } finally {
+            executor.setCorePoolSize(corePoolSize);
+        }
+
+        SpoolingTransport spoolingTransport = getSpoolingTransport();
+        if (spoolingTransport != null) {
+            spoolingTransport.flush();
+        }
+        return before.report(drained ? 0 : pendingHits(), drained);
+    }
+
+    /**
+     * Send the accumulated and queued hits until the deadline, then spool the hits still queued, if a spool is
+     * configured, and release the threads and connections of the runtime.  Hits sent after shutdown() are dropped.
+     * @param timeout The maximum time to wait for the hits to be sent.
+     * @param unit The unit of the timeout.
+     * @return What happened to the hits which were accumulated, queued or in flight.
+     */
+    public ShutdownReport shutdown(long timeout, @NonNull TimeUnit unit) {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        Counts before = new Counts();
+
+        BatchAccumulator accumulator;
+        synchronized (this) {
+            if (closed) return before.report(0, true);
+            closed = true;
+            accumulator = batchAccumulator;
+            batchAccumulator = null;
+            removeShutdownHook();
+        }
+        graph.metrics().unregister();
+
+        // hand off any hits still being accumulated
+        if (accumulator != null) {
+            accumulator.close();
+        }
+
+        // due retries of a blocking transport are handed back to the executor, so it keeps running until the hits
+        // are drained or the deadline has passed
+        ThreadPoolExecutor executor = graph.executor();
+        drainInParallel(executor);
+        boolean drained = awaitDrained(deadlineNanos);
+        executor.shutdown();
+        drained = drained && awaitTermination(executor, deadlineNanos);
+
+        long abandoned = 0;
+        if (!drained) {
+            for (Runnable task : executor.shutdownNow()) {
+                if (!(task instanceof SendTask)) continue;
+
+                SendTask sendTask = (SendTask) task;
+                if (!sendTask.spill()) {
+                    sendTask.dropped();
+                    abandoned += sendTask.hits;
+                }
+            }
+        }
+
+        // also flushes and closes the spool
+        graph.transport().close();
+        if (!drained) {
+            // interrupted, or cut off when the transport was closed
+            abandoned += inFlightHits.get();
+        }
+        ShutdownReport report = before.report(abandoned, drained);
+        if (abandoned > 0) {
+            log.warning("Abandoned " + abandoned + " hits on shutdown");
+        }
+        return report;
+    }
+
+    /**
+     * Shut down the runtime, waiting up to shutdownTimeoutMillis for the queued hits to be sent.
+     */
+    public void close() {
+        shutdown(config.getShutdownTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of hits queued for or in flight on the transport.
+     */
+    public long pendingHits() {
+        return queuedHits.get() + inFlightHits.get();
+    }
+
+    public Transport getTransport() {
+        return graph.transport();
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return graph.executor();
+    }
+
+    public SenderMetrics getMetrics() {
+        return graph.metrics();
+    }
+
+    /**
+     * Send the request on the configured Transport.
+     * Blocking transports are handed off to the thread pool when sending asynchronously, non blocking transports
+     * perform the I/O on their own threads and are only waited for when sending synchronously.
+     * @param request The encoded request.
+     * @param asynchronous True to perform the network operation asynchronously, False otherwise.
+     */
+    public void send(final TransportRequest request, boolean asynchronous) {
+        final Transport transport = graph.transport();
+        if (asynchronous && transport.isBlocking()) {
+            execute(request, new Runnable() {
+                @Override
+                public void run() {
+                    sendNow(transport, request, null);
+                }
+            });
+            return;
+        }
+
+        Future<Integer> response = sendNow(transport, request, null);
+        if (!asynchronous) {
+            try {
+                response.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // already logged by the callback of the request
+            }
+        }
+    }
+
+    /**
+     * Send the request asynchronously and report its outcome, without blocking the caller.
+     * Like send(), blocking transports are handed off to the thread pool.  The returned Future completes once the
+     * request was delivered, failed for good, was written to the spool, or was dropped because it did not fit into the
+     * send queue.
+     * @param request The encoded request.
+     * @param callback Notified of the outcome on the thread which completed the request, may be null.
+     * @return The Future of the outcome, which never completes with an exception.
+     */
+    public Future<SendResult> sendAsync(final TransportRequest request, SendCallback callback) {
+        final ResultCallback result = new ResultCallback(callback);
+        final Transport transport = graph.transport();
+        if (!transport.isBlocking()) {
+            sendNow(transport, request, result);
+            return result.future;
+        }
+
+        graph.executor().execute(new SendTask(request) {
+            @Override
+            void send() {
+                sendNow(transport, request, result);
+            }
+
+            @Override
+            public void dropped() {
+                super.dropped();
+                result.failed(request, new RejectedExecutionException(
+                        "Send queue is full or shut down, dropped request: " + request.getUri()));
+            }
+
+            @Override
+            public boolean spill() {
+                if (!super.spill()) return false;
+                result.spooled(request);
+                return true;
+            }
+        });
+        return result.future;
+    }
+
+    /**
+     * Send a batch of hits to the batch endpoint.
+     */
+    public void sendBatch(HitBatch batch, boolean asynchronous) {
+        send(TransportRequest.post(config.getBatchEndpoint(), HitBatch.CONTENT_TYPE, batch.toBody(), config.isDebug(),
+                batch.getCreatedMillis()), asynchronous);
+    }
+
+    /**
+     * @return The accumulator collecting the hits sent with auto batching enabled, created on first use.
+     */
+    public synchronized BatchAccumulator getBatchAccumulator() {
+        if (batchAccumulator == null && !closed) {
+            batchAccumulator = new BatchAccumulator(config, new BatchAccumulator.Sender() {
+                @Override
+                public void sendBatch(HitBatch batch) {
+                    AnalyticsRuntime.this.sendBatch(batch, true);
+                }
+            });
+        }
+        return batchAccumulator;
+    }
+
+    /**
+     * Hand the sending of a request to the thread pool.  When the queue is full the OverflowHandler drops the request
+     * or spills it to the spool.
+     * @param request The request sent by the task.
+     * @param task Sends the request.
+     */
+    /* package */ void execute(TransportRequest request, final Runnable task) {
+        graph.executor().execute(new SendTask(request) {
+            @Override
+            void send() {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Send the request on the transport, counting its hits while they are in flight.
+     * @param outcome Also notified of the outcome of the request, may be null.
+     */
+    private Future<Integer> sendNow(Transport transport, TransportRequest request, final ResultCallback outcome) {
+        final int hits = countHits(request);
+        final SenderMetrics metrics = graph.metrics();
+        inFlightHits.addAndGet(hits);
+        try {
+            return transport.send(request, new Transport.RetryAwareCallback() {
+                @Override
+                public void completed(TransportRequest request, int statusCode, String responseBody) {
+                    if (statusCode >= HttpURLConnection.HTTP_OK && statusCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                        deliveredHits.addAndGet(hits);
+                        metrics.recordSent(hits);
+                    } else {
+                        failedHits.addAndGet(hits);
+                        metrics.recordFailed(hits);
+                    }
+                    inFlightHits.addAndGet(-hits);
+                    BaseAnalytics.RESPONSE_LOGGER.completed(request, statusCode, responseBody);
+                    if (outcome != null) {
+                        outcome.completed(request, statusCode, responseBody);
+                    }
+                }
+
+                @Override
+                public void failed(TransportRequest request, Throwable throwable) {
+                    failedHits.addAndGet(hits);
+                    metrics.recordFailed(hits);
+                    inFlightHits.addAndGet(-hits);
+                    BaseAnalytics.RESPONSE_LOGGER.failed(request, throwable);
+                    if (outcome != null) {
+                        outcome.failed(request, throwable);
+                    }
+                }
+
+                @Override
+                public void retrying(TransportRequest request, int retry) {
+                    metrics.recordRetried(hits);
+                    if (outcome != null) {
+                        outcome.retrying(request, retry);
+                    }
+                }
+
+                @Override
+                public void spooled(TransportRequest request) {
+                    // counted by the SpoolingTransport, not as failed
+                    inFlightHits.addAndGet(-hits);
+                    log.warning("Problem sending request, spooled it for replay: " + request.getUri());
+                    if (outcome != null) {
+                        outcome.spooled(request);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightHits.addAndGet(-hits);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of hits in the request, one per line of a batch request.
+     */
+    /* package */ static int countHits(TransportRequest request) {
+        byte[] body = request.getBodyBytes();
+        if (request.isGet() || body == null) return 1;
+
+        int hits = 1;
+        for (byte b : body) {
+            if (b == '\n') hits++;
+        }
+        return hits;
+    }
+
+    /**
+     * Let every worker thread, up to maxThreads, take hits from the queue.  Otherwise the queue is only drained by the
+     * core threads until it is full.
+     */
+    private static void drainInParallel(ThreadPoolExecutor executor) {
+        if (executor.getCorePoolSize() < executor.getMaximumPoolSize()) {
+            executor.setCorePoolSize(executor.getMaximumPoolSize());
+        }
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * @return True if all hits were sent before the deadline.
+     */
+    private boolean awaitDrained(long deadlineNanos) {
+        while (pendingHits() > 0) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) return false;
+            try {
+                Thread.sleep(Math.min(DRAIN_POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the worker threads, which may still be running retries, ended before the deadline.
+     */
+    private static boolean awaitTermination(ThreadPoolExecutor executor, long deadlineNanos) {
+        try {
+            return executor.awaitTermination(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void removeShutdownHook() {
+        if (shutdownHook == null || Thread.currentThread() == shutdownHook) return;
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is already shutting down
+        }
+        shutdownHook = null;
+    }
+
+    private SpoolingTransport getSpoolingTransport() {
+        Transport transport = graph.transport();
+        return transport instanceof SpoolingTransport ? (SpoolingTransport) transport : null;
+    }
+
+    /**
+     * Open pooled connections to the endpoints in the background so that the first hits do not pay for the
+     * DNS lookup, the TCP connect and the TLS handshake.  Only the BLOCKING transport pools its connections up front.
+     */
+    private void warmUpConnections() {
+        Transport transport = ForwardingTransport.unwrap(graph.transport());
+        if (!(transport instanceof ApacheHttpTransport) || StringUtils.isNotEmpty(config.getProxyHost())) {
+            log.fine("Connection warm up is not supported for the configured transport");
+            return;
+        }
+
+        ConnectionWarmer connectionWarmer = new ConnectionWarmer(graph.connectionManager(),
+                Arrays.asList(config.getEndpoint(), config.getBatchEndpoint()), config.getWarmUpConnections());
+        new GoogleAnalyticsThreadFactory(WARM_UP_THREAD_NAME_FORMAT).newThread(connectionWarmer).start();
+    }
+
+    /**
+     * A request handed to the thread pool, which the OverflowHandler can drop or spill to the spool.
+     */
+    private abstract class SendTask implements OverflowTask {
+        final TransportRequest request;
+        final int hits;
+        final long enqueuedNanos = System.nanoTime();
+        final Object queueEvent = HitEvent.QUEUE.begin();
+
+        SendTask(TransportRequest request) {
+            this.request = request;
+            this.hits = countHits(request);
+            queuedHits.addAndGet(hits);
+            graph.metrics().recordEnqueued(hits);
+        }
+
+        abstract void send();
+
+        @Override
+        public final void run() {
+            graph.metrics().recordQueueWait(System.nanoTime() - enqueuedNanos);
+            if (queueEvent != null) commitQueueEvent("dequeued");
+            try {
+                send();
+            } finally {
+                // the hits are counted in flight while they are sent
+                queuedHits.addAndGet(-hits);
+            }
+        }
+
+        @Override
+        public void dropped() {
+            queuedHits.addAndGet(-hits);
+            graph.metrics().recordDropped(hits);
+            if (queueEvent != null) commitQueueEvent("dropped");
+            log.warning("Send queue is full or shut down, dropped request: '" + request.getUri() + "'");
+        }
+
+        @Override
+        public boolean spill() {
+            SpoolingTransport spoolingTransport = getSpoolingTransport();
+            if (spoolingTransport == null || !spoolingTransport.spool(request)) return false;
+
+            queuedHits.addAndGet(-hits);
+            if (queueEvent != null) commitQueueEvent("spilled");
+            return true;
+        }
+
+        private void commitQueueEvent(String status) {
+            HitEvent.QUEUE.commit(queueEvent, HitEvent.hitType(request), hits, request.getPayloadLength(), status);
+        }
+    }
+
+    /**
+     * Completes the Future of a request sent with sendAsync() with its outcome.
+     */
+    private static class ResultCallback implements Transport.RetryAwareCallback {
+        final BasicFuture<SendResult> future = new BasicFuture<SendResult>(null);
+        final SendCallback callback;
+        final long startNanos = System.nanoTime();
+        volatile int retries;
+
+        ResultCallback(SendCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+            complete(new SendResult(statusCode, latencyMillis(), retries, false, null));
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            complete(new SendResult(0, latencyMillis(), retries, false, throwable));
+        }
+
+        @Override
+        public void retrying(TransportRequest request, int retry) {
+            retries = retry;
+        }
+
+        @Override
+        public void spooled(TransportRequest request) {
+            complete(new SendResult(0, latencyMillis(), retries, true, null));
+        }
+
+        /**
+         * Wake up the callers waiting on the Future first, then notify the callback, unless the Future was cancelled.
+         */
+        private void complete(SendResult result) {
+            if (future.completed(result) && callback != null) {
+                callback.completed(result);
+            }
+        }
+
+        private long latencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * The counters at the start of a flush or shutdown.
+     */
+    private class Counts {
+        final long delivered = deliveredHits.get();
+        final long failed = failedHits.get();
+        final long spooled = spooledHits();
+
+        ShutdownReport report(long abandoned, boolean drained) {
+            return new ShutdownReport(deliveredHits.get() - delivered, failedHits.get() - failed,
+                    spooledHits() - spooled, abandoned, drained);
+        }
+    }
+
+    private long spooledHits() {
+        SpoolingTransport spoolingTransport = getSpoolingTransport();
+        return spoolingTransport == null ? 0 : spoolingTransport.getSpooledCount();
+    }
+}
@@ -1,37 +1,38 @@
 package com.akoscz.googleanalytics;
 
 import com.akoscz.googleanalytics.dagger.BaseComponent;
-import com.akoscz.googleanalytics.dagger.ConfigModule;
-import com.akoscz.googleanalytics.dagger.DaggerBaseComponent;
+import com.akoscz.googleanalytics.metrics.SenderMetrics;
+import com.akoscz.googleanalytics.transport.ApacheHttpTransport;
+import com.akoscz.googleanalytics.transport.CircuitBreaker;
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.NioHttpTransport;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
 import com.akoscz.googleanalytics.util.ExceptionReporter;
-import dagger.Lazy;
-import lombok.Cleanup;
+import com.akoscz.googleanalytics.util.HitEncoder;
+import com.akoscz.googleanalytics.util.HitEvent;
+import com.akoscz.googleanalytics.util.OverflowHandler;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.java.Log;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
-
-import javax.inject.Inject;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.pool.PoolStats;
+
 import java.net.HttpURLConnection;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
- * The BaseAnaytics abstract class holds our Dagger graph, the global tracker instance along with other class members
- * and methods to handle sending data to the GoogleAnalytics endpoint.
+ * The BaseAnaytics abstract class holds the AnalyticsRuntime, the global tracker instance along with other class members
+ * and methods to handle sending data to the GoogleAnalytics endpoint.  Hits are plain data objects, all hits share the
+ * thread pool, the connection pool and the transport of the runtime, except the hits of a ConcurrentTracker which owns
+ * its runtime.
  *
  * The following abstract methods are declared which must be implemented by extending classes:
  *     abstract String buildUrlString();
@@ -45,27 +46,17 @@ public abstract class BaseAnalytics {
 
     public static final int PROTOCOL_VERSION = 1;
     private static final String ENCODING = "UTF-8";
+    private static final Charset UTF_8 = Charset.forName(ENCODING);
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=UTF-8";
     private static final Level DEFAULT_LOG_LEVEL = Level.SEVERE;
 
     @Getter
-    protected static BaseComponent graph;
+    protected static volatile AnalyticsRuntime runtime;
     @Getter
     protected static GoogleAnalytics.Tracker globalTracker;
 
-    @Inject
-    Lazy<ThreadPoolExecutor> executor;
-    @Inject
-    Lazy<CloseableHttpClient> httpClient;
-
     protected ArrayList<GoogleAnalyticsParameter> postParameters = new ArrayList<GoogleAnalyticsParameter>();
 
-    /**
-     * Default constructor which initializes the Dagger graph.
-     */
-    public BaseAnalytics() {
-        graph.inject(this);
-    }
-
     /**
      * Build a Tracker instance with default config values by which you can compose your GoogleAnalytics tracking request.
      * @param trackingId Required Valid Google Analytics Tracking Id.
@@ -79,6 +70,8 @@ public abstract class BaseAnalytics {
 
     /**
      * Build a Tracker instance by which you can compose your GoogleAnalytics tracking request.
+     * The running AnalyticsRuntime is kept when the same config instance is passed again, otherwise a new runtime is
+     * started for the config and the previous one is closed.
      * @param trackingId Required Valid Google Analytics Tracking Id.
      * @param clientId Required Valid Client Id UUID.
      * @param applicationName Required non-null non-empty Application Name.
@@ -97,9 +90,7 @@ public abstract class BaseAnalytics {
                 .applicationName(applicationName)
                 .isExceptionFatal(true); // initialize default value
 
-        graph = DaggerBaseComponent.builder()
-                .configModule(new ConfigModule(config))
-                .build();
+        startRuntime(config);
 
         // set the global tracker instance
         globalTracker = tracker;
@@ -107,6 +98,61 @@ public abstract class BaseAnalytics {
         return globalTracker;
     }
 
+    /**
+     * Build a thread-safe tracker with immutable settings, which sends immutable Hits without using the global tracker.
+     * The tracker shares the running AnalyticsRuntime if it was started for the same config, otherwise the tracker
+     * owns a runtime of its own, see ConcurrentTracker.
+     * @param trackingId Required Valid Google Analytics Tracking Id.
+     * @param clientId Required Valid Client Id UUID.
+     * @param applicationName Required non-null non-empty Application Name.
+     * @param config The configuration parameters for the tracker.  If null, the config of the running runtime is used,
+     *               or default config values if no tracker was built yet.
+     * @return A ConcurrentTracker builder to set the optional settings, such as the application version.
+     */
+    public static ConcurrentTracker.Builder buildConcurrentTracker(@NonNull String trackingId, @NonNull UUID clientId,
+                                                                  @NonNull String applicationName,
+                                                                  GoogleAnalyticsConfig config) {
+        if (config == null) {
+            AnalyticsRuntime running = BaseAnalytics.runtime;
+            config = running != null && running.isRunning() ? running.getConfig() : new GoogleAnalyticsConfig();
+        }
+        return ConcurrentTracker.builder()
+                .config(config)
+                .trackingId(trackingId)
+                .clientId(clientId)
+                .applicationName(applicationName);
+    }
+
+    /**
+     * Keep the running AnalyticsRuntime if it was started for the config, otherwise start a new runtime and close the
+     * previous one.
+     * @return The running runtime.
+     */
+    /* package */ static AnalyticsRuntime startRuntime(@NonNull GoogleAnalyticsConfig config) {
+        AnalyticsRuntime previous;
+        AnalyticsRuntime started;
+        synchronized (BaseAnalytics.class) {
+            previous = runtime;
+            if (previous != null && previous.getConfig() == config && previous.isRunning()) return previous;
+            started = new AnalyticsRuntime(config).start();
+            runtime = started;
+        }
+
+        // sends the hits queued or accumulated for the previous tracker, without blocking other trackers being built
+        if (previous != null) {
+            previous.close();
+        }
+        return started;
+    }
+
+    /**
+     * @return The running AnalyticsRuntime if it was started for the config, otherwise null.
+     */
+    /* package */ static AnalyticsRuntime runningRuntime(@NonNull GoogleAnalyticsConfig config) {
+        AnalyticsRuntime running = runtime;
+        return running != null && running.getConfig() == config && running.isRunning() ? running : null;
+    }
+
     /**
      * Register a default UncaughtExceptionHandler which reports all uncaught exceptions to Google Analytics.
      * If there exists a default UncaughtExceptionHandler it will be invoked after we have sent the
@@ -132,6 +178,78 @@ public abstract class BaseAnalytics {
         thread.setUncaughtExceptionHandler(new ExceptionReporter(globalTracker, existingUncaughtExceptionHandler, packages));
     }
 
+    /**
+     * Send the accumulated and queued hits of the tracker, waiting up to the given timeout.
+     * @return What happened to the hits, or null if no tracker was built yet.
+     */
+    public static ShutdownReport flush(long timeout, @NonNull TimeUnit unit) {
+        AnalyticsRuntime runtime = BaseAnalytics.runtime;
+        return runtime == null ? null : runtime.flush(timeout, unit);
+    }
+
+    /**
+     * Send the accumulated and queued hits of the tracker until the timeout, spool or abandon the rest and release
+     * the threads and connections.  Hits sent afterwards are dropped until a tracker is built with a new config.
+     * @return What happened to the hits, or null if no tracker was built yet.
+     */
+    public static ShutdownReport shutdown(long timeout, @NonNull TimeUnit unit) {
+        AnalyticsRuntime runtime = BaseAnalytics.runtime;
+        return runtime == null ? null : runtime.shutdown(timeout, unit);
+    }
+
+    /**
+     * @return The Dagger graph of the running AnalyticsRuntime, or null if no tracker was built yet.
+     */
+    public static BaseComponent getGraph() {
+        AnalyticsRuntime runtime = BaseAnalytics.runtime;
+        return runtime == null ? null : runtime.getGraph();
+    }
+
+    /**
+     * The circuit breaker guarding the endpoint.  Register a CircuitBreaker.Listener to observe its transitions.
+     * @return The circuit breaker, or null if no tracker was built yet.
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        BaseComponent graph = getGraph();
+        return graph == null ? null : graph.circuitBreaker();
+    }
+
+    /**
+     * @return The handler of hits which did not fit into the send queue, with the counts of the dropped and spilled
+     * hits, or null if no tracker was built yet.
+     */
+    public static OverflowHandler getOverflowHandler() {
+        BaseComponent graph = getGraph();
+        return graph == null ? null : graph.overflowHandler();
+    }
+
+    /**
+     * The counters and latency histograms of the hits sent by the running runtime, see SenderMetrics.
+     * @return The metrics, or null if no tracker was built yet.
+     */
+    public static SenderMetrics getMetrics() {
+        BaseComponent graph = getGraph();
+        return graph == null ? null : graph.metrics();
+    }
+
+    /**
+     * Live statistics of the connection pool of the configured transport: the number of leased, pending and available
+     * connections along with the pool limit.  Only the pooled http client transports, BLOCKING and NIO, are covered.
+     * @return The pool statistics, or null if no tracker was built yet or the transport does not pool connections.
+     */
+    public static PoolStats getConnectionPoolStats() {
+        BaseComponent graph = getGraph();
+        if (graph == null) return null;
+
+        Transport transport = ForwardingTransport.unwrap(graph.transport());
+        if (transport instanceof ApacheHttpTransport) {
+            return graph.connectionManager().getTotalStats();
+        } else if (transport instanceof NioHttpTransport) {
+            return graph.asyncConnectionManager().getTotalStats();
+        }
+        return null;
+    }
+
     /**
      * Enable debug mode.
      *
@@ -159,6 +277,55 @@ public abstract class BaseAnalytics {
         log.setLevel(logLevel);
     }
 
+    /**
+     * Send multiple hits over the network to Google Analytics using the '/batch' endpoint.
+     * Note that this method will clear all the non-required parameters irregardless of success or failure
+     * of the network request.
+     * This method defaults to performing the network operation asynchronously.
+     * @param hits The hits to send.
+     */
+    public static void sendAll(Collection<? extends BaseAnalytics> hits) {
+        // default to send asynchronously
+        sendAll(hits, true);
+    }
+
+    /**
+     * Send multiple hits over the network to Google Analytics using the '/batch' endpoint.
+     * The hits are packed, in order, into as few POST requests as the batch limits allow. See {@link HitBatch}.
+     * Batch requests are always POST requests irregardless of the configured HttpMethod.
+     * In debug mode the hits are sent one at a time since there is no debug endpoint for batch requests.
+     * Note that this method will clear all the non-required parameters irregardless of success or failure
+     * of the network request.
+     * @param hits The hits to send.
+     * @param asynchronous True to perform the network operation asynchronously, False otherwise.
+     */
+    public static void sendAll(@NonNull Collection<? extends BaseAnalytics> hits, boolean asynchronous) {
+        if (hits.isEmpty()) return;
+
+        // all hits built by a tracker share the same config, executor and http client
+        final BaseAnalytics sender = hits.iterator().next();
+        if (sender.getConfig().isDebug()) {
+            for (BaseAnalytics hit : hits) {
+                hit.send(asynchronous);
+            }
+            return;
+        }
+
+        List<String> payloads = new ArrayList<String>(hits.size());
+        for (BaseAnalytics hit : hits) {
+            payloads.add(hit.buildPayload());
+        }
+        AnalyticsRuntime runtime = sender.sendingRuntime();
+        runtime.getMetrics().recordBuilt(payloads.size());
+
+        for (HitBatch batch : HitBatch.pack(payloads)) {
+            runtime.sendBatch(batch, asynchronous);
+        }
+
+        // clear all non-required fields
+        sender.resetTracker();
+    }
+
     /**
      * Send the parameters over the network to Google Analytics.
      * Note that this method will clear all the non-required parameters irregardless of success or failure
@@ -174,113 +341,152 @@ public abstract class BaseAnalytics {
      * Send the parameters over the network to Google Analytics.
      * Note that this method will clear all the non-required parameters irregardless of success or failure
      * of the network request.
+     * When auto batching is enabled in the config, asynchronous hits are handed to the BatchAccumulator and sent to
+     * the batch endpoint with other hits.  Synchronous hits and hits sent in debug mode are never batched.
      * @param asynchronous True to perform the network operation asynchronously, False otherwise.
      */
     public void send(boolean asynchronous) {
 
         GoogleAnalyticsConfig config = getConfig();
-        if (config.isHttpMethodGet()) {
-            final String url = buildUrlString();
-            if (asynchronous) {
-                executor.get().submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        doGetNetworkOperation(url);
-                    }
-                });
-            } else {
-                doGetNetworkOperation(url);
+        AnalyticsRuntime runtime = sendingRuntime();
+        BatchAccumulator accumulator = asynchronous && config.isAutoBatching() && !config.isDebug()
+                ? runtime.getBatchAccumulator() : null;
+        if (accumulator != null) {
+            if (!accumulator.add(buildPayload())) {
+                // the runtime was shut down while the hit was built
+                runtime.getMetrics().recordDropped(1);
             }
-        } else { // POST method
-            final List<GoogleAnalyticsParameter> postParams = buildPostParams();
-
-            if (asynchronous) {
-                executor.get().submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        doPostNetworkOperation(postParams);
-                    }
-                });
-            } else {
-                doPostNetworkOperation(postParams);
-            }
-
+        } else if (config.isHttpMethodGet() && !asynchronous) {
+            doGetNetworkOperation(buildUrlString());
+        } else {
+            // the runtime hands asynchronous hits to the thread pool, or to the I/O threads of a non blocking transport
+            TransportRequest request = config.isHttpMethodGet()
+                    ? TransportRequest.get(buildUrlString(), config.isDebug())
+                    : TransportRequest.post(config.getEndpoint(), FORM_CONTENT_TYPE, buildPayloadBytes(), config.isDebug());
+            runtime.send(request, asynchronous);
         }
+        runtime.getMetrics().recordBuilt(1);
 
         // clear all non-required fields
         resetTracker();
     }
 
+    /**
+     * Send the parameters asynchronously and report the outcome of the request.
+     * Note that this method will clear all the non-required parameters irregardless of success or failure
+     * of the network request.
+     * Hits sent with sendAsync() are never batched, so that each Future reports the response to its own hit.
+     * @return The Future of the outcome, which never completes with an exception.
+     */
+    public Future<SendResult> sendAsync() {
+        return sendAsync(null);
+    }
+
+    /**
+     * Send the parameters asynchronously and report the outcome of the request.
+     * @param callback Notified of the outcome on the thread which completed the request, may be null.
+     * @return The Future of the outcome, which never completes with an exception.
+     */
+    public Future<SendResult> sendAsync(SendCallback callback) {
+        GoogleAnalyticsConfig config = getConfig();
+        AnalyticsRuntime runtime = sendingRuntime();
+        TransportRequest request = config.isHttpMethodGet()
+                ? TransportRequest.get(buildUrlString(), config.isDebug())
+                : TransportRequest.post(config.getEndpoint(), FORM_CONTENT_TYPE, buildPayloadBytes(), config.isDebug());
+        runtime.getMetrics().recordBuilt(1);
+        Future<SendResult> result = runtime.sendAsync(request, callback);
+
+        // clear all non-required fields
+        resetTracker();
+        return result;
+    }
+
+    /**
+     * Send a GET request synchronously, waiting for the response on the caller's thread.
+     * @param url The url of the hit.
+     */
     protected void doGetNetworkOperation(String url) {
-        log.info("executing on thread: " + Thread.currentThread().getName());
+        sendingRuntime().send(TransportRequest.get(url, getConfig().isDebug()), false);
+    }
 
-        HttpURLConnection connection = null;
-        try {
-            GoogleAnalyticsConfig config = getConfig();
-            connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setRequestMethod("GET");
-            if (StringUtils.isNotEmpty(config.getUserAgent())) {
-                connection.setRequestProperty("User-Agent", config.getUserAgent());
+    /**
+     * @return The runtime sending this hit, the runtime of the global tracker unless a hit uses a runtime of its own.
+     */
+    /* package */ AnalyticsRuntime sendingRuntime() {
+        return runtime;
+    }
+
+    /**
+     * Logs the outcome of every request, along with the response body in debug mode.
+     */
+    /* package */ static final Transport.Callback RESPONSE_LOGGER = new Transport.Callback() {
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+            if (statusCode != HttpURLConnection.HTTP_OK) {
+                log.warning("Error sending request: '" + request.getUri() + "'. Response code: '" + statusCode + "'\n"
+                        + describe(request));
+            } else if (log.isLoggable(Level.INFO)) {
+                // the body is only decoded when it is logged
+                log.info("Successfully sent request to tracker: " + describe(request));
             }
 
-            final int responseCode = connection.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                log.warning("Error requesting url: '" + url + "'. Response code: " + responseCode);
-            } else {
-                log.info("Successfully hit tracker: '" + url + "'");
+            if (responseBody != null) {
+                log.info("response: " + responseBody);
             }
+        }
 
-            if (config.isDebug()) {
-                StringBuilder content = new StringBuilder();
-                @Cleanup BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            log.warning("Problem sending request: " + request.getUri() + " " + throwable.toString());
+        }
 
-                String line;
-                // read from the urlconnection via the bufferedreader
-                while ((line = bufferedReader.readLine()) != null) {
-                    content.append(line + "\n");
-                }
-                log.info(content.toString());
-            }
+        private String describe(TransportRequest request) {
+            return request.isGet() ? request.getUri() : request.getBody();
+        }
+    };
 
-        } catch (ProtocolException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Validate the required parameters, and emit a HitEvent.VALIDATE event while a flight recording is running.
+     * @param type The type of the hit, may be null.
+     */
+    /* package */ void validate(GoogleAnalytics.HitType type) {
+        Object event = HitEvent.VALIDATE.begin();
+        boolean valid = false;
+        try {
+            validateRequiredParams();
+            valid = true;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            if (event != null) HitEvent.VALIDATE.commit(event, type == null ? null : type.name(), valid);
         }
     }
 
-    private void doPostNetworkOperation(List<GoogleAnalyticsParameter> postParameters) {
-        log.info("executing on thread: " + Thread.currentThread().getName());
-
-        try {
-            GoogleAnalyticsConfig config = getConfig();
-            HttpPost httpPost = new HttpPost(config.getEndpoint());
-            httpPost.setEntity(new UrlEncodedFormEntity(postParameters, ENCODING));
-
-            @Cleanup CloseableHttpResponse httpResponse = httpClient.get().execute(httpPost);
-            int responseCode = httpResponse.getStatusLine().getStatusCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                log.warning("Error posting to endpoint: '" + config.getEndpoint()
-                        + "'. Response code: '" + responseCode + "'\n"
-                        + httpPost.toString() + "\n" + postParameters);
-            } else {
-                log.info("Successfully posted params to tracker: " + postParameters);
-            }
+    /**
+     * Commit the HitEvent.ENCODE event of an encoded payload or url.
+     * @param event The event returned by HitEvent.ENCODE.begin(), null if the event is not recorded.
+     * @param get True if the url of a GET request was encoded, False for the payload of a POST request.
+     * @return The encoder holding the encoded payload or url.
+     */
+    /* package */ static HitEncoder encoded(Object event, GoogleAnalytics.HitType type, boolean get, HitEncoder encoder) {
+        if (event != null) {
+            HitEvent.ENCODE.commit(event, type == null ? null : type.name(), get ? "GET" : "POST", encoder.length());
+        }
+        return encoder;
+    }
 
-            if (config.isDebug()) {
-                String responseBody = EntityUtils.toString(httpResponse.getEntity(), ENCODING);
-                log.info("response: " + responseBody);
-            }
+    /**
+     * Build the url encoded payload of this hit, as it would appear in the body of a POST request.
+     * @return The payload string.
+     */
+    /* package */ String buildPayload() {
+        return URLEncodedUtils.format(buildPostParams(), ENCODING);
+    }
 
-            EntityUtils.consumeQuietly(httpResponse.getEntity());
-        } catch (Exception e) {
-            log.warning("Problem sending post request: " + e.toString());
-            e.printStackTrace();
-        }
+    /**
+     * Build the url encoded payload of this hit as the body of a POST request.
+     * @return The bytes of the payload, which the request takes over.
+     */
+    /* package */ byte[] buildPayloadBytes() {
+        return buildPayload().getBytes(UTF_8);
     }
 
     abstract String buildUrlString();
@@ -0,0 +1,218 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.util.GoogleAnalyticsThreadFactory;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The BatchAccumulator collects the encoded payloads of hits sent via send() while auto batching is enabled
+ * and hands them off as a HitBatch to its Sender when one of the following happens:
+ *  - the batch reached the configured maximum number of hits
+ *  - the next hit would push the batch over the configured maximum number of bytes
+ *  - the configured linger time has passed since the first hit was added to the batch
+ *  - flush() or close() was invoked
+ *
+ * The flush reasons and the distribution of the batch sizes are recorded so that the linger time can be tuned
+ * against the delivery latency.
+ */
+@Log
+public class BatchAccumulator {
+
+    public enum FlushReason {
+        SIZE,
+        BYTES,
+        LINGER,
+        MANUAL;
+    }
+
+    /**
+     * Receives the batches flushed by the accumulator.
+     * Implementations must not perform the network I/O on the calling thread.
+     */
+    public interface Sender {
+        void sendBatch(HitBatch batch);
+    }
+
+    private static final String THREAD_NAME_FORMAT = "googleanalytics-batch-{0}";
+
+    private final Sender sender;
+    private final int maxHits;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final Map<FlushReason, AtomicLong> flushCounts = new EnumMap<FlushReason, AtomicLong>(FlushReason.class);
+    private final AtomicLongArray batchSizeHistogram = new AtomicLongArray(HitBatch.MAX_HITS + 1);
+    private final AtomicLong totalHits = new AtomicLong();
+    private final AtomicLong totalBatchAgeMillis = new AtomicLong();
+
+    // guarded by 'this'
+    private HitBatch batch;
+    private long batchCreatedMillis;
+    private ScheduledFuture<?> lingerFuture;
+    private boolean closed;
+
+    public BatchAccumulator(@NonNull GoogleAnalyticsConfig config, @NonNull Sender sender) {
+        this.sender = sender;
+        this.maxHits = config.getBatchMaxHits();
+        this.maxBytes = config.getBatchMaxBytes();
+        this.lingerMillis = config.getBatchLingerMillis();
+
+        for (FlushReason reason : FlushReason.values()) {
+            flushCounts.put(reason, new AtomicLong());
+        }
+
+        timer = new ScheduledThreadPoolExecutor(1, new GoogleAnalyticsThreadFactory(THREAD_NAME_FORMAT));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Add the encoded payload of a hit to the current batch.
+     * @param payload The url encoded payload of a single hit.
+     * @return True if the hit was added, False if the accumulator was closed, e.g. by a shutdown racing the hit.
+     */
+    public boolean add(@NonNull String payload) {
+        HitBatch full = null;
+        FlushReason reason = null;
+
+        synchronized (this) {
+            if (closed) return false;
+
+            if (batch != null && !batch.add(payload)) {
+                // the payload does not fit, hand off the current batch and start a new one
+                reason = batch.isFull() ? FlushReason.SIZE : FlushReason.BYTES;
+                full = takeBatch();
+            }
+
+            if (batch == null) {
+                batch = new HitBatch(maxHits, maxBytes);
+                batch.add(payload);
+                batchCreatedMillis = System.currentTimeMillis();
+                if (!batch.isFull()) {
+                    scheduleLinger(batch);
+                }
+            }
+
+            if (full == null && batch.isFull()) {
+                reason = FlushReason.SIZE;
+                full = takeBatch();
+            }
+        }
+
+        if (full != null) {
+            send(full, reason);
+        }
+        return true;
+    }
+
+    /**
+     * Hand off the current batch, if any, without waiting for it to fill up.
+     */
+    public void flush() {
+        flush(FlushReason.MANUAL, null);
+    }
+
+    /**
+     * Flush the current batch and stop the linger timer.  Hits added after close() are not accepted.
+     */
+    public void close() {
+        flush();
+        synchronized (this) {
+            closed = true;
+        }
+        timer.shutdown();
+    }
+
+    public long getFlushCount(FlushReason reason) {
+        return flushCounts.get(reason).get();
+    }
+
+    /**
+     * @return The number of flushed batches indexed by the number of hits they contained.
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] histogram = new long[batchSizeHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = batchSizeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    public long getFlushedHitCount() {
+        return totalHits.get();
+    }
+
+    public long getFlushedBatchCount() {
+        long count = 0;
+        for (AtomicLong flushCount : flushCounts.values()) {
+            count += flushCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return The average time, in milliseconds, between the first hit being added to a batch and the batch being flushed.
+     */
+    public long getAverageBatchAgeMillis() {
+        long batches = getFlushedBatchCount();
+        return batches == 0 ? 0 : totalBatchAgeMillis.get() / batches;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchAccumulator(flushCounts=" + flushCounts + ", hits=" + totalHits.get()
+                + ", averageBatchAgeMillis=" + getAverageBatchAgeMillis() + ")";
+    }
+
+    private void scheduleLinger(final HitBatch lingering) {
+        lingerFuture = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(FlushReason.LINGER, lingering);
+            }
+        }, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flush the current batch.
+     * @param reason The reason for the flush.
+     * @param expected If not null, only flush if the current batch is this batch.
+     */
+    private void flush(FlushReason reason, HitBatch expected) {
+        HitBatch flushed;
+        synchronized (this) {
+            if (batch == null || (expected != null && batch != expected)) return;
+            flushed = takeBatch();
+        }
+        send(flushed, reason);
+    }
+
+    // must be invoked while holding the lock on 'this'
+    private HitBatch takeBatch() {
+        HitBatch taken = batch;
+        batch = null;
+        totalBatchAgeMillis.addAndGet(System.currentTimeMillis() - batchCreatedMillis);
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+        return taken;
+    }
+
+    private void send(HitBatch flushed, FlushReason reason) {
+        flushCounts.get(reason).incrementAndGet();
+        batchSizeHistogram.incrementAndGet(flushed.size());
+        totalHits.addAndGet(flushed.size());
+        log.fine("flushing " + flushed + " reason: " + reason);
+
+        sender.sendBatch(flushed);
+    }
+}
@@ -0,0 +1,267 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.util.HitEncoder;
+import com.akoscz.googleanalytics.util.HitEvent;
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread-safe tracker for concurrent producers.  Its settings are immutable and are validated and url encoded once,
+ * when the tracker is built.  Hits are immutable values built by each producer, so sending needs neither locks nor the
+ * shared GoogleAnalytics.Tracker, which is left alone.  The current TrackingContext is applied to every hit.
+ *
+ * While the running AnalyticsRuntime of the global tracker uses the config of the tracker, the tracker shares that
+ * runtime and is flushed and shut down along with it.  The runtime is looked up for every hit, so the tracker follows
+ * a global runtime which is started or rebuilt after the tracker was built.  Otherwise the tracker owns a runtime of
+ * its own, started when the first hit is sent and shut down once a global runtime with its config takes over, so
+ * trackers with different configs never close each other's runtime.  GoogleAnalytics.buildConcurrentTracker() uses
+ * the config of the running runtime if it is given none.
+ * Use flush() and shutdown() of the tracker to send the hits queued on its runtime.
+ *
+ *      ConcurrentTracker tracker = GoogleAnalytics.buildConcurrentTracker(trackingId, clientId, "App", config)
+ *              .applicationVersion("1.0")
+ *              .build();
+ *      tracker.send(Hit.event("Video", "play").label(title).build());
+ */
+public class ConcurrentTracker {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Getter
+    private final GoogleAnalyticsConfig config;
+    @Getter
+    private final String trackingId;
+    @Getter
+    private final UUID clientId;
+    @Getter
+    private final String applicationName;
+    @Getter
+    private final String applicationVersion;
+    @Getter
+    private final String applicationId;
+    @Getter
+    private final String dataSource;
+    @Getter
+    private final Boolean anonymizeIP;
+
+    // the encoded settings, of the GET url without the endpoint and of the POST payload
+    private final byte[] urlParams;
+    private final byte[] postParams;
+
+    // the runtime of the tracker while no global runtime uses its config
+    private volatile AnalyticsRuntime ownRuntime;
+
+    // qualified, inside the class the simple name refers to the generated ConcurrentTracker.Builder
+    @lombok.Builder(builderClassName = "Builder")
+    private ConcurrentTracker(@NonNull GoogleAnalyticsConfig config, String trackingId, UUID clientId,
+                              String applicationName, String applicationVersion, String applicationId,
+                              String dataSource, Boolean anonymizeIP) {
+        this.config = config;
+        this.trackingId = trackingId;
+        this.clientId = clientId;
+        this.applicationName = applicationName;
+        this.applicationVersion = applicationVersion;
+        this.applicationId = applicationId;
+        this.dataSource = dataSource;
+        this.anonymizeIP = anonymizeIP;
+
+        // a prototype built with its own builder, the global tracker is not touched
+        GoogleAnalytics prototype = GoogleAnalytics.trackerBuilder()
+                .config(config)
+                .protocolVersion(BaseAnalytics.PROTOCOL_VERSION)
+                .trackingId(trackingId)
+                .clientId(clientId)
+                .applicationName(applicationName)
+                .applicationVersion(applicationVersion)
+                .applicationId(applicationId)
+                .dataSource(dataSource)
+                .anonymizeIP(anonymizeIP)
+                .build();
+        prototype.validateTrackerParams();
+        this.urlParams = prototype.encodeTrackerParams(true);
+        this.postParams = prototype.encodeTrackerParams(false);
+    }
+
+    /**
+     * @return The runtime sending the hits of this tracker, the runtime of the global tracker if it is shared.
+     */
+    public AnalyticsRuntime getRuntime() {
+        AnalyticsRuntime shared = BaseAnalytics.runningRuntime(config);
+        if (shared != null) {
+            closeOwnRuntime();
+            return shared;
+        }
+
+        AnalyticsRuntime runtime = ownRuntime;
+        if (runtime == null) {
+            synchronized (this) {
+                if (ownRuntime == null) {
+                    ownRuntime = new AnalyticsRuntime(config).start();
+                }
+                runtime = ownRuntime;
+            }
+        }
+        return runtime;
+    }
+
+    /**
+     * Hand over to the global runtime, sending the hits queued on the runtime the tracker started before.
+     */
+    private void closeOwnRuntime() {
+        if (ownRuntime == null) return;
+
+        AnalyticsRuntime closed;
+        synchronized (this) {
+            closed = ownRuntime;
+            ownRuntime = null;
+        }
+        if (closed != null) {
+            closed.close();
+        }
+    }
+
+    /**
+     * Send the accumulated and queued hits of the tracker's runtime, waiting up to the given timeout.
+     * @return What happened to the hits.
+     */
+    public ShutdownReport flush(long timeout, @NonNull TimeUnit unit) {
+        return getRuntime().flush(timeout, unit);
+    }
+
+    /**
+     * Shut down the tracker's runtime, see AnalyticsRuntime.shutdown().  A runtime shared with the global tracker is
+     * shut down for both.  Hits sent afterwards are dropped.
+     * @return What happened to the hits.
+     */
+    public ShutdownReport shutdown(long timeout, @NonNull TimeUnit unit) {
+        return getRuntime().shutdown(timeout, unit);
+    }
+
+    /**
+     * Send the hit asynchronously.
+     */
+    public void send(@NonNull Hit hit) {
+        send(hit, true);
+    }
+
+    /**
+     * Send the hit, batched with other hits when auto batching is enabled, see BaseAnalytics.send(boolean).
+     * @param asynchronous True to perform the network operation asynchronously, False otherwise.
+     */
+    public void send(@NonNull Hit hit, boolean asynchronous) {
+        new EncodedHit(hit).send(asynchronous);
+    }
+
+    /**
+     * Send the hit asynchronously and report the outcome of the request, see BaseAnalytics.sendAsync().
+     */
+    public Future<SendResult> sendAsync(@NonNull Hit hit) {
+        return sendAsync(hit, null);
+    }
+
+    public Future<SendResult> sendAsync(@NonNull Hit hit, SendCallback callback) {
+        return new EncodedHit(hit).sendAsync(callback);
+    }
+
+    /**
+     * Send the hits to the '/batch' endpoint, see BaseAnalytics.sendAll().
+     */
+    public void sendAll(@NonNull Collection<Hit> hits, boolean asynchronous) {
+        List<EncodedHit> encodedHits = new ArrayList<EncodedHit>(hits.size());
+        for (Hit hit : hits) {
+            encodedHits.add(new EncodedHit(hit));
+        }
+        BaseAnalytics.sendAll(encodedHits, asynchronous);
+    }
+
+    /**
+     * @return The url encoded payload of the hit, as it would appear in the body of a POST request.
+     */
+    public String buildPayload(@NonNull Hit hit) {
+        return new EncodedHit(hit).buildPayload();
+    }
+
+    /**
+     * Adapts a Hit of this tracker to the send methods of BaseAnalytics.
+     */
+    private class EncodedHit extends BaseAnalytics {
+
+        private final Hit hit;
+
+        EncodedHit(Hit hit) {
+            this.hit = hit;
+        }
+
+        @Override
+        /* package */ AnalyticsRuntime sendingRuntime() {
+            return ConcurrentTracker.this.getRuntime();
+        }
+
+        @Override
+        /* package */ String buildUrlString() {
+            Object event = HitEvent.ENCODE.begin();
+            return encoded(event, hit.getType(), true,
+                    encodeHit(GoogleAnalytics.beginUrl(config).params(urlParams), true)).toString();
+        }
+
+        @Override
+        /* package */ String buildPayload() {
+            return encodePayload().toString();
+        }
+
+        @Override
+        /* package */ byte[] buildPayloadBytes() {
+            return encodePayload().toByteArray();
+        }
+
+        private HitEncoder encodePayload() {
+            Object event = HitEvent.ENCODE.begin();
+            return encoded(event, hit.getType(), false,
+                    encodeHit(GoogleAnalytics.beginPayload().params(postParams), false));
+        }
+
+        private HitEncoder encodeHit(HitEncoder encoder, boolean get) {
+            TrackingContext context = TrackingContext.current();
+            GoogleAnalytics.encodeContext(encoder, context, dataSource == null || dataSource.isEmpty(), anonymizeIP == null);
+            return GoogleAnalytics.encodeHit(encoder, context, hit, get);
+        }
+
+        @Override
+        /* package */ List<GoogleAnalyticsParameter> buildPostParams() {
+            List<GoogleAnalyticsParameter> params = new ArrayList<GoogleAnalyticsParameter>();
+            for (NameValuePair param : URLEncodedUtils.parse(buildPayload(), UTF_8)) {
+                params.add(GoogleAnalyticsParameter.of(param.getName(), param.getValue()));
+            }
+            return params;
+        }
+
+        @Override
+        /* package */ GoogleAnalyticsConfig getConfig() {
+            return config;
+        }
+
+        /**
+         * The settings were validated by the tracker and the hit when it was built.
+         */
+        @Override
+        /* package */ void validateRequiredParams() {
+        }
+
+        /**
+         * Hits of a ConcurrentTracker do not use the global tracker, so there is nothing to clear.
+         */
+        @Override
+        /* package */ void resetTracker() {
+        }
+    }
+}
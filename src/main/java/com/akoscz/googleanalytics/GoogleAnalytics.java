@@ -1,12 +1,13 @@
 package com.akoscz.googleanalytics;
 
-import com.akoscz.googleanalytics.util.NonNullOrEmptyStringBuilder;
+import com.akoscz.googleanalytics.util.HitEncoder;
+import com.akoscz.googleanalytics.util.HitEvent;
 import lombok.Builder;
 import lombok.Getter;
 import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Pattern;
 
 /**
@@ -28,6 +29,12 @@ public class GoogleAnalytics extends BaseAnalytics {
         // timing;
     }
 
+    private static final int MAX_URL_BYTES = 8000;
+    private static final int MAX_POST_BYTES = HitBatch.MAX_HIT_BYTES;
+    private static final String URL_TOO_LONG = "URL string length must not exceed " + MAX_URL_BYTES + " bytes!";
+    private static final String POST_TOO_LONG = "Post data parameters must not exceed " + MAX_POST_BYTES + " bytes!";
+    private static final Pattern TRACKING_ID_PATTERN = Pattern.compile("[U][A]-[0-9]+-[0-9]+");
+
     @Getter
     private GoogleAnalyticsConfig config;
 
@@ -72,6 +79,7 @@ public class GoogleAnalytics extends BaseAnalytics {
     private Boolean anonymizeIP;
     private static final String ANONYIZE_IP_KEY = "aip";
     private GoogleAnalyticsParameter getAnonymizeIpParam() {
+        Boolean anonymizeIP = TrackingContext.current().resolveAnonymizeIP(this.anonymizeIP);
         if (anonymizeIP == null) return GoogleAnalyticsParameter.EMPTY;
         return GoogleAnalyticsParameter.of(ANONYIZE_IP_KEY, anonymizeIP ? "1" : "0");
     }
@@ -88,6 +96,7 @@ public class GoogleAnalytics extends BaseAnalytics {
     private String dataSource;
     private static final String DATA_SOURCE_KEY = "ds";
     private GoogleAnalyticsParameter getDataSourceParam() {
+        String dataSource = TrackingContext.current().resolveDataSource(this.dataSource);
         if (dataSource == null || dataSource.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
         return GoogleAnalyticsParameter.of(DATA_SOURCE_KEY, dataSource);
     }
@@ -105,7 +114,7 @@ public class GoogleAnalytics extends BaseAnalytics {
     private static final String CACHE_BUSTER_KEY = "z";
     private GoogleAnalyticsParameter getCacheBusterParam() {
         if (cacheBuster == null || !cacheBuster) return GoogleAnalyticsParameter.EMPTY;
-        return GoogleAnalyticsParameter.of(CACHE_BUSTER_KEY, String.valueOf(new Random().nextLong()));
+        return GoogleAnalyticsParameter.of(CACHE_BUSTER_KEY, String.valueOf(ThreadLocalRandom.current().nextLong()));
     }
 
     // *****************************
@@ -138,6 +147,7 @@ public class GoogleAnalytics extends BaseAnalytics {
     private String userId;
     private static final String USER_ID_KEY = "uid";
     private GoogleAnalyticsParameter getUserIdParam() {
+        String userId = TrackingContext.current().resolveUserId(this.userId);
         if (userId == null || userId.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
         return GoogleAnalyticsParameter.of(USER_ID_KEY, userId);
     }
@@ -174,9 +184,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String screenName;
     private static final String SCREEN_NAME_KEY = "cd";
+    private static final int SCREEN_NAME_MAX_BYTES = 2048;
+    private static final String SCREEN_NAME_TOO_LONG = "'screenName' cannot exceed 2048 bytes!";
     private GoogleAnalyticsParameter getScreenNameParam() {
         if (screenName == null || screenName.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (screenName.getBytes().length > 2048) throw new RuntimeException("'screenName' cannot exceed 2048 bytes!");
+        if (screenName.getBytes().length > SCREEN_NAME_MAX_BYTES) throw new RuntimeException(SCREEN_NAME_TOO_LONG);
         return GoogleAnalyticsParameter.of(SCREEN_NAME_KEY, screenName);
     }
 
@@ -192,8 +204,10 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String applicationName;
     private static final String APPLICATION_NAME_KEY = "an";
+    private static final int APPLICATION_NAME_MAX_BYTES = 100;
+    private static final String APPLICATION_NAME_TOO_LONG = "'applicationName' cannot exceed 100 bytes!";
     private GoogleAnalyticsParameter getApplicationNameParam() {
-        if (applicationName.getBytes().length > 100) throw new RuntimeException("'applicationName' cannot exceed 100 bytes!");
+        if (applicationName.getBytes().length > APPLICATION_NAME_MAX_BYTES) throw new RuntimeException(APPLICATION_NAME_TOO_LONG);
         return GoogleAnalyticsParameter.of(APPLICATION_NAME_KEY, applicationName);
     }
 
@@ -205,9 +219,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String applicationVersion;
     private static final String APPLICATION_VERSION_KEY = "av";
+    private static final int APPLICATION_VERSION_MAX_BYTES = 100;
+    private static final String APPLICATION_VERSION_TOO_LONG = "'applicationVersion' cannot exceed 100 bytes!";
     private GoogleAnalyticsParameter getApplicationVersionParam() {
         if (applicationVersion == null || applicationVersion.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (applicationVersion.getBytes().length > 100) throw new RuntimeException("'applicationVersion' cannot exceed 100 bytes!");
+        if (applicationVersion.getBytes().length > APPLICATION_VERSION_MAX_BYTES) throw new RuntimeException(APPLICATION_VERSION_TOO_LONG);
         return GoogleAnalyticsParameter.of(APPLICATION_VERSION_KEY, applicationVersion);
     }
 
@@ -219,9 +235,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String applicationId;
     private static final String APPLICATION_ID_KEY = "aid";
+    private static final int APPLICATION_ID_MAX_BYTES = 150;
+    private static final String APPLICATION_ID_TOO_LONG = "'applicationId' cannot exceed 150 bytes!";
     private GoogleAnalyticsParameter getApplicationIdParam() {
         if (applicationId == null || applicationId.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (applicationId.getBytes().length > 150) throw new RuntimeException("'applicationId' cannot exceed 150 bytes!");
+        if (applicationId.getBytes().length > APPLICATION_ID_MAX_BYTES) throw new RuntimeException(APPLICATION_ID_TOO_LONG);
         return GoogleAnalyticsParameter.of(APPLICATION_ID_KEY, applicationId);
     }
 
@@ -237,9 +255,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String category;
     private static final String CATEGORY_KEY = "ec";
+    private static final int CATEGORY_MAX_BYTES = 150;
+    private static final String CATEGORY_TOO_LONG = "'category' cannot exceed 150 bytes!";
     private GoogleAnalyticsParameter getCategoryParam() {
         if (category == null || category.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (category.getBytes().length > 150) throw new RuntimeException("'category' cannot exceed 150 bytes!");
+        if (category.getBytes().length > CATEGORY_MAX_BYTES) throw new RuntimeException(CATEGORY_TOO_LONG);
         return GoogleAnalyticsParameter.of(CATEGORY_KEY, category);
     }
 
@@ -251,9 +271,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String action;
     private static final String ACTION_KEY = "ea";
+    private static final int ACTION_MAX_BYTES = 500;
+    private static final String ACTION_TOO_LONG = "event 'action' cannot exceed 500 bytes!";
     private GoogleAnalyticsParameter getActionParam() {
         if (action == null || action.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (action.getBytes().length > 500) throw new RuntimeException("event 'action' cannot exceed 500 bytes!");
+        if (action.getBytes().length > ACTION_MAX_BYTES) throw new RuntimeException(ACTION_TOO_LONG);
         return GoogleAnalyticsParameter.of(ACTION_KEY, action);
     }
 
@@ -265,9 +287,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String label;
     private static final String LABEL_KEY = "el";
+    private static final int LABEL_MAX_BYTES = 500;
+    private static final String LABEL_TOO_LONG = "event 'label' cannot exceed 500 bytes!";
     private GoogleAnalyticsParameter getLabelParam() {
         if (label == null || label.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (label.getBytes().length > 500) throw new RuntimeException("event 'label' cannot exceed 500 bytes!");
+        if (label.getBytes().length > LABEL_MAX_BYTES) throw new RuntimeException(LABEL_TOO_LONG);
         return GoogleAnalyticsParameter.of(LABEL_KEY, label);
     }
 
@@ -297,9 +321,11 @@ public class GoogleAnalytics extends BaseAnalytics {
     @Getter
     private String exceptionDescription;
     private static final String EX_DESCRIPTION_KEY = "exd";
+    private static final int EX_DESCRIPTION_MAX_BYTES = 150;
+    private static final String EX_DESCRIPTION_TOO_LONG = "event 'exceptionDescription' cannot exceed 150 bytes!";
     private GoogleAnalyticsParameter getExceptionDescriptionParam() {
         if (type != HitType.exception || exceptionDescription == null || exceptionDescription.isEmpty()) return GoogleAnalyticsParameter.EMPTY;
-        if (exceptionDescription.getBytes().length > 150) throw new RuntimeException("event 'exceptionDescription' cannot exceed 150 bytes!");
+        if (exceptionDescription.getBytes().length > EX_DESCRIPTION_MAX_BYTES) throw new RuntimeException(EX_DESCRIPTION_TOO_LONG);
         return GoogleAnalyticsParameter.of(EX_DESCRIPTION_KEY, exceptionDescription);
     }
 
@@ -325,17 +351,17 @@ public class GoogleAnalytics extends BaseAnalytics {
      * https://developers.google.com/analytics/devguides/collection/protocol/v1/reference#required
      */
     /* package */ void validateRequiredParams() {
-        if (clientId == null)
-            throw new IllegalArgumentException("'clientId' cannot be null!");
-
-        if (applicationName == null || applicationName.isEmpty())
-            throw new IllegalArgumentException("'applicationName' cannot be null or empty!");
+        validateTemplateParams();
 
-        if (trackingId == null || trackingId.isEmpty())
-            throw new IllegalArgumentException("'trackingId' cannot be null or empty!");
+        if (type == HitType.screenview && (screenName == null || screenName.isEmpty()))
+            throw new IllegalArgumentException("'screenName' cannot be null or empty when HitType.screenview is specified!");
+    }
 
-        if (!Pattern.matches("[U][A]-[0-9]+-[0-9]+", trackingId))
-            throw new IllegalArgumentException("Malformed trackingId: '" + trackingId + "'.  Expected: 'UA-[0-9]+-[0-9]+'");
+    /**
+     * Validate the required parameters, except the screenName which a template may leave to its hits.
+     */
+    private void validateTemplateParams() {
+        validateTrackerParams();
 
         if (type == null)
             throw new IllegalArgumentException("Missing HitType. 'type' cannot be null!");
@@ -345,9 +371,23 @@ public class GoogleAnalytics extends BaseAnalytics {
 
         if (type == HitType.event && (action == null || action.isEmpty()))
             throw new IllegalArgumentException("event 'action' cannot be null or empty when HitType.event is specified!");
+    }
 
-        if (type == HitType.screenview && (screenName == null || screenName.isEmpty()))
-            throw new IllegalArgumentException("'screenName' cannot be null or empty when HitType.screenview is specified!");
+    /**
+     * Validate the required parameters which do not depend on the hit type.
+     */
+    /* package */ void validateTrackerParams() {
+        if (clientId == null)
+            throw new IllegalArgumentException("'clientId' cannot be null!");
+
+        if (applicationName == null || applicationName.isEmpty())
+            throw new IllegalArgumentException("'applicationName' cannot be null or empty!");
+
+        if (trackingId == null || trackingId.isEmpty())
+            throw new IllegalArgumentException("'trackingId' cannot be null or empty!");
+
+        if (!TRACKING_ID_PATTERN.matcher(trackingId).matches())
+            throw new IllegalArgumentException("Malformed trackingId: '" + trackingId + "'.  Expected: 'UA-[0-9]+-[0-9]+'");
     }
 
     /**
@@ -355,35 +395,180 @@ public class GoogleAnalytics extends BaseAnalytics {
      * @return The URL string containing the query params of all available parameters.
      */
     /* package */ String buildUrlString() {
-        validateRequiredParams();
+        validate(type);
+
+        Object event = HitEvent.ENCODE.begin();
+        return encoded(event, type, true, encodeParams(beginUrl(config), true, true)).toString();
+    }
+
+    /**
+     * Build the url encoded payload of the POST request in a single pass, with the parameters of buildPostParams().
+     * @return The payload string.
+     */
+    @Override
+    /* package */ String buildPayload() {
+        return encodePayload().toString();
+    }
+
+    @Override
+    /* package */ byte[] buildPayloadBytes() {
+        return encodePayload().toByteArray();
+    }
+
+    private HitEncoder encodePayload() {
+        validate(type);
+
+        Object event = HitEvent.ENCODE.begin();
+        return encoded(event, type, false, encodeParams(beginPayload(), false, true));
+    }
 
-        String urlString = new NonNullOrEmptyStringBuilder()
-                .append(config.getEndpoint())
-                .append(getProtocolVersionParam().toStringWithPrefix("?"))    // protocol version
-                .append(getAnonymizeIpParam().toStringWithPrefix("&"))  // anonymize IP
-                .append(getDataSourceParam().toStringWithPrefix("&"))   // data source
-                .append(getTrackingIdParam().toStringWithPrefix("&"))  // tracking id
-                .append(getClientIdParam().toStringWithPrefix("&"))  // client id
-                .append(getUserIdParam().toStringWithPrefix("&"))  // user id
-                .append(getCategoryParam().toStringWithPrefix("&"))   // event category
-                .append(getActionParam().toStringWithPrefix("&"))   // event action
-                .append(getLabelParam().toStringWithPrefix("&"))   // event label
-                .append(getValueParam().toStringWithPrefix("&"))   // event value
-                .append(getHitTypeParam().toStringWithPrefix("&"))    // event type
-                .append(getApplicationNameParam().toStringWithPrefix("&"))   // application name
-                .append(getApplicationVersionParam().toStringWithPrefix("&"))   // application version
-                .append(getApplicationIdParam().toStringWithPrefix("&"))  // application id
-                .append(getScreenNameParam().toStringWithPrefix("&"))   // screen name
-                .append(getCacheBusterParam().toStringWithPrefix("&"))    // cache buster
-                .append(getExceptionDescriptionParam().toStringWithPrefix("&")) // exception description
-                .append(getIsExceptionFatalParam().toStringWithPrefix("&")) // exception fatal flag
-                .toString();
-
-        if (urlString.getBytes().length > 8000) {
-            throw new RuntimeException("URL string length must not exceed 8000 bytes!");
+    /**
+     * Validate and encode the parameters of this hit once, to send any number of hits which only differ in the
+     * userId, label, value and screenName.  The values of this hit are the defaults of those.
+     * Like send(), this clears the non-required parameters of the tracker.
+     *
+     *      HitTemplate played = tracker.type(HitType.event).category("Video").action("play").build().template();
+     *      played.hit().label(title).value(seconds).send();
+     *
+     * @return The template.
+     */
+    public HitTemplate template() {
+        validateTemplateParams();
+
+        byte[] urlParams = encodeParams(HitEncoder.get().begin(MAX_URL_BYTES, URL_TOO_LONG), true, false).toByteArray();
+        byte[] postParams = encodeParams(beginPayload(), false, false).toByteArray();
+        // fail early on invalid defaults
+        encodeTemplateSlots(beginPayload(), TrackingContext.EMPTY, userId, label, value, screenName);
+
+        // the tracking context of the hits provides the fields which the template leaves out
+        HitTemplate template = new HitTemplate(config, type, urlParams, postParams, cacheBuster != null && cacheBuster,
+                dataSource == null || dataSource.isEmpty(), anonymizeIP == null, userId, label, value, screenName);
+
+        // clear all non-required fields
+        resetTracker();
+        return template;
+    }
+
+    /* package */ static HitEncoder beginUrl(GoogleAnalyticsConfig config) {
+        return HitEncoder.get().begin(MAX_URL_BYTES, URL_TOO_LONG).url(config.getEndpoint());
+    }
+
+    /* package */ static HitEncoder beginPayload() {
+        return HitEncoder.get().begin(MAX_POST_BYTES, POST_TOO_LONG);
+    }
+
+    /**
+     * Encode the available parameters in the order of the GET url.  The POST payload leaves out the application id
+     * and the cache buster, like buildPostParams() does.
+     * The current TrackingContext provides the userId, dataSource and anonymizeIP which the hit does not set.
+     * @param slots False to leave out the parameters which the hits of a template set, the cache buster and the
+     *              tracking context.
+     */
+    private HitEncoder encodeParams(HitEncoder encoder, boolean get, boolean slots) {
+        TrackingContext context = slots ? TrackingContext.current() : TrackingContext.EMPTY;
+        Boolean anonymizeIP = context.resolveAnonymizeIP(this.anonymizeIP);
+
+        encoder.param(PROTOCOL_VERSION_KEY, protocolVersion);
+        if (anonymizeIP != null) encoder.param(ANONYIZE_IP_KEY, anonymizeIP ? 1 : 0);
+        encoder.param(DATA_SOURCE_KEY, context.resolveDataSource(dataSource));
+        encoder.param(TRACKING_ID_KEY, trackingId);
+        encoder.param(CLIENT_ID_KEY, clientId);
+        if (slots) encoder.param(USER_ID_KEY, context.resolveUserId(userId));
+        encoder.param(CATEGORY_KEY, category, CATEGORY_MAX_BYTES, CATEGORY_TOO_LONG);
+        encoder.param(ACTION_KEY, action, ACTION_MAX_BYTES, ACTION_TOO_LONG);
+        if (slots) {
+            encoder.param(LABEL_KEY, label, LABEL_MAX_BYTES, LABEL_TOO_LONG);
+            encodeValue(encoder, value);
+        }
+        encoder.param(HIT_TYPE_KEY, type.name());
+        encoder.param(APPLICATION_NAME_KEY, applicationName, APPLICATION_NAME_MAX_BYTES, APPLICATION_NAME_TOO_LONG);
+        encoder.param(APPLICATION_VERSION_KEY, applicationVersion, APPLICATION_VERSION_MAX_BYTES,
+                APPLICATION_VERSION_TOO_LONG);
+        if (get) {
+            encoder.param(APPLICATION_ID_KEY, applicationId, APPLICATION_ID_MAX_BYTES, APPLICATION_ID_TOO_LONG);
         }
+        if (slots) {
+            encoder.param(SCREEN_NAME_KEY, screenName, SCREEN_NAME_MAX_BYTES, SCREEN_NAME_TOO_LONG);
+            if (get && cacheBuster != null && cacheBuster) encodeCacheBuster(encoder);
+        }
+        if (type == HitType.exception) {
+            encoder.param(EX_DESCRIPTION_KEY, exceptionDescription, EX_DESCRIPTION_MAX_BYTES, EX_DESCRIPTION_TOO_LONG);
+            if (isExceptionFatal != null) encoder.param(EX_FATAL_KEY, isExceptionFatal ? 1 : 0);
+        }
+        return encoder;
+    }
 
-        return urlString;
+    /**
+     * Encode the parameters which the hits of a template set.
+     */
+    /* package */ static HitEncoder encodeTemplateSlots(HitEncoder encoder, TrackingContext context, String userId,
+                                                       String label, Integer value, String screenName) {
+        encoder.param(USER_ID_KEY, context.resolveUserId(userId));
+        encoder.param(LABEL_KEY, label, LABEL_MAX_BYTES, LABEL_TOO_LONG);
+        encodeValue(encoder, value);
+        encoder.param(SCREEN_NAME_KEY, screenName, SCREEN_NAME_MAX_BYTES, SCREEN_NAME_TOO_LONG);
+        return encoder;
+    }
+
+    /**
+     * Encode the parameters which do not depend on the hit, for a ConcurrentTracker.
+     */
+    /* package */ byte[] encodeTrackerParams(boolean get) {
+        HitEncoder encoder = HitEncoder.get().begin(get ? MAX_URL_BYTES : MAX_POST_BYTES, get ? URL_TOO_LONG : POST_TOO_LONG);
+        encoder.param(PROTOCOL_VERSION_KEY, protocolVersion);
+        if (anonymizeIP != null) encoder.param(ANONYIZE_IP_KEY, anonymizeIP ? 1 : 0);
+        encoder.param(DATA_SOURCE_KEY, dataSource);
+        encoder.param(TRACKING_ID_KEY, trackingId);
+        encoder.param(CLIENT_ID_KEY, clientId);
+        encoder.param(APPLICATION_NAME_KEY, applicationName, APPLICATION_NAME_MAX_BYTES, APPLICATION_NAME_TOO_LONG);
+        encoder.param(APPLICATION_VERSION_KEY, applicationVersion, APPLICATION_VERSION_MAX_BYTES,
+                APPLICATION_VERSION_TOO_LONG);
+        if (get) {
+            encoder.param(APPLICATION_ID_KEY, applicationId, APPLICATION_ID_MAX_BYTES, APPLICATION_ID_TOO_LONG);
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Encode the parameters of an immutable Hit, which complement the parameters of encodeTrackerParams().
+     */
+    /* package */ static HitEncoder encodeHit(HitEncoder encoder, TrackingContext context, Hit hit, boolean get) {
+        encoder.param(USER_ID_KEY, context.resolveUserId(hit.getUserId()));
+        encoder.param(CATEGORY_KEY, hit.getCategory(), CATEGORY_MAX_BYTES, CATEGORY_TOO_LONG);
+        encoder.param(ACTION_KEY, hit.getAction(), ACTION_MAX_BYTES, ACTION_TOO_LONG);
+        encoder.param(LABEL_KEY, hit.getLabel(), LABEL_MAX_BYTES, LABEL_TOO_LONG);
+        encodeValue(encoder, hit.getValue());
+        encoder.param(HIT_TYPE_KEY, hit.getType().name());
+        encoder.param(SCREEN_NAME_KEY, hit.getScreenName(), SCREEN_NAME_MAX_BYTES, SCREEN_NAME_TOO_LONG);
+        if (get && hit.isCacheBuster()) encodeCacheBuster(encoder);
+        if (hit.getType() == HitType.exception) {
+            encoder.param(EX_DESCRIPTION_KEY, hit.getExceptionDescription(), EX_DESCRIPTION_MAX_BYTES,
+                    EX_DESCRIPTION_TOO_LONG);
+            encoder.param(EX_FATAL_KEY, hit.isExceptionFatal() ? 1 : 0);
+        }
+        return encoder;
+    }
+
+    /**
+     * Encode the dataSource and anonymizeIP of the tracking context, for hits whose encoded parameters leave them out.
+     */
+    /* package */ static HitEncoder encodeContext(HitEncoder encoder, TrackingContext context, boolean dataSource,
+                                                 boolean anonymizeIP) {
+        if (anonymizeIP && context.getAnonymizeIP() != null) {
+            encoder.param(ANONYIZE_IP_KEY, context.getAnonymizeIP() ? 1 : 0);
+        }
+        if (dataSource) encoder.param(DATA_SOURCE_KEY, context.getDataSource());
+        return encoder;
+    }
+
+    /* package */ static HitEncoder encodeCacheBuster(HitEncoder encoder) {
+        return encoder.param(CACHE_BUSTER_KEY, ThreadLocalRandom.current().nextLong());
+    }
+
+    private static void encodeValue(HitEncoder encoder, Integer value) {
+        if (value == null) return;
+        if (value < 0) throw new IllegalArgumentException("event 'value' cannot be negative!");
+        encoder.param(VALUE_KEY, value);
     }
 
     /**
@@ -424,8 +609,8 @@ public class GoogleAnalytics extends BaseAnalytics {
         // account for the separator bytes at the end of each key=value pair, except the very last one
         bytesCount += postParameters.size() - 1;
 
-        if (bytesCount > 8192) {
-            throw new RuntimeException("Post data parameters must not exceed 8192 bytes!");
+        if (bytesCount > MAX_POST_BYTES) {
+            throw new RuntimeException(POST_TOO_LONG);
         }
 
         return postParameters;
@@ -1,12 +1,23 @@
 package com.akoscz.googleanalytics;
 
+import com.akoscz.googleanalytics.spool.HitSpool;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * Data class that holds the configuration parameters such as:
  *  - which endpoint we are connecting to
- *  - thread pool params
+ *  - which endpoint we are sending batches of hits to
+ *  - thread pool and queue params
+ *  - connection pool params of the blocking transport
+ *  - retry params
+ *  - circuit breaker params
+ *  - warm up params
+ *  - spool params
+ *  - shutdown params
+ *  - which transport performs the network I/O
+ *  - metrics params
+ *  - auto batching params
  *  - debug on/off.  Setting debug to true will change the endpoint param to the debug endpoint.
  */
 public class GoogleAnalyticsConfig {
@@ -16,16 +27,95 @@ public class GoogleAnalyticsConfig {
         GET;
     }
 
+    /**
+     * Which transport performs the network I/O.
+     */
+    public enum TransportType {
+        /** Performs each request on a worker thread, reusing pooled keep-alive connections. */
+        BLOCKING,
+        /** Performs each request on a worker thread, opening a new connection for every hit. */
+        URL_CONNECTION,
+        /** Keeps many requests in flight on a few event driven I/O threads. */
+        NIO,
+        /** Multiplexes all requests over a single connection.  Requires Java 11, older runtimes use BLOCKING. */
+        HTTP2,
+        /** Never touches the network and answers every request after recordingLatencyMillis, for load testing. */
+        RECORDING;
+    }
+
+    /**
+     * Which threads send the hits.
+     */
+    public enum ExecutorType {
+        /** The minThreads to maxThreads platform threads of the thread pool. */
+        PLATFORM,
+        /**
+         * A virtual thread per hit, at most poolMaxTotal at a time so that every send finds a pooled connection.
+         * Requires Java 21, older runtimes use PLATFORM threads.
+         */
+        VIRTUAL;
+    }
+
+    /**
+     * The queue of hits waiting for a worker thread.
+     */
+    public enum QueueType {
+        /** A blocking deque of up to queueSize hits. */
+        LINKED,
+        /** A lock-free ring buffer preallocated with queueSize slots, rounded up to a power of two. */
+        RING_BUFFER;
+    }
+
+    /**
+     * What happens to async hits sent while the queue is full.  Hits which cannot be queued are never sent on the
+     * caller's thread.
+     */
+    public enum OverflowPolicy {
+        /** Drops the hit being sent. */
+        DROP_NEWEST,
+        /** Drops the oldest queued hit to make room. */
+        DROP_OLDEST,
+        /** Blocks the caller for up to overflowBlockTimeoutMillis, then drops the hit. */
+        BLOCK,
+        /** Writes the hit to the spool, or drops it when no spoolDirectory is set. */
+        SPILL;
+    }
+
     private static final String GA_ENDPOINT = "https://www.google-analytics.com/collect";
     private static final String GA_DEBUG_ENDPOINT = "https://www.google-analytics.com/debug/collect";
+    private static final String GA_BATCH_ENDPOINT = "https://www.google-analytics.com/batch";
     private static final String GA_THREAD_NAME_FORMAT = "googleanalytics-thread-{0}";
     private static final int DEFAULT_MIN_THREADS = 1;
     private static final int DEFAULT_MAX_THREADS = 10;
     private static final int DEFAULT_QUEUE_SIZE = DEFAULT_MAX_THREADS * 100;
     private static final int DEFAULT_THREAD_TIMEOUT = 5;
+    private static final long DEFAULT_BATCH_LINGER_MILLIS = 1000;
+    private static final String GA_IO_THREAD_NAME_FORMAT = "googleanalytics-io-thread-{0}";
+    private static final String GA_HTTP2_THREAD_NAME_FORMAT = "googleanalytics-http2-thread-{0}";
+    private static final int DEFAULT_IO_THREADS = 2;
+    private static final int DEFAULT_MAX_CONNECTIONS = 200;
+    private static final int DEFAULT_POOL_MAX_TOTAL = DEFAULT_MAX_THREADS;
+    private static final int DEFAULT_POOL_MAX_PER_ROUTE = DEFAULT_MAX_THREADS;
+    private static final long DEFAULT_CONNECTION_TTL_MILLIS = 5 * 60 * 1000;
+    private static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2 * 1000;
+    private static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = 200;
+    private static final long DEFAULT_RETRY_MAX_DELAY_MILLIS = 30 * 1000;
+    private static final int DEFAULT_RETRY_BUDGET_MAX_TOKENS = 100;
+    private static final double DEFAULT_RETRY_BUDGET_TOKEN_RATIO = 0.1;
+    private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_MILLIS = 10 * 1000;
+    private static final long DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS = 30 * 1000;
+    private static final long DEFAULT_SPOOL_REPLAY_INTERVAL_MILLIS = 5 * 1000;
+    private static final long DEFAULT_OVERFLOW_BLOCK_TIMEOUT_MILLIS = 100;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5 * 1000;
 
     @Setter @Getter
     private String endpoint = GA_ENDPOINT;
+    /** The endpoint sendAll() and auto batching send batches of hits to. */
+    @Setter @Getter
+    private String batchEndpoint = GA_BATCH_ENDPOINT;
     @Getter @Setter
     private int minThreads = DEFAULT_MIN_THREADS;
     @Getter @Setter
@@ -34,6 +124,18 @@ public class GoogleAnalyticsConfig {
     private int queueSize = DEFAULT_QUEUE_SIZE;
     @Getter @Setter
     private int threadTimeout = DEFAULT_THREAD_TIMEOUT;
+    /** Which threads send the hits, see {@link ExecutorType}. */
+    @Getter @Setter
+    private ExecutorType executorType = ExecutorType.PLATFORM;
+    /** The queue of hits waiting for a worker thread, see {@link QueueType}. */
+    @Getter @Setter
+    private QueueType queueType = QueueType.LINKED;
+    /** What happens to async hits sent while the queue is full, see {@link OverflowPolicy}. */
+    @Getter @Setter
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    /** How long the BLOCK overflow policy waits for room in the queue. */
+    @Getter @Setter
+    private long overflowBlockTimeoutMillis = DEFAULT_OVERFLOW_BLOCK_TIMEOUT_MILLIS;
     @Setter @Getter
     private String threadNameFormat = GA_THREAD_NAME_FORMAT;
     @Setter @Getter
@@ -48,6 +150,137 @@ public class GoogleAnalyticsConfig {
     private String userAgent;
     @Setter @Getter
     private HttpMethod httpMethod = HttpMethod.POST;
+    /** Which transport performs the network I/O, see {@link TransportType}. */
+    @Setter @Getter
+    private TransportType transportType = TransportType.BLOCKING;
+    /** The number of I/O threads of the NIO transport. */
+    @Getter @Setter
+    private int ioThreads = DEFAULT_IO_THREADS;
+    @Setter @Getter
+    private String ioThreadNameFormat = GA_IO_THREAD_NAME_FORMAT;
+    @Setter @Getter
+    private String http2ThreadNameFormat = GA_HTTP2_THREAD_NAME_FORMAT;
+    /** The maximum number of concurrent connections of the NIO transport. */
+    @Getter @Setter
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    /** The maximum number of pooled connections of the blocking transport. */
+    @Getter @Setter
+    private int poolMaxTotal = DEFAULT_POOL_MAX_TOTAL;
+    /** The maximum number of pooled connections per route of the blocking transport. */
+    @Getter @Setter
+    private int poolMaxPerRoute = DEFAULT_POOL_MAX_PER_ROUTE;
+    /** Pooled connections are not reused once they are older than this. */
+    @Getter @Setter
+    private long connectionTtlMillis = DEFAULT_CONNECTION_TTL_MILLIS;
+    /** Pooled connections are validated before reuse once they have been idle for this long. */
+    @Getter @Setter
+    private int validateAfterInactivityMillis = DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS;
+    /** A background evictor closes pooled connections once they have been idle for this long. */
+    @Getter @Setter
+    private long idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+    /**
+     * How often a request failing with a 5xx response code, a timeout or a connection reset is retried.
+     * Zero disables retries.
+     */
+    @Getter @Setter
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    /** The delay before the first retry, doubled for every further retry and jittered. */
+    @Getter @Setter
+    private long retryBaseDelayMillis = DEFAULT_RETRY_BASE_DELAY_MILLIS;
+    /** The cap of the exponential retry delay. */
+    @Getter @Setter
+    private long retryMaxDelayMillis = DEFAULT_RETRY_MAX_DELAY_MILLIS;
+    /** The size of the retry budget, every retry takes a token from it. */
+    @Getter @Setter
+    private int retryBudgetMaxTokens = DEFAULT_RETRY_BUDGET_MAX_TOKENS;
+    /** The tokens every successful request returns to the retry budget. */
+    @Getter @Setter
+    private double retryBudgetTokenRatio = DEFAULT_RETRY_BUDGET_TOKEN_RATIO;
+    /**
+     * The consecutive failed or slow requests which open the circuit breaker.  Zero disables the
+     * circuit breaker.
+     */
+    @Getter @Setter
+    private int circuitBreakerFailureThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+    /** Requests slower than this count as failed for the circuit breaker. */
+    @Getter @Setter
+    private long circuitBreakerSlowCallMillis = DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_MILLIS;
+    /**
+     * How long an open circuit breaker rejects requests without touching the network, before a
+     * single probe request decides whether to close it again.
+     */
+    @Getter @Setter
+    private long circuitBreakerOpenMillis = DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS;
+    /** When greater than zero, buildTracker opens that many pooled connections in the background. */
+    @Getter @Setter
+    private int warmUpConnections;
+    /**
+     * When greater than zero, the resolved addresses of the endpoint are cached and refreshed in the
+     * background once they are older than this.
+     */
+    @Getter @Setter
+    private long dnsCacheTtlMillis;
+    /** How long the RECORDING transport takes to answer a request. */
+    @Getter @Setter
+    private long recordingLatencyMillis;
+    /**
+     * When set, hits that could not be delivered or did not fit into the queue are spooled to this
+     * directory and replayed, also by the next tracker using it.  Hits older than 4 hours are dropped.
+     */
+    @Getter @Setter
+    private String spoolDirectory;
+    /** The size of the memory-mapped segment files of the spool. */
+    @Getter @Setter
+    private int spoolSegmentBytes = HitSpool.DEFAULT_SEGMENT_BYTES;
+    /**
+     * How often spooled hits are replayed to the batch endpoint, they are also replayed when
+     * the circuit breaker closes.
+     */
+    @Getter @Setter
+    private long spoolReplayIntervalMillis = DEFAULT_SPOOL_REPLAY_INTERVAL_MILLIS;
+    /**
+     * How long shutting the runtime down sends the queued hits on all worker threads before it
+     * spools or abandons the rest.
+     */
+    @Getter @Setter
+    private long shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+    /** When true, the runtime is shut down the same way when the JVM exits. */
+    @Getter @Setter
+    private boolean shutdownHook;
+    /** When true, the SenderMetrics of a running runtime are exported as an MBean of the platform MBeanServer. */
+    @Getter @Setter
+    private boolean jmxEnabled;
+    /** When true, hits sent asynchronously are collected and sent to the batch endpoint. */
+    @Getter @Setter
+    private boolean autoBatching;
+    /** An auto batch is sent once it holds this many hits, from 1 to HitBatch.MAX_HITS. */
+    @Getter
+    private int batchMaxHits = HitBatch.MAX_HITS;
+    /**
+     * An auto batch is sent once its payload would exceed this many bytes, from HitBatch.MAX_HIT_BYTES, so that any
+     * hit fits into an empty batch, to HitBatch.MAX_BYTES.
+     */
+    @Getter
+    private int batchMaxBytes = HitBatch.MAX_BYTES;
+    /** An auto batch is sent at the latest this long after its first hit. */
+    @Getter @Setter
+    private long batchLingerMillis = DEFAULT_BATCH_LINGER_MILLIS;
+
+    public void setBatchMaxHits(int batchMaxHits) {
+        if (batchMaxHits < 1 || batchMaxHits > HitBatch.MAX_HITS) {
+            throw new IllegalArgumentException("batchMaxHits must be between 1 and " + HitBatch.MAX_HITS + ": "
+                    + batchMaxHits);
+        }
+        this.batchMaxHits = batchMaxHits;
+    }
+
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        if (batchMaxBytes < HitBatch.MAX_HIT_BYTES || batchMaxBytes > HitBatch.MAX_BYTES) {
+            throw new IllegalArgumentException("batchMaxBytes must be between " + HitBatch.MAX_HIT_BYTES + " and "
+                    + HitBatch.MAX_BYTES + ": " + batchMaxBytes);
+        }
+        this.batchMaxBytes = batchMaxBytes;
+    }
 
     @Getter
     private boolean debug;
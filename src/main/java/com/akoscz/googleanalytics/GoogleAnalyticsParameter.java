@@ -1,5 +1,6 @@
 package com.akoscz.googleanalytics;
 
+import com.akoscz.googleanalytics.util.HitEncoder;
 import lombok.SneakyThrows;
 import lombok.Value;
 import org.apache.commons.lang3.StringUtils;
@@ -34,13 +35,14 @@ class GoogleAnalyticsParameter implements NameValuePair {
     }
 
 
+    /**
+     * @return The number of bytes of toString(), computed without encoding the value.
+     */
     /* package */ int countBytes() {
-        String str = toString();
-        int bytesCount = 0;
-        if (StringUtils.isNotEmpty(str)) {
-            bytesCount = str.getBytes().length;
+        if (StringUtils.isEmpty(value) || StringUtils.isEmpty(name)) {
+            return 0;
         }
-        return bytesCount;
+        return name.length() + 1 + HitEncoder.encodedLength(value);
     }
 
     /**
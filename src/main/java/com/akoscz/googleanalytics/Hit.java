@@ -0,0 +1,78 @@
+package com.akoscz.googleanalytics;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * An immutable hit, sent with a ConcurrentTracker.  Unlike the hits of the global GoogleAnalytics.Tracker, every Hit
+ * is built with its own builder, so any number of threads can build and send hits without sharing mutable state.
+ * The required parameters are validated when the hit is built, the length limits of the fields when it is encoded.
+ *
+ *      Hit hit = Hit.event("Video", "play").label("Big Buck Bunny").value(42).build();
+ *      concurrentTracker.send(hit);
+ */
+@Value
+public class Hit {
+
+    GoogleAnalytics.HitType type;
+    String userId;
+    String category;
+    String action;
+    String label;
+    Integer value;
+    String screenName;
+    boolean cacheBuster;
+    String exceptionDescription;
+    boolean exceptionFatal;
+
+    /**
+     * @param cacheBuster Null or false to leave out the cache buster.
+     * @param exceptionFatal Null or true if the exception was fatal.
+     */
+    @Builder
+    private Hit(GoogleAnalytics.HitType type, String userId, String category, String action, String label,
+                Integer value, String screenName, Boolean cacheBuster, String exceptionDescription,
+                Boolean exceptionFatal) {
+        if (type == null)
+            throw new IllegalArgumentException("Missing HitType. 'type' cannot be null!");
+
+        if (type == GoogleAnalytics.HitType.event && (category == null || category.isEmpty()))
+            throw new IllegalArgumentException("event 'category' cannot be null or empty when HitType.event is specified!");
+
+        if (type == GoogleAnalytics.HitType.event && (action == null || action.isEmpty()))
+            throw new IllegalArgumentException("event 'action' cannot be null or empty when HitType.event is specified!");
+
+        if (type == GoogleAnalytics.HitType.screenview && (screenName == null || screenName.isEmpty()))
+            throw new IllegalArgumentException("'screenName' cannot be null or empty when HitType.screenview is specified!");
+
+        if (value != null && value < 0)
+            throw new IllegalArgumentException("event 'value' cannot be negative!");
+
+        this.type = type;
+        this.userId = userId;
+        this.category = category;
+        this.action = action;
+        this.label = label;
+        this.value = value;
+        this.screenName = screenName;
+        this.cacheBuster = cacheBuster != null && cacheBuster;
+        this.exceptionDescription = exceptionDescription;
+        this.exceptionFatal = exceptionFatal == null || exceptionFatal;
+    }
+
+    public static HitBuilder pageview() {
+        return builder().type(GoogleAnalytics.HitType.pageview);
+    }
+
+    public static HitBuilder screenview(String screenName) {
+        return builder().type(GoogleAnalytics.HitType.screenview).screenName(screenName);
+    }
+
+    public static HitBuilder event(String category, String action) {
+        return builder().type(GoogleAnalytics.HitType.event).category(category).action(action);
+    }
+
+    public static HitBuilder exception(String description, boolean fatal) {
+        return builder().type(GoogleAnalytics.HitType.exception).exceptionDescription(description).exceptionFatal(fatal);
+    }
+}
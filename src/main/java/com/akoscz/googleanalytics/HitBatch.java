@@ -0,0 +1,140 @@
+package com.akoscz.googleanalytics;
+
+import lombok.Getter;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of encoded hit payloads that will be sent in a single POST request to the '/batch' endpoint.
+ * The Measurement Protocol enforces the following limits on a batch request:
+ *  - A maximum of 20 hits can be specified per request.
+ *  - The total size of all hit payloads cannot be greater than 16K bytes.
+ *  - No single hit payload can be greater than 8K bytes.
+ * See: https://developers.google.com/analytics/devguides/collection/protocol/v1/devguide#batch-limitations
+ */
+public class HitBatch {
+
+    public static final int MAX_HITS = 20;
+    public static final int MAX_BYTES = 16 * 1024;
+    public static final int MAX_HIT_BYTES = 8 * 1024;
+    public static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\n";
+
+    private final int maxHits;
+    private final int maxBytes;
+    private final List<String> payloads;
+    @Getter
+    private int byteCount;
+    /**
+     * The time this batch was created, right before its first hit was added, in milliseconds since the epoch.
+     */
+    @Getter
+    private final long createdMillis = System.currentTimeMillis();
+
+    public HitBatch() {
+        this(MAX_HITS, MAX_BYTES);
+    }
+
+    /**
+     * Create a batch with limits lower than the ones enforced by the Measurement Protocol.
+     * @param maxHits The maximum number of hits in this batch, from 1 to MAX_HITS.
+     * @param maxBytes The maximum total size of all hit payloads in this batch, from MAX_HIT_BYTES to MAX_BYTES.
+     */
+    public HitBatch(int maxHits, int maxBytes) {
+        if (maxHits < 1 || maxHits > MAX_HITS) {
+            throw new IllegalArgumentException("maxHits must be between 1 and " + MAX_HITS + ": " + maxHits);
+        }
+        if (maxBytes < MAX_HIT_BYTES || maxBytes > MAX_BYTES) {
+            throw new IllegalArgumentException("maxBytes must be between " + MAX_HIT_BYTES + " and " + MAX_BYTES + ": "
+                    + maxBytes);
+        }
+        this.maxHits = maxHits;
+        this.maxBytes = maxBytes;
+        this.payloads = new ArrayList<String>(maxHits);
+    }
+
+    /**
+     * Add the encoded payload of a hit to this batch.
+     * @param payload The url encoded payload of a single hit.
+     * @return True if the payload was added, False if adding it would exceed the batch limits.
+     */
+    public boolean add(String payload) {
+        int payloadBytes = countBytes(payload);
+        if (payloadBytes > MAX_HIT_BYTES) {
+            throw new IllegalArgumentException("Hit payload must not exceed " + MAX_HIT_BYTES + " bytes!");
+        }
+
+        // account for the separator between the payloads, except for the very first one
+        int bytesNeeded = payloads.isEmpty() ? payloadBytes : payloadBytes + SEPARATOR.length();
+        if (isFull() || byteCount + bytesNeeded > maxBytes) {
+            return false;
+        }
+
+        payloads.add(payload);
+        byteCount += bytesNeeded;
+        return true;
+    }
+
+    public int size() {
+        return payloads.size();
+    }
+
+    public boolean isEmpty() {
+        return payloads.isEmpty();
+    }
+
+    public boolean isFull() {
+        return payloads.size() >= maxHits;
+    }
+
+    public List<String> getPayloads() {
+        return Collections.unmodifiableList(payloads);
+    }
+
+    /**
+     * @return The request body of the batch, one hit payload per line.
+     */
+    public String toBody() {
+        StringBuilder body = new StringBuilder(byteCount);
+        for (String payload : payloads) {
+            if (body.length() > 0) body.append(SEPARATOR);
+            body.append(payload);
+        }
+        return body.toString();
+    }
+
+    /**
+     * Pack the given payloads, in order, into as few batches as the batch limits allow.
+     * @param payloads The url encoded hit payloads.
+     * @return The list of batches.
+     */
+    public static List<HitBatch> pack(List<String> payloads) {
+        List<HitBatch> batches = new ArrayList<HitBatch>();
+        HitBatch batch = new HitBatch();
+        for (String payload : payloads) {
+            if (!batch.add(payload)) {
+                batches.add(batch);
+                batch = new HitBatch();
+                batch.add(payload);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /* package */ static int countBytes(String payload) {
+        return payload == null ? 0 : payload.getBytes(UTF_8).length;
+    }
+
+    @Override
+    public String toString() {
+        return "HitBatch(hits=" + payloads.size() + ", bytes=" + byteCount + ")";
+    }
+}
@@ -0,0 +1,262 @@
+package com.akoscz.googleanalytics;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A subscriber which lets reactive pipelines push hits with demand driven backpressure instead of fire and forget
+ * sends.  It requests maxInFlight hits up front and one more hit whenever a hit it sent completed, so at most
+ * maxInFlight hits are queued or in flight at any time and the pipeline slows down to the pace of the endpoint.
+ *
+ * Hits complete on many threads at once, but the demand is signalled to the subscription serially: completions are
+ * added up and a single thread at a time calls request(n) with the sum.  Hits received after onError() or onComplete(),
+ * or beyond the requested demand, are not sent, and a publisher exceeding the demand is cancelled.
+ *
+ * The sink follows the Reactive Streams protocol of java.util.concurrent.Flow.Subscriber.  The library targets Java 7,
+ * so the Flow interfaces are implemented reflectively: asFlowSubscriber() returns a Flow.Subscriber backed by this
+ * sink when the running JVM provides them.  On older runtimes publishers call onSubscribe() with a HitSink.Subscription.
+ *
+ *      publisher.subscribe((Flow.Subscriber<GoogleAnalytics>) new HitSink(64).asFlowSubscriber());
+ */
+@Log
+public class HitSink {
+
+    /**
+     * The demand channel to the publisher, see java.util.concurrent.Flow.Subscription.
+     */
+    public interface Subscription {
+        void request(long n);
+        void cancel();
+    }
+
+    private static final boolean FLOW_AVAILABLE;
+
+    private static Class<?> flowSubscriberClass;
+    private static Method subscriptionRequest;
+    private static Method subscriptionCancel;
+
+    static {
+        boolean available;
+        try {
+            flowSubscriberClass = Class.forName("java.util.concurrent.Flow$Subscriber");
+            Class<?> subscription = Class.forName("java.util.concurrent.Flow$Subscription");
+            subscriptionRequest = subscription.getMethod("request", long.class);
+            subscriptionCancel = subscription.getMethod("cancel");
+            available = true;
+        } catch (Exception e) {
+            // running on a JVM older than Java 9
+            available = false;
+        }
+        FLOW_AVAILABLE = available;
+    }
+
+    private final int maxInFlight;
+    // null before onSubscribe() and once the publisher terminated or was cancelled
+    private final AtomicReference<Subscription> subscription = new AtomicReference<Subscription>();
+
+    // the demand not yet signalled to the subscription, and the signalled demand not yet received
+    private final AtomicLong unsignalledDemand = new AtomicLong();
+    private final AtomicLong outstandingDemand = new AtomicLong();
+    private volatile boolean cancelled;
+    // the number of signals missed by the thread currently calling the subscription
+    private final AtomicInteger signalling = new AtomicInteger();
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final SendCallback requestNext = new SendCallback() {
+        @Override
+        public void completed(SendResult result) {
+            if (result.isDelivered()) {
+                deliveredCount.incrementAndGet();
+            } else {
+                failedCount.incrementAndGet();
+            }
+            request(1);
+        }
+    };
+
+    /**
+     * @param maxInFlight The maximum number of hits sent by the sink that may be queued or in flight at a time.
+     */
+    public HitSink(int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return True if the running JVM provides java.util.concurrent.Flow.
+     */
+    public static boolean isFlowAvailable() {
+        return FLOW_AVAILABLE;
+    }
+
+    /**
+     * A sink can only be subscribed once, further subscriptions are cancelled.
+     */
+    public void onSubscribe(@NonNull Subscription subscription) {
+        if (cancelled || !this.subscription.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        request(maxInFlight);
+    }
+
+    /**
+     * Send the hit asynchronously.  The next hit is requested once it completed.
+     */
+    public void onNext(@NonNull BaseAnalytics hit) {
+        if (subscription.get() == null) {
+            log.fine("Ignoring a hit received while not subscribed");
+            return;
+        }
+        if (outstandingDemand.decrementAndGet() < 0) {
+            outstandingDemand.incrementAndGet();
+            log.warning("Hit publisher sent more hits than requested, cancelling the subscription");
+            cancelled = true;
+            signal();
+            return;
+        }
+
+        sentCount.incrementAndGet();
+        hit.sendAsync(requestNext);
+    }
+
+    public void onError(Throwable throwable) {
+        log.warning("Hit publisher failed: " + throwable);
+        subscription.set(null);
+    }
+
+    public void onComplete() {
+        subscription.set(null);
+    }
+
+    /**
+     * @return A java.util.concurrent.Flow.Subscriber of hits backed by this sink.
+     * @throws IllegalStateException if the running JVM does not provide java.util.concurrent.Flow.
+     */
+    public Object asFlowSubscriber() {
+        if (!FLOW_AVAILABLE) {
+            throw new IllegalStateException("java.util.concurrent.Flow requires Java 9 or later");
+        }
+        return Proxy.newProxyInstance(HitSink.class.getClassLoader(), new Class<?>[]{flowSubscriberClass},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+                        switch (method.getName()) {
+                            case "onSubscribe":
+                                onSubscribe(new FlowSubscription(args[0]));
+                                break;
+                            case "onNext":
+                                onNext((BaseAnalytics) args[0]);
+                                break;
+                            case "onError":
+                                onError((Throwable) args[0]);
+                                break;
+                            case "onComplete":
+                                onComplete();
+                                break;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @return The number of hits received from the publisher.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return The number of hits which failed, were rejected by the endpoint, or were dropped or spooled.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private void request(long n) {
+        unsignalledDemand.addAndGet(n);
+        signal();
+    }
+
+    /**
+     * Signal the demand, or the cancellation, to the subscription.  Only one thread at a time calls the subscription,
+     * a thread finding another one signalling leaves its demand to that thread.
+     */
+    private void signal() {
+        if (signalling.getAndIncrement() != 0) return;
+
+        int missed = 1;
+        do {
+            Subscription subscription = this.subscription.get();
+            if (subscription != null) {
+                if (cancelled) {
+                    if (this.subscription.compareAndSet(subscription, null)) {
+                        subscription.cancel();
+                    }
+                } else {
+                    long n = unsignalledDemand.getAndSet(0);
+                    if (n > 0) {
+                        // before the publisher may call onNext() from within request()
+                        outstandingDemand.addAndGet(n);
+                        subscription.request(n);
+                    }
+                }
+            }
+            missed = signalling.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Adapts a java.util.concurrent.Flow.Subscription.
+     */
+    private static class FlowSubscription implements Subscription {
+        private final Object subscription;
+
+        FlowSubscription(@NonNull Object subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void request(long n) {
+            invoke(subscriptionRequest, n);
+        }
+
+        @Override
+        public void cancel() {
+            invoke(subscriptionCancel);
+        }
+
+        private void invoke(Method method, Object... args) {
+            try {
+                method.invoke(subscription, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to call " + method.getName() + " on the subscription", e);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IllegalStateException("Unable to call " + method.getName() + " on the subscription", cause);
+            }
+        }
+    }
+}
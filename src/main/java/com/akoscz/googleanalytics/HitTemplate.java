@@ -0,0 +1,177 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.util.HitEncoder;
+import com.akoscz.googleanalytics.util.HitEvent;
+import lombok.Getter;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recurring hit whose constant parameters were validated and url encoded once, see GoogleAnalytics.template().
+ * Sending a hit of the template only encodes its variable slots, the userId, label, value and screenName, and appends
+ * them to the pre-encoded bytes of the constant parameters.  The current TrackingContext is applied to every hit.
+ *
+ * Templates are immutable and can be shared by any number of threads.  Every call to hit() returns a new Hit, which
+ * is sent like a GoogleAnalytics hit but leaves the global tracker alone.
+ */
+public class HitTemplate {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Getter
+    private final GoogleAnalyticsConfig config;
+    @Getter
+    private final GoogleAnalytics.HitType type;
+
+    // the encoded constant parameters of the GET url, without the endpoint, and of the POST payload
+    private final byte[] urlParams;
+    private final byte[] postParams;
+    private final boolean cacheBuster;
+    // true if the dataSource and anonymizeIP are left to the tracking context
+    private final boolean contextDataSource;
+    private final boolean contextAnonymizeIP;
+
+    // the defaults of the variable slots
+    private final String userId;
+    private final String label;
+    private final Integer value;
+    private final String screenName;
+
+    /* package */ HitTemplate(GoogleAnalyticsConfig config, GoogleAnalytics.HitType type, byte[] urlParams,
+                              byte[] postParams, boolean cacheBuster, boolean contextDataSource,
+                              boolean contextAnonymizeIP, String userId, String label, Integer value,
+                              String screenName) {
+        this.config = config;
+        this.type = type;
+        this.urlParams = urlParams;
+        this.postParams = postParams;
+        this.cacheBuster = cacheBuster;
+        this.contextDataSource = contextDataSource;
+        this.contextAnonymizeIP = contextAnonymizeIP;
+        this.userId = userId;
+        this.label = label;
+        this.value = value;
+        this.screenName = screenName;
+    }
+
+    /**
+     * @return A new hit with the defaults of the template.
+     */
+    public Hit hit() {
+        return new Hit();
+    }
+
+    /**
+     * A hit of the template.  Hits are cheap to create and are not meant to be shared between threads.
+     */
+    public class Hit extends BaseAnalytics {
+
+        @Getter
+        private String userId = HitTemplate.this.userId;
+        @Getter
+        private String label = HitTemplate.this.label;
+        @Getter
+        private Integer value = HitTemplate.this.value;
+        @Getter
+        private String screenName = HitTemplate.this.screenName;
+
+        private Hit() {
+        }
+
+        public Hit userId(String userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        public Hit label(String label) {
+            this.label = label;
+            return this;
+        }
+
+        public Hit value(Integer value) {
+            this.value = value;
+            return this;
+        }
+
+        public Hit screenName(String screenName) {
+            this.screenName = screenName;
+            return this;
+        }
+
+        /**
+         * @return The template of the hit.
+         */
+        public HitTemplate getTemplate() {
+            return HitTemplate.this;
+        }
+
+        @Override
+        /* package */ String buildUrlString() {
+            validate(type);
+
+            Object event = HitEvent.ENCODE.begin();
+            HitEncoder encoder = GoogleAnalytics.beginUrl(config).params(urlParams);
+            encodeSlots(encoder);
+            if (cacheBuster) GoogleAnalytics.encodeCacheBuster(encoder);
+            return encoded(event, type, true, encoder).toString();
+        }
+
+        @Override
+        /* package */ String buildPayload() {
+            return encodePayload().toString();
+        }
+
+        @Override
+        /* package */ byte[] buildPayloadBytes() {
+            return encodePayload().toByteArray();
+        }
+
+        private HitEncoder encodePayload() {
+            validate(type);
+
+            Object event = HitEvent.ENCODE.begin();
+            HitEncoder encoder = GoogleAnalytics.beginPayload().params(postParams);
+            return encoded(event, type, false, encodeSlots(encoder));
+        }
+
+        private HitEncoder encodeSlots(HitEncoder encoder) {
+            TrackingContext context = TrackingContext.current();
+            GoogleAnalytics.encodeContext(encoder, context, contextDataSource, contextAnonymizeIP);
+            return GoogleAnalytics.encodeTemplateSlots(encoder, context, userId, label, value, screenName);
+        }
+
+        @Override
+        /* package */ List<GoogleAnalyticsParameter> buildPostParams() {
+            List<GoogleAnalyticsParameter> params = new ArrayList<GoogleAnalyticsParameter>();
+            for (NameValuePair param : URLEncodedUtils.parse(buildPayload(), UTF_8)) {
+                params.add(GoogleAnalyticsParameter.of(param.getName(), param.getValue()));
+            }
+            return params;
+        }
+
+        @Override
+        /* package */ GoogleAnalyticsConfig getConfig() {
+            return config;
+        }
+
+        /**
+         * The constant parameters were validated by the template, only the slots are left.
+         */
+        @Override
+        /* package */ void validateRequiredParams() {
+            if (type == GoogleAnalytics.HitType.screenview && (screenName == null || screenName.isEmpty()))
+                throw new IllegalArgumentException("'screenName' cannot be null or empty when HitType.screenview is specified!");
+        }
+
+        /**
+         * Hits of a template do not use the global tracker, so there is nothing to clear.
+         */
+        @Override
+        /* package */ void resetTracker() {
+        }
+    }
+}
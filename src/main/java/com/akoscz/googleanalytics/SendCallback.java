@@ -0,0 +1,13 @@
+package com.akoscz.googleanalytics;
+
+/**
+ * Notified of the outcome of a hit sent with sendAsync(), on the thread which completed the request.
+ * Failed, dropped and spooled hits complete with a SendResult as well, so there is no separate failure method.
+ */
+public interface SendCallback {
+
+    /**
+     * @param result The outcome of the hit, the same SendResult the Future of sendAsync() completes with.
+     */
+    void completed(SendResult result);
+}
@@ -0,0 +1,41 @@
+package com.akoscz.googleanalytics;
+
+import lombok.Value;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The outcome of a hit sent with sendAsync().
+ */
+@Value
+public class SendResult {
+
+    /**
+     * The response code of the last attempt, or zero if the request failed, was dropped or was spooled.
+     */
+    int statusCode;
+    /**
+     * The time, in milliseconds, from sendAsync() until the outcome was known, including the time spent in the send
+     * queue and on retries.
+     */
+    long latencyMillis;
+    /**
+     * The number of retries of the request.
+     */
+    int retries;
+    /**
+     * True if the hit was written to the spool instead, to be replayed later.
+     */
+    boolean spooled;
+    /**
+     * Why the request failed, or was dropped because the send queue was full or the runtime was shut down.
+     */
+    Throwable failure;
+
+    /**
+     * @return True if the endpoint accepted the hit.
+     */
+    public boolean isDelivered() {
+        return statusCode >= HttpURLConnection.HTTP_OK && statusCode < HttpURLConnection.HTTP_MULT_CHOICE;
+    }
+}
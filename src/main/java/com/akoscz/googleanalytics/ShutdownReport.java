@@ -0,0 +1,32 @@
+package com.akoscz.googleanalytics;
+
+import lombok.Value;
+
+/**
+ * What happened to the queued and in-flight hits during AnalyticsRuntime.flush() or AnalyticsRuntime.shutdown().
+ * All counts are numbers of hits, a batch request counts as all of its hits.
+ */
+@Value
+public class ShutdownReport {
+
+    /**
+     * The hits accepted by the endpoint.
+     */
+    long delivered;
+    /**
+     * The hits which failed or were rejected by the endpoint.
+     */
+    long failed;
+    /**
+     * The hits written to the spool, to be replayed by the next runtime using the same spool directory.
+     */
+    long spooled;
+    /**
+     * The hits still queued or in flight when the deadline passed, and not spooled.
+     */
+    long abandoned;
+    /**
+     * True if all hits were handled before the deadline.
+     */
+    boolean drained;
+}
@@ -0,0 +1,158 @@
+package com.akoscz.googleanalytics;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Per-request tracking fields scoped to the current thread, like a logging MDC.  Hits are enriched from the current
+ * context when they are encoded: the userId, dataSource and anonymizeIP of the context are used for hits which do not
+ * set them, so servers neither set nor reset the shared tracker for every request.
+ *
+ * Contexts are immutable, so capturing the current context for another thread is a field read:
+ *
+ *      try (TrackingContext.Scope scope = TrackingContext.current().withUserId(userId).open()) {
+ *          tracker.type(HitType.pageview).build().send();           // sent with the userId
+ *          executor.execute(TrackingContext.current().wrap(task));  // the task runs with the userId, too
+ *      }
+ */
+public final class TrackingContext {
+
+    /**
+     * The context of threads which did not open one.
+     */
+    public static final TrackingContext EMPTY = new TrackingContext(null, null, null);
+
+    private static final ThreadLocal<TrackingContext> CURRENT = new ThreadLocal<TrackingContext>();
+
+    @Getter
+    private final String userId;
+    @Getter
+    private final String dataSource;
+    @Getter
+    private final Boolean anonymizeIP;
+
+    private TrackingContext(String userId, String dataSource, Boolean anonymizeIP) {
+        this.userId = userId;
+        this.dataSource = dataSource;
+        this.anonymizeIP = anonymizeIP;
+    }
+
+    /**
+     * @return The context of the current thread, or EMPTY.
+     */
+    public static TrackingContext current() {
+        TrackingContext context = CURRENT.get();
+        return context == null ? EMPTY : context;
+    }
+
+    public TrackingContext withUserId(String userId) {
+        return new TrackingContext(userId, dataSource, anonymizeIP);
+    }
+
+    public TrackingContext withDataSource(String dataSource) {
+        return new TrackingContext(userId, dataSource, anonymizeIP);
+    }
+
+    public TrackingContext withAnonymizeIP(Boolean anonymizeIP) {
+        return new TrackingContext(userId, dataSource, anonymizeIP);
+    }
+
+    /**
+     * Make this the context of the current thread until the scope is closed.
+     * @return The scope, which restores the previous context when it is closed.
+     */
+    public Scope open() {
+        TrackingContext previous = CURRENT.get();
+        CURRENT.set(this);
+        return new Scope(previous);
+    }
+
+    /**
+     * @return A task which runs with this context on the thread it is run on.
+     */
+    public Runnable wrap(@NonNull final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                Scope scope = open();
+                try {
+                    task.run();
+                } finally {
+                    scope.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return A task which runs with this context on the thread it is run on.
+     */
+    public <V> Callable<V> wrap(@NonNull final Callable<V> task) {
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                Scope scope = open();
+                try {
+                    return task.call();
+                } finally {
+                    scope.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return An executor which runs every task with the context of the thread which submitted it.
+     */
+    public static Executor propagating(@NonNull final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                executor.execute(current().wrap(task));
+            }
+        };
+    }
+
+    /* package */ String resolveUserId(String userId) {
+        return userId != null ? userId : this.userId;
+    }
+
+    /* package */ String resolveDataSource(String dataSource) {
+        return dataSource != null ? dataSource : this.dataSource;
+    }
+
+    /* package */ Boolean resolveAnonymizeIP(Boolean anonymizeIP) {
+        return anonymizeIP != null ? anonymizeIP : this.anonymizeIP;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackingContext(userId=" + userId + ", dataSource=" + dataSource + ", anonymizeIP=" + anonymizeIP + ")";
+    }
+
+    /**
+     * An open context, see open().
+     */
+    public static final class Scope implements AutoCloseable {
+        private final TrackingContext previous;
+
+        private Scope(TrackingContext previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Restore the context which was current when the scope was opened.
+         */
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -1,13 +1,32 @@
 package com.akoscz.googleanalytics.dagger;
 
-import com.akoscz.googleanalytics.BaseAnalytics;
+import com.akoscz.googleanalytics.metrics.SenderMetrics;
+import com.akoscz.googleanalytics.transport.CircuitBreaker;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.util.OverflowHandler;
 import dagger.Component;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 
 import javax.inject.Singleton;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Singleton
-@Component(modules = {HttpClientModule.class, ThreadPoolExecutorModule.class, ConfigModule.class})
+@Component(modules = {HttpClientModule.class, ThreadPoolExecutorModule.class, ConfigModule.class, TransportModule.class,
+        MetricsModule.class})
 public interface BaseComponent {
 
-    void inject(BaseAnalytics baseAnalyics);
+    Transport transport();
+
+    ThreadPoolExecutor executor();
+
+    CircuitBreaker circuitBreaker();
+
+    OverflowHandler overflowHandler();
+
+    SenderMetrics metrics();
+
+    PoolingHttpClientConnectionManager connectionManager();
+
+    PoolingNHttpClientConnectionManager asyncConnectionManager();
 }
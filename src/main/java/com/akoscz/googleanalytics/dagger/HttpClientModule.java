@@ -1,37 +1,105 @@
 package com.akoscz.googleanalytics.dagger;
 
 import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.util.CachingDnsResolver;
+import com.akoscz.googleanalytics.util.GoogleAnalyticsThreadFactory;
+import com.akoscz.googleanalytics.util.Http2Client;
 import dagger.Module;
 import dagger.Provides;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
 
 import javax.inject.Singleton;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Module
 public class HttpClientModule {
 
+    private static final String DNS_THREAD_NAME_FORMAT = "googleanalytics-dns-thread-{0}";
+
+    /**
+     * The connection pool of the blocking transport.  There is one per graph so that its statistics can be read.
+     */
     @Provides
-    public PoolingHttpClientConnectionManager providesConnectionManager() {
-        return new PoolingHttpClientConnectionManager();
+    @Singleton
+    public PoolingHttpClientConnectionManager providesConnectionManager(DnsResolver dnsResolver, GoogleAnalyticsConfig config) {
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                .build();
+
+        // connections past their TTL are not reused, a TTL of zero or less keeps them for as long as they are alive
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                socketFactoryRegistry, null, null, dnsResolver, config.getConnectionTtlMillis(), TimeUnit.MILLISECONDS);
+        connectionManager.setDefaultMaxPerRoute(config.getPoolMaxPerRoute());
+        connectionManager.setMaxTotal(config.getPoolMaxTotal());
+        // check connections that were idle for a while before reusing them, so a socket the server silently
+        // closed during a quiet period is replaced rather than failing the next hit
+        connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+        return connectionManager;
     }
 
+    /**
+     * Caches the resolved addresses of the endpoints for dnsCacheTtlMillis and refreshes them in the background.
+     * A TTL of zero or less uses the resolver of the JVM for every new connection.
+     */
     @Provides
-    public HttpClientBuilder providesHttpClientBuilder(PoolingHttpClientConnectionManager connectionManager, GoogleAnalyticsConfig config) {
-        connectionManager.setDefaultMaxPerRoute(config.getMaxThreads());
-        connectionManager.setMaxTotal(config.getMaxThreads());
+    @Singleton
+    public DnsResolver providesDnsResolver(GoogleAnalyticsConfig config) {
+        if (config.getDnsCacheTtlMillis() <= 0) {
+            return SystemDefaultDnsResolver.INSTANCE;
+        }
 
-        return HttpClients.custom().setConnectionManager(connectionManager);
+        // the refresh thread only lives while there are refreshes to perform
+        ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new GoogleAnalyticsThreadFactory(DNS_THREAD_NAME_FORMAT));
+        return new CachingDnsResolver(SystemDefaultDnsResolver.INSTANCE, config.getDnsCacheTtlMillis(), refreshExecutor);
+    }
+
+    @Provides
+    public HttpClientBuilder providesHttpClientBuilder(PoolingHttpClientConnectionManager connectionManager, GoogleAnalyticsConfig config) {
+        // the evictor thread of the client closes expired and idle connections in the background and is stopped
+        // when the client is closed
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections();
+        if (config.getIdleConnectionTimeoutMillis() > 0) {
+            builder.evictIdleConnections(config.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        return builder;
     }
 
+    /**
+     * The client owns the keep-alive connection pool shared by GET, POST and batch requests, so there must only be
+     * one instance per graph.
+     */
     @Provides
+    @Singleton
     public CloseableHttpClient providesHttpClient(HttpClientBuilder builder, GoogleAnalyticsConfig config) {
         if (StringUtils.isNotEmpty(config.getUserAgent())) {
             builder.setUserAgent(config.getUserAgent());
@@ -41,14 +109,82 @@ public class HttpClientModule {
             builder.setProxy(new HttpHost(config.getProxyHost(), config.getProxyPort()));
 
             if (StringUtils.isNotEmpty(config.getProxyUserName())) {
-                BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-                credentialsProvider.setCredentials(
-                        new AuthScope(config.getProxyHost(), config.getProxyPort()),
-                        new UsernamePasswordCredentials(config.getProxyUserName(), config.getProxyPassword()));
-                builder.setDefaultCredentialsProvider(credentialsProvider);
+                builder.setDefaultCredentialsProvider(buildProxyCredentialsProvider(config));
             }
         }
 
         return builder.build();
     }
+
+    /**
+     * The connection pool of the NIO transport.  There is one per graph so that its statistics can be read.
+     */
+    @Provides
+    @Singleton
+    public PoolingNHttpClientConnectionManager providesAsyncConnectionManager(GoogleAnalyticsConfig config) {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(config.getIoThreads())
+                .build();
+        try {
+            DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfig,
+                    new GoogleAnalyticsThreadFactory(config.getIoThreadNameFormat()));
+            PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(ioReactor);
+            // the number of requests in flight is bounded by the connection pool rather than by the number of threads
+            connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+            connectionManager.setMaxTotal(config.getMaxConnections());
+            return connectionManager;
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Unable to create the I/O reactor", e);
+        }
+    }
+
+    @Provides
+    public HttpAsyncClientBuilder providesHttpAsyncClientBuilder(PoolingNHttpClientConnectionManager connectionManager) {
+        return HttpAsyncClients.custom().setConnectionManager(connectionManager);
+    }
+
+    /**
+     * The async client owns its I/O reactor threads, so there must only be one instance per graph.
+     */
+    @Provides
+    @Singleton
+    public CloseableHttpAsyncClient providesHttpAsyncClient(HttpAsyncClientBuilder builder, GoogleAnalyticsConfig config) {
+        if (StringUtils.isNotEmpty(config.getUserAgent())) {
+            builder.setUserAgent(config.getUserAgent());
+        }
+
+        if (StringUtils.isNotEmpty(config.getProxyHost())) {
+            builder.setProxy(new HttpHost(config.getProxyHost(), config.getProxyPort()));
+
+            if (StringUtils.isNotEmpty(config.getProxyUserName())) {
+                builder.setDefaultCredentialsProvider(buildProxyCredentialsProvider(config));
+            }
+        }
+
+        CloseableHttpAsyncClient httpAsyncClient = builder.build();
+        httpAsyncClient.start();
+        return httpAsyncClient;
+    }
+
+    /**
+     * The HTTP/2 client multiplexes all requests over a single connection, so there must only be one instance per graph.
+     * Only available on Java 11 or later, see Http2Client.isAvailable().  Its executor is shut down when the
+     * Http2Transport is closed.
+     */
+    @Provides
+    @Singleton
+    public Http2Client providesHttp2Client(GoogleAnalyticsConfig config) {
+        return new Http2Client(config.getUserAgent(),
+                config.getProxyHost(), config.getProxyPort(),
+                config.getProxyUserName(), config.getProxyPassword(),
+                Executors.newCachedThreadPool(new GoogleAnalyticsThreadFactory(config.getHttp2ThreadNameFormat())));
+    }
+
+    private static CredentialsProvider buildProxyCredentialsProvider(GoogleAnalyticsConfig config) {
+        BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(
+                new AuthScope(config.getProxyHost(), config.getProxyPort()),
+                new UsernamePasswordCredentials(config.getProxyUserName(), config.getProxyPassword()));
+        return credentialsProvider;
+    }
 }
\ No newline at end of file
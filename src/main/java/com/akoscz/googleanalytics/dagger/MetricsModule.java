@@ -0,0 +1,21 @@
+package com.akoscz.googleanalytics.dagger;
+
+import com.akoscz.googleanalytics.metrics.SenderMetrics;
+import dagger.Module;
+import dagger.Provides;
+
+import javax.inject.Singleton;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Module
+public class MetricsModule {
+
+    /**
+     * The runtime, its thread pool and its transport record into the same metrics.
+     */
+    @Provides
+    @Singleton
+    SenderMetrics providesMetrics(ThreadPoolExecutor executor) {
+        return new SenderMetrics(executor);
+    }
+}
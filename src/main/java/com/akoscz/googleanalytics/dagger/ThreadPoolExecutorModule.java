@@ -2,21 +2,33 @@ package com.akoscz.googleanalytics.dagger;
 
 import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
 import com.akoscz.googleanalytics.util.GoogleAnalyticsThreadFactory;
+import com.akoscz.googleanalytics.util.OverflowHandler;
+import com.akoscz.googleanalytics.util.RingBufferBlockingQueue;
+import com.akoscz.googleanalytics.util.VirtualThreadFactory;
 import dagger.Module;
 import dagger.Provides;
 
 import javax.inject.Singleton;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @Module
 public class ThreadPoolExecutorModule {
 
+    /**
+     * All hits and retries of a graph share the thread pool, so that maxThreads bounds the network I/O of the tracker.
+     */
     @Provides
-    ThreadPoolExecutor providesExecutor(GoogleAnalyticsThreadFactory threadFactory, LinkedBlockingDeque<Runnable> queue,
-                                        RejectedExecutionHandler rejectedExecutionHandler, GoogleAnalyticsConfig config) {
+    @Singleton
+    ThreadPoolExecutor providesExecutor(GoogleAnalyticsThreadFactory threadFactory, BlockingQueue<Runnable> queue,
+                                        OverflowHandler overflowHandler, GoogleAnalyticsConfig config) {
+        boolean virtual = config.getExecutorType() == GoogleAnalyticsConfig.ExecutorType.VIRTUAL;
+        if (virtual && VirtualThreadFactory.isAvailable()) {
+            return newVirtualThreadExecutor(queue, overflowHandler, config);
+        }
+        // runtimes older than Java 21 fall back to the platform threads
         return new ThreadPoolExecutor(
                 config.getMinThreads(),
                 config.getMaxThreads(),
@@ -24,7 +36,27 @@ public class ThreadPoolExecutorModule {
                 TimeUnit.SECONDS,
                 queue,
                 threadFactory,
-                rejectedExecutionHandler);
+                overflowHandler);
+    }
+
+    /**
+     * Every worker is a virtual thread which is started on demand and ends once it has been idle for threadTimeout.
+     * The number of workers acts as a semaphore sized to the connection pool: a send never waits for a connection,
+     * the hits beyond poolMaxTotal wait in the queue.
+     */
+    static ThreadPoolExecutor newVirtualThreadExecutor(BlockingQueue<Runnable> queue, OverflowHandler overflowHandler,
+                                                       GoogleAnalyticsConfig config) {
+        int permits = config.getPoolMaxTotal();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                permits,
+                permits,
+                Math.max(1, config.getThreadTimeout()),
+                TimeUnit.SECONDS,
+                queue,
+                new VirtualThreadFactory(config.getThreadNameFormat()),
+                overflowHandler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Provides
@@ -32,14 +64,23 @@ public class ThreadPoolExecutorModule {
         return new GoogleAnalyticsThreadFactory(config.getThreadNameFormat());
     }
 
+    /**
+     * The RING_BUFFER queue lets the threads calling send() hand off their hits without contending on a lock.
+     */
     @Provides
-    LinkedBlockingDeque<Runnable> providesQueue(GoogleAnalyticsConfig config) {
+    BlockingQueue<Runnable> providesQueue(GoogleAnalyticsConfig config) {
+        if (config.getQueueType() == GoogleAnalyticsConfig.QueueType.RING_BUFFER) {
+            return new RingBufferBlockingQueue<Runnable>(config.getQueueSize());
+        }
         return new LinkedBlockingDeque<Runnable>(config.getQueueSize());
     }
 
+    /**
+     * Hits which do not fit into the queue are handled by the configured OverflowPolicy, never on the caller's thread.
+     */
     @Provides
     @Singleton
-    RejectedExecutionHandler providesRejectedExecutionHandler() {
-        return new ThreadPoolExecutor.CallerRunsPolicy();
+    OverflowHandler providesOverflowHandler(GoogleAnalyticsConfig config) {
+        return OverflowHandler.create(config.getOverflowPolicy(), config.getOverflowBlockTimeoutMillis());
     }
 }
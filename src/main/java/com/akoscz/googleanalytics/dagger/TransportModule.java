@@ -0,0 +1,105 @@
+package com.akoscz.googleanalytics.dagger;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.metrics.SenderMetrics;
+import com.akoscz.googleanalytics.spool.HitSpool;
+import com.akoscz.googleanalytics.spool.SpoolingTransport;
+import com.akoscz.googleanalytics.transport.ApacheHttpTransport;
+import com.akoscz.googleanalytics.transport.CircuitBreaker;
+import com.akoscz.googleanalytics.transport.CircuitBreakerTransport;
+import com.akoscz.googleanalytics.transport.Http2Transport;
+import com.akoscz.googleanalytics.transport.MetricsTransport;
+import com.akoscz.googleanalytics.transport.NioHttpTransport;
+import com.akoscz.googleanalytics.transport.RecordingTransport;
+import com.akoscz.googleanalytics.transport.RetryBudget;
+import com.akoscz.googleanalytics.transport.RetryingTransport;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.transport.UrlConnectionTransport;
+import com.akoscz.googleanalytics.util.Http2Client;
+import dagger.Lazy;
+import dagger.Module;
+import dagger.Provides;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Module
+public class TransportModule {
+
+    /**
+     * Select the Transport for the configured TransportType.  Only the client backing the selected transport is created.
+     * The selected transport records every request, retries included, in the SenderMetrics.
+     * Unless they are disabled, the transport is decorated with a CircuitBreakerTransport and a RetryingTransport.
+     * Every retry goes through the circuit breaker, and requests rejected by the open breaker are not retried.
+     * When a spool directory is configured, hits which are still undeliverable after the retries are spooled.
+     */
+    @Provides
+    @Singleton
+    public Transport providesTransport(GoogleAnalyticsConfig config,
+                                       Lazy<CloseableHttpClient> httpClient,
+                                       Lazy<CloseableHttpAsyncClient> httpAsyncClient,
+                                       Lazy<Http2Client> http2Client,
+                                       Lazy<ThreadPoolExecutor> executor,
+                                       CircuitBreaker circuitBreaker,
+                                       SenderMetrics metrics) {
+        Transport transport = new MetricsTransport(createTransport(config, httpClient, httpAsyncClient, http2Client),
+                metrics);
+
+        if (config.getCircuitBreakerFailureThreshold() > 0) {
+            transport = new CircuitBreakerTransport(transport, circuitBreaker);
+        }
+
+        if (config.getMaxRetries() > 0) {
+            RetryBudget retryBudget = new RetryBudget(config.getRetryBudgetMaxTokens(), config.getRetryBudgetTokenRatio());
+            transport = new RetryingTransport(transport, config.getMaxRetries(), config.getRetryBaseDelayMillis(),
+                    config.getRetryMaxDelayMillis(), retryBudget, executor.get());
+        }
+
+        if (config.getSpoolDirectory() != null) {
+            HitSpool spool;
+            try {
+                spool = new HitSpool(new File(config.getSpoolDirectory()), config.getSpoolSegmentBytes());
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open the spool in '" + config.getSpoolDirectory() + "'", e);
+            }
+            transport = new SpoolingTransport(transport, spool, config.getBatchEndpoint(),
+                    config.getSpoolReplayIntervalMillis(), circuitBreaker);
+        }
+        return transport;
+    }
+
+    @Provides
+    @Singleton
+    public CircuitBreaker providesCircuitBreaker(GoogleAnalyticsConfig config) {
+        return new CircuitBreaker(config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerSlowCallMillis(),
+                config.getCircuitBreakerOpenMillis());
+    }
+
+    private static Transport createTransport(GoogleAnalyticsConfig config,
+                                             Lazy<CloseableHttpClient> httpClient,
+                                             Lazy<CloseableHttpAsyncClient> httpAsyncClient,
+                                             Lazy<Http2Client> http2Client) {
+        switch (config.getTransportType()) {
+            case NIO:
+                return new NioHttpTransport(httpAsyncClient.get());
+            case HTTP2:
+                if (Http2Client.isAvailable()) {
+                    return new Http2Transport(http2Client.get());
+                }
+                // runtimes older than Java 11 fall back to the blocking transport
+                break;
+            case URL_CONNECTION:
+                return new UrlConnectionTransport(config.getUserAgent());
+            case RECORDING:
+                return new RecordingTransport(config.getRecordingLatencyMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        // GET and POST requests share the keep-alive connections of the pooled http client
+        return new ApacheHttpTransport(httpClient.get());
+    }
+}
@@ -0,0 +1,85 @@
+package com.akoscz.googleanalytics.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with a fixed, preallocated set of buckets.
+ *
+ * The buckets are log-linear: every power of two is split into 16 linear sub-buckets, so a latency is reported at
+ * most 1/16 above its recorded value.  The buckets cover 1 ns to 2^40 ns (about 18 minutes), longer latencies are
+ * counted in the last bucket.  record() is an atomic increment of a bucket and of a striped sum, and a CAS of the
+ * maximum only when a new maximum is seen.  Nothing is allocated and no lock is taken.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    /* package */ static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter sumNanos = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos The latency, negative latencies are recorded as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        sumNanos.add(nanos);
+        for (long max = maxNanos.get(); nanos > max; max = maxNanos.get()) {
+            if (maxNanos.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    /**
+     * @return The count, mean, percentiles and maximum of the latencies recorded so far.
+     */
+    public LatencySnapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long max = maxNanos.get();
+        return new LatencySnapshot(count,
+                count == 0 ? 0 : sumNanos.sum() / (double) count / NANOS_PER_MILLI,
+                percentile(snapshot, count, max, 50) / NANOS_PER_MILLI,
+                percentile(snapshot, count, max, 99) / NANOS_PER_MILLI,
+                percentile(snapshot, count, max, 99.9) / NANOS_PER_MILLI,
+                max / NANOS_PER_MILLI);
+    }
+
+    /* package */ static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return The largest latency counted in the bucket.
+     */
+    /* package */ static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] counts, long count, long max, double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+}
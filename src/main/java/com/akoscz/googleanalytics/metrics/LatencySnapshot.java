@@ -0,0 +1,18 @@
+package com.akoscz.googleanalytics.metrics;
+
+import lombok.Value;
+
+/**
+ * The latencies recorded by a LatencyHistogram up to the time of the snapshot, in milliseconds.  Percentiles are the
+ * upper bound of their bucket, at most 1/16 above the recorded latency.
+ */
+@Value
+public class LatencySnapshot {
+
+    long count;
+    double meanMillis;
+    double p50Millis;
+    double p99Millis;
+    double p999Millis;
+    double maxMillis;
+}
@@ -0,0 +1,174 @@
+package com.akoscz.googleanalytics.metrics;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The counters and latency histograms of an AnalyticsRuntime, recorded for every hit.
+ *
+ * Counters are StripedCounters and histograms are LatencyHistograms, so recording a hit takes a few uncontended atomic
+ * increments and never a lock, which is cheap enough to leave on in production.  The queue depth and the active
+ * workers are read from the thread pool when asked for.
+ *
+ * Read the metrics with the getters, e.g. BaseAnalytics.getMetrics().getHitsDropped(), or over JMX: when jmxEnabled
+ * is set in the config the running runtime registers its metrics with the platform MBeanServer as OBJECT_NAME.
+ */
+@Log
+public class SenderMetrics implements SenderMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.akoscz.googleanalytics:type=SenderMetrics";
+
+    // the metrics registered as OBJECT_NAME, guarded by SenderMetrics.class
+    private static SenderMetrics registered;
+
+    private final ThreadPoolExecutor executor;
+
+    private final StripedCounter hitsBuilt = new StripedCounter();
+    private final StripedCounter hitsEnqueued = new StripedCounter();
+    private final StripedCounter hitsSent = new StripedCounter();
+    private final StripedCounter hitsFailed = new StripedCounter();
+    private final StripedCounter hitsDropped = new StripedCounter();
+    private final StripedCounter hitsRetried = new StripedCounter();
+    private final StripedCounter bytesSent = new StripedCounter();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram httpLatency = new LatencyHistogram();
+
+    /**
+     * @param executor The thread pool of the runtime, for the queue depth and the active workers.
+     */
+    public SenderMetrics(@NonNull ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void recordBuilt(int hits) {
+        hitsBuilt.add(hits);
+    }
+
+    public void recordEnqueued(int hits) {
+        hitsEnqueued.add(hits);
+    }
+
+    public void recordSent(int hits) {
+        hitsSent.add(hits);
+    }
+
+    public void recordFailed(int hits) {
+        hitsFailed.add(hits);
+    }
+
+    public void recordDropped(int hits) {
+        hitsDropped.add(hits);
+    }
+
+    public void recordRetried(int hits) {
+        hitsRetried.add(hits);
+    }
+
+    public void recordBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    public void recordHttpLatency(long nanos) {
+        httpLatency.record(nanos);
+    }
+
+    @Override
+    public long getHitsBuilt() {
+        return hitsBuilt.sum();
+    }
+
+    @Override
+    public long getHitsEnqueued() {
+        return hitsEnqueued.sum();
+    }
+
+    @Override
+    public long getHitsSent() {
+        return hitsSent.sum();
+    }
+
+    @Override
+    public long getHitsFailed() {
+        return hitsFailed.sum();
+    }
+
+    @Override
+    public long getHitsDropped() {
+        return hitsDropped.sum();
+    }
+
+    @Override
+    public long getHitsRetried() {
+        return hitsRetried.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public LatencySnapshot getQueueWait() {
+        return queueWait.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getHttpLatency() {
+        return httpLatency.snapshot();
+    }
+
+    /**
+     * Register the metrics with the platform MBeanServer as OBJECT_NAME, replacing the metrics of a previous runtime.
+     * Failures are logged, the metrics are still recorded.
+     */
+    public void register() {
+        synchronized (SenderMetrics.class) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+                registered = this;
+            } catch (JMException e) {
+                log.warning("Unable to register the metrics as " + OBJECT_NAME + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Unregister the metrics, unless the metrics of another runtime replaced them.
+     */
+    public void unregister() {
+        synchronized (SenderMetrics.class) {
+            if (registered != this) return;
+            registered = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                log.warning("Unable to unregister the metrics " + OBJECT_NAME + ": " + e);
+            }
+        }
+    }
+}
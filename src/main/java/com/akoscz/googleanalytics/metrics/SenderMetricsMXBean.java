@@ -0,0 +1,63 @@
+package com.akoscz.googleanalytics.metrics;
+
+/**
+ * The attributes of the SenderMetrics exported over JMX.  All counts are numbers of hits since the runtime started,
+ * a batch request counts as all of its hits.
+ */
+public interface SenderMetricsMXBean {
+
+    /**
+     * @return The hits encoded by send(), sendAsync() or sendAll().
+     */
+    long getHitsBuilt();
+
+    /**
+     * @return The hits handed to the send queue of the worker threads.
+     */
+    long getHitsEnqueued();
+
+    /**
+     * @return The hits accepted by the endpoint.
+     */
+    long getHitsSent();
+
+    /**
+     * @return The hits which failed for good or were rejected by the endpoint.
+     */
+    long getHitsFailed();
+
+    /**
+     * @return The hits dropped because the send queue was full or shut down.
+     */
+    long getHitsDropped();
+
+    /**
+     * @return The hits sent again by a retry, once per retry.
+     */
+    long getHitsRetried();
+
+    /**
+     * @return The bytes of the request bodies and of the urls of GET requests, retries included.
+     */
+    long getBytesSent();
+
+    /**
+     * @return The requests waiting in the send queue.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return The worker threads sending a request.
+     */
+    int getActiveWorkers();
+
+    /**
+     * @return The time requests waited in the send queue for a worker thread.
+     */
+    LatencySnapshot getQueueWait();
+
+    /**
+     * @return The time from sending a request on the network until its response or failure, per attempt.
+     */
+    LatencySnapshot getHttpLatency();
+}
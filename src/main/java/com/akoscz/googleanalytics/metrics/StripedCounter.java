@@ -0,0 +1,45 @@
+package com.akoscz.googleanalytics.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads add to without contending on a single cache line, the way a LongAdder does on Java 8.
+ *
+ * The count is spread over a fixed number of cells, a power of two at least as large as the number of processors.
+ * Every thread adds to the cell picked by its thread id and sum() adds up all cells, so a sum taken while threads are
+ * counting may miss their latest additions.  Cells are 8 longs apart so that no two cells share a 64 byte cache line.
+ */
+public class StripedCounter {
+
+    private static final int PADDING = 8;
+    private static final int MAX_STRIPES = 64;
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /* package */ static int stripes(int processors) {
+        int stripes = Integer.highestOneBit(Math.max(1, processors));
+        if (stripes < processors) stripes <<= 1;
+        return Math.min(stripes, MAX_STRIPES);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, delta);
+    }
+
+    /**
+     * @return The sum of all additions.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
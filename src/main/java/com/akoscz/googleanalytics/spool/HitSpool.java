@@ -0,0 +1,292 @@
+package com.akoscz.googleanalytics.spool;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A durable FIFO of encoded hit payloads, stored in append-only segment files which are memory-mapped.
+ *
+ * Appending a hit is a copy into the mapped segment, the operating system writes the dirty pages back to disk, so
+ * spooled hits survive the JVM exiting or crashing.  Call flush() to force them to disk, e.g. before shutting down.
+ *
+ * Segment layout:
+ *      header:  int magic, int version, long read position
+ *      records: int payload length, long enqueued millis, payload bytes (UTF-8)
+ * A record length of zero marks the end of the written records.  The length is written last so that a partially
+ * written record is never read back.
+ *
+ * Segments are deleted once all of their records were removed and a newer segment exists.
+ */
+@Log
+public class HitSpool {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x47415350;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final String SEGMENT_PREFIX = "hits-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final int segmentBytes;
+
+    // guarded by 'this'
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private long size;
+    private boolean closed;
+
+    /**
+     * Open the spool in the given directory, picking up any hits spooled by a previous run.
+     * @param directory The directory holding the segment files.  Created if it does not exist.
+     * @param segmentBytes The size of a segment file.
+     * @throws IOException If the directory or the segment files cannot be accessed.
+     */
+    public HitSpool(@NonNull File directory, int segmentBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("segmentBytes is too small: " + segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the spool directory: " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) throw new IOException("Unable to list the spool directory: " + directory);
+
+        // the zero padded sequence numbers sort in the order the segments were created
+        Arrays.sort(files);
+        for (File file : files) {
+            Segment segment = Segment.open(file);
+            segments.add(segment);
+            size += segment.countRecords();
+        }
+        if (size > 0) {
+            log.info("Found " + size + " spooled hits in " + directory);
+        }
+    }
+
+    /**
+     * Append a hit to the end of the spool.
+     * @param payload The encoded payload of the hit.
+     * @param enqueuedMillis The time the hit was built, in milliseconds since the epoch.
+     * @return True if the hit was spooled, False if it is larger than a segment or could not be written.
+     */
+    public synchronized boolean append(@NonNull String payload, long enqueuedMillis) {
+        if (closed) return false;
+
+        byte[] bytes = payload.getBytes(UTF_8);
+        int recordBytes = RECORD_HEADER_BYTES + bytes.length;
+        if (recordBytes > segmentBytes - HEADER_BYTES) return false;
+
+        try {
+            Segment tail = segments.peekLast();
+            if (tail == null || !tail.hasRoom(recordBytes)) {
+                tail = Segment.create(nextSegmentFile(tail), segmentBytes);
+                segments.add(tail);
+            }
+            tail.append(bytes, enqueuedMillis);
+        } catch (IOException e) {
+            log.warning("Unable to spool hit: " + e.toString());
+            return false;
+        }
+
+        size++;
+        return true;
+    }
+
+    /**
+     * Read hits from the head of the spool without removing them.
+     * @param maxHits The maximum number of hits to read.
+     * @return The hits, oldest first.
+     */
+    public synchronized List<SpooledHit> peek(int maxHits) {
+        List<SpooledHit> hits = new ArrayList<SpooledHit>(Math.min(maxHits, (int) Math.min(size, Integer.MAX_VALUE)));
+        for (Segment segment : segments) {
+            int position = segment.readPosition;
+            while (hits.size() < maxHits && position < segment.writePosition) {
+                hits.add(segment.read(position));
+                position = segment.next(position);
+            }
+            if (hits.size() == maxHits) break;
+        }
+        return hits;
+    }
+
+    /**
+     * Remove hits from the head of the spool, typically the ones returned by peek() once they were delivered.
+     * @param count The number of hits to remove.
+     */
+    public synchronized void remove(int count) {
+        while (count > 0 && !segments.isEmpty()) {
+            Segment head = segments.getFirst();
+            while (count > 0 && head.readPosition < head.writePosition) {
+                head.readPosition = head.next(head.readPosition);
+                count--;
+                size--;
+            }
+            head.commitReadPosition();
+
+            if (head.readPosition < head.writePosition || segments.size() == 1) break;
+
+            // fully consumed and no longer appended to
+            segments.removeFirst();
+            if (!head.file.delete()) {
+                log.warning("Unable to delete spool segment: " + head.file);
+                head.file.deleteOnExit();
+            }
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Force the spooled hits to disk.
+     */
+    public synchronized void flush() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Flush the spool.  Hits appended after close() are rejected.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        flush();
+        segments.clear();
+        closed = true;
+    }
+
+    private File nextSegmentFile(Segment tail) {
+        long sequence = tail == null ? 1 : tail.sequence() + 1;
+        return new File(directory, SEGMENT_PREFIX + String.format("%016d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int readPosition;
+        int writePosition;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, int segmentBytes) throws IOException {
+            Segment segment = new Segment(file, map(file, segmentBytes));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, VERSION);
+            segment.readPosition = HEADER_BYTES;
+            segment.writePosition = HEADER_BYTES;
+            segment.commitReadPosition();
+            return segment;
+        }
+
+        static Segment open(File file) throws IOException {
+            Segment segment = new Segment(file, map(file, file.length()));
+            if (segment.buffer.capacity() < HEADER_BYTES || segment.buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a spool segment: " + file);
+            }
+
+            // scan for the end of the written records, a record cut short by a crash ends the segment
+            int capacity = segment.buffer.capacity();
+            int position = HEADER_BYTES;
+            while (position + RECORD_HEADER_BYTES <= capacity) {
+                int length = segment.buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > capacity) break;
+                position = segment.next(position);
+            }
+            segment.writePosition = position;
+            segment.readPosition = (int) Math.min(segment.buffer.getLong(READ_POSITION_OFFSET), segment.writePosition);
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, long bytes) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                if (randomAccessFile.length() < bytes) {
+                    randomAccessFile.setLength(bytes);
+                }
+                // the mapping stays valid after the channel is closed
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        long sequence() {
+            String name = file.getName();
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+
+        boolean hasRoom(int recordBytes) {
+            return writePosition + recordBytes <= buffer.capacity();
+        }
+
+        void append(byte[] payload, long enqueuedMillis) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(writePosition + RECORD_HEADER_BYTES);
+            record.put(payload);
+            buffer.putLong(writePosition + 4, enqueuedMillis);
+            // publish the record
+            buffer.putInt(writePosition, payload.length);
+            writePosition += RECORD_HEADER_BYTES + payload.length;
+        }
+
+        SpooledHit read(int position) {
+            byte[] payload = new byte[buffer.getInt(position)];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_HEADER_BYTES);
+            record.get(payload);
+            return new SpooledHit(new String(payload, UTF_8), buffer.getLong(position + 4));
+        }
+
+        int next(int position) {
+            return position + RECORD_HEADER_BYTES + buffer.getInt(position);
+        }
+
+        int countRecords() {
+            int count = 0;
+            for (int position = readPosition; position < writePosition; position = next(position)) {
+                count++;
+            }
+            return count;
+        }
+
+        void commitReadPosition() {
+            buffer.putLong(READ_POSITION_OFFSET, readPosition);
+        }
+    }
+}
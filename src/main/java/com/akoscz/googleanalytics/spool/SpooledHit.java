@@ -0,0 +1,16 @@
+package com.akoscz.googleanalytics.spool;
+
+import lombok.Value;
+
+/**
+ * A hit read back from the HitSpool.
+ */
+@Value
+public class SpooledHit {
+
+    String payload;
+    /**
+     * The time the hit was built, in milliseconds since the epoch.
+     */
+    long enqueuedMillis;
+}
@@ -0,0 +1,305 @@
+package com.akoscz.googleanalytics.spool;
+
+import com.akoscz.googleanalytics.HitBatch;
+import com.akoscz.googleanalytics.transport.CircuitBreaker;
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import com.akoscz.googleanalytics.util.GoogleAnalyticsThreadFactory;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Transport which writes the hits of requests that could not be delivered, i.e. that failed or got a 5xx response,
+ * to a HitSpool and replays them in order once the endpoint recovers.
+ *
+ * The spool is replayed every replayInterval and whenever the CircuitBreaker closes, while the breaker is open the
+ * replay waits.  Replayed hits are sent to the batch endpoint, with the time since they were built added to their
+ * queue time ('qt'), which includes the time they spent queued, in retry backoff and in the spool.  Hits older than MAX_QUEUE_TIME_MILLIS would be discarded by Google Analytics and are dropped.
+ *
+ * A RetryAwareCallback is notified that its request was spooled instead of its failure, so the hits are not counted
+ * as both failed and spooled.  A plain Callback is notified of the failure.
+ *
+ * Requests which read the response, i.e. debug requests, are never spooled.
+ */
+@Log
+public class SpoolingTransport extends ForwardingTransport {
+
+    /**
+     * The maximum queue time of a hit accepted by the Measurement Protocol.
+     * See: https://developers.google.com/analytics/devguides/collection/protocol/v1/parameters#qt
+     */
+    public static final long MAX_QUEUE_TIME_MILLIS = 4 * 60 * 60 * 1000;
+
+    private static final String THREAD_NAME_FORMAT = "googleanalytics-spool-thread-{0}";
+    private static final String QUEUE_TIME_PARAM = "qt=";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Callback REPLAY_LOGGER = new Callback() {
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+            log.fine("Replayed spooled hits. Response code: '" + statusCode + "'");
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            log.fine("Unable to replay spooled hits: " + throwable.toString());
+        }
+    };
+
+    private final HitSpool spool;
+    private final String batchEndpoint;
+    private final CircuitBreaker circuitBreaker;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    private final AtomicLong spooledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Runnable replayTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                replay();
+            } catch (RuntimeException e) {
+                // keep the scheduled replay alive
+                log.warning("Unable to replay spooled hits: " + e.toString());
+            }
+        }
+    };
+
+    /**
+     * @param delegate The transport performing the requests.
+     * @param spool The spool undeliverable hits are written to.
+     * @param batchEndpoint The endpoint spooled hits are replayed to.
+     * @param replayIntervalMillis The delay, in milliseconds, between two replays of the spool.  When zero the spool
+     *                             is only replayed when the circuit breaker closes.
+     * @param circuitBreaker The breaker guarding the endpoint, replays wait while it is open.
+     */
+    public SpoolingTransport(Transport delegate, @NonNull HitSpool spool, @NonNull String batchEndpoint,
+                             long replayIntervalMillis, @NonNull CircuitBreaker circuitBreaker) {
+        super(delegate);
+        this.spool = spool;
+        this.batchEndpoint = batchEndpoint;
+        this.circuitBreaker = circuitBreaker;
+
+        timer = new ScheduledThreadPoolExecutor(1, new GoogleAnalyticsThreadFactory(THREAD_NAME_FORMAT));
+        if (replayIntervalMillis > 0) {
+            timer.scheduleWithFixedDelay(replayTask, 0, replayIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        circuitBreaker.addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void stateChanged(CircuitBreaker circuitBreaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+                if (to == CircuitBreaker.State.CLOSED) {
+                    try {
+                        timer.execute(replayTask);
+                    } catch (RejectedExecutionException e) {
+                        // closed
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, final Callback callback) {
+        return getDelegate().send(request, new RetryAwareCallback() {
+            @Override
+            public void completed(TransportRequest request, int statusCode, String responseBody) {
+                if (statusCode >= 500 && spool(request) && notifySpooled(request, callback)) return;
+                callback.completed(request, statusCode, responseBody);
+            }
+
+            @Override
+            public void failed(TransportRequest request, Throwable throwable) {
+                if (spool(request) && notifySpooled(request, callback)) return;
+                callback.failed(request, throwable);
+            }
+
+            @Override
+            public void retrying(TransportRequest request, int retry) {
+                if (callback instanceof RetryAwareCallback) {
+                    ((RetryAwareCallback) callback).retrying(request, retry);
+                }
+            }
+
+            @Override
+            public void spooled(TransportRequest request) {
+                notifySpooled(request, callback);
+            }
+        });
+    }
+
+    /**
+     * @return True if the callback was notified that its request was spooled, False if it must be notified of the
+     * outcome of the request instead.
+     */
+    private static boolean notifySpooled(TransportRequest request, Callback callback) {
+        if (!(callback instanceof RetryAwareCallback)) return false;
+        ((RetryAwareCallback) callback).spooled(request);
+        return true;
+    }
+
+    /**
+     * Write the hits of a request to the spool instead of sending it, e.g. when the send queue is full.
+     * @param request A request to the collect or the batch endpoint.
+     * @return True if all hits of the request were spooled.
+     */
+    public boolean spool(TransportRequest request) {
+        if (request.isReadResponse()) return false;
+
+        String payloads;
+        if (request.isGet()) {
+            int query = request.getUri().indexOf('?');
+            if (query < 0) return false;
+            payloads = request.getUri().substring(query + 1);
+        } else {
+            if (request.getBody() == null) return false;
+            payloads = request.getBody();
+        }
+
+        boolean spooled = true;
+        // a batch body holds one hit per line, a single hit never contains a line break
+        for (String payload : payloads.split("\n")) {
+            if (payload.isEmpty()) continue;
+            if (spool.append(payload, request.getCreatedMillis())) {
+                spooledCount.incrementAndGet();
+            } else {
+                droppedCount.incrementAndGet();
+                spooled = false;
+            }
+        }
+        return spooled;
+    }
+
+    /**
+     * Force the spooled hits to the segment files.
+     */
+    public void flush() {
+        spool.flush();
+    }
+
+    /**
+     * The spool is flushed and closed, spooled hits are replayed by the next tracker opening the same spool directory.
+     */
+    @Override
+    public void close() {
+        timer.shutdown();
+        spool.close();
+        super.close();
+    }
+
+    public long getSpooledCount() {
+        return spooledCount.get();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * @return The number of hits which were too old or too large to be replayed, or could not be spooled.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getSpoolSize() {
+        return spool.size();
+    }
+
+    /**
+     * Replay spooled hits, one batch at a time, until the spool is empty or a batch could not be delivered.
+     */
+    /* package */ void replay() {
+        if (!replaying.compareAndSet(false, true)) return;
+        try {
+            while (!spool.isEmpty() && circuitBreaker.getState() != CircuitBreaker.State.OPEN) {
+                if (!replayBatch()) break;
+            }
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    /**
+     * @return True if the hits at the head of the spool were delivered or dropped.
+     */
+    private boolean replayBatch() {
+        List<SpooledHit> hits = spool.peek(HitBatch.MAX_HITS);
+        long now = System.currentTimeMillis();
+
+        HitBatch batch = new HitBatch();
+        int consumed = 0;
+        int dropped = 0;
+        for (SpooledHit hit : hits) {
+            String payload = withQueueTime(hit.getPayload(), Math.max(0, now - hit.getEnqueuedMillis()));
+            if (payload == null || payload.getBytes(UTF_8).length > HitBatch.MAX_HIT_BYTES) {
+                dropped++;
+            } else if (!batch.add(payload)) {
+                break;
+            }
+            consumed++;
+        }
+
+        if (!batch.isEmpty()) {
+            TransportRequest request = TransportRequest.post(batchEndpoint, HitBatch.CONTENT_TYPE, batch.toBody(), false);
+            Integer statusCode = null;
+            try {
+                // replays go straight to the delegate, a failed replay is kept in the spool rather than spooled again
+                statusCode = getDelegate().send(request, REPLAY_LOGGER).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.fine("Unable to replay spooled hits: " + e.toString());
+            }
+            if (statusCode == null || statusCode >= 500) return false;
+            replayedCount.addAndGet(batch.size());
+        }
+
+        if (dropped > 0) {
+            droppedCount.addAndGet(dropped);
+            log.warning("Dropped " + dropped + " spooled hits older than the maximum queue time or too large to send");
+        }
+        spool.remove(consumed);
+        return consumed > 0;
+    }
+
+    /**
+     * Add the given offset to the queue time of a hit payload.
+     * @param payload The url encoded payload of a hit, which may already carry a queue time.
+     * @param offsetMillis The time, in milliseconds, since the hit was built.
+     * @return The payload with the total queue time, or null if it exceeds MAX_QUEUE_TIME_MILLIS.
+     */
+    /* package */ static String withQueueTime(String payload, long offsetMillis) {
+        int start = payload.startsWith(QUEUE_TIME_PARAM) ? 0 : payload.indexOf("&" + QUEUE_TIME_PARAM) + 1;
+        long queueTime = offsetMillis;
+        if (payload.startsWith(QUEUE_TIME_PARAM, start)) {
+            int end = payload.indexOf('&', start);
+            if (end < 0) end = payload.length();
+            try {
+                queueTime += Long.parseLong(payload.substring(start + QUEUE_TIME_PARAM.length(), end));
+            } catch (NumberFormatException e) {
+                // Google Analytics ignores an invalid queue time, replace it
+            }
+            // drop the param along with one of the separators around it
+            payload = end < payload.length() ? payload.substring(0, start) + payload.substring(end + 1)
+                    : payload.substring(0, Math.max(0, start - 1));
+        }
+
+        if (queueTime > MAX_QUEUE_TIME_MILLIS) return null;
+        return payload.isEmpty() ? QUEUE_TIME_PARAM + queueTime : payload + "&" + QUEUE_TIME_PARAM + queueTime;
+    }
+}
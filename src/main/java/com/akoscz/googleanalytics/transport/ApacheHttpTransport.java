@@ -0,0 +1,81 @@
+package com.akoscz.googleanalytics.transport;
+
+import lombok.Cleanup;
+import lombok.NonNull;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * A blocking Transport backed by the pooled Apache CloseableHttpClient.
+ */
+public class ApacheHttpTransport implements Transport {
+
+    private static final String ENCODING = "UTF-8";
+
+    private final CloseableHttpClient httpClient;
+
+    public ApacheHttpTransport(@NonNull CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, Callback callback) {
+        BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+        try {
+            @Cleanup CloseableHttpResponse httpResponse = httpClient.execute(buildHttpRequest(request));
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            String responseBody = readResponse(request, httpResponse.getEntity());
+
+            callback.completed(request, statusCode, responseBody);
+            future.completed(statusCode);
+        } catch (IOException e) {
+            callback.failed(request, e);
+            future.completed(null);
+        }
+        return future;
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+
+    /* package */ static HttpUriRequest buildHttpRequest(TransportRequest request) {
+        if (request.isGet()) {
+            return new HttpGet(request.getUri());
+        }
+
+        HttpPost httpPost = new HttpPost(request.getUri());
+        httpPost.setEntity(new ByteArrayEntity(request.getBodyBytes(), ContentType.parse(request.getContentType())));
+        return httpPost;
+    }
+
+    /* package */ static String readResponse(TransportRequest request, HttpEntity entity) throws IOException {
+        if (entity == null) return null;
+        if (!request.isReadResponse()) {
+            EntityUtils.consume(entity);
+            return null;
+        }
+        return EntityUtils.toString(entity, ENCODING);
+    }
+}
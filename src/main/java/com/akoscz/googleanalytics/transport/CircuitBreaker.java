@@ -0,0 +1,211 @@
+package com.akoscz.googleanalytics.transport;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A circuit breaker guarding the Google Analytics endpoint.
+ *
+ *  - CLOSED: requests are let through.  After failureThreshold consecutive failures the breaker opens.  Requests
+ *    slower than the slow call threshold count as failures.
+ *  - OPEN: requests are rejected without touching the network.  Once the open duration has passed the breaker
+ *    becomes half open.
+ *  - HALF_OPEN: a single probe request is let through.  If it succeeds the breaker closes, otherwise it opens again.
+ *    Only the outcome of the probe changes the state, late outcomes of requests sent while the breaker was closed
+ *    are ignored.
+ *
+ * Every permitted request is tagged with its Permit, which is handed back with its outcome.
+ * Listeners are notified of every state transition.
+ */
+@Log
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+
+    /**
+     * The permission to send a request.
+     */
+    public enum Permit {
+        /** The breaker is open, the request must be rejected. */
+        REJECTED,
+        /** A request sent while the breaker is closed. */
+        CALL,
+        /** The single probe request sent while the breaker is half open. */
+        PROBE;
+    }
+
+    public interface Listener {
+        void stateChanged(CircuitBreaker circuitBreaker, State from, State to);
+    }
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+
+    // guarded by 'this'
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedNanos;
+    private boolean probeInFlight;
+
+    /**
+     * @param failureThreshold The number of consecutive failures which open the breaker.
+     * @param slowCallMillis Requests taking at least this long, in milliseconds, count as failures.  Zero or less
+     *                       disables the slow call threshold.
+     * @param openMillis The time, in milliseconds, the breaker stays open before letting a probe request through.
+     */
+    public CircuitBreaker(int failureThreshold, long slowCallMillis, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Ask for permission to send a request.  Every permitted request must be followed by onSuccess(), onFailure() or,
+     * if it was never sent, release().
+     * @return The Permit of the request, REJECTED if it must be rejected.
+     */
+    public Permit tryAcquire() {
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return Permit.CALL;
+                case OPEN:
+                    if (System.nanoTime() - openedNanos < openNanos) {
+                        rejectedCount.incrementAndGet();
+                        return Permit.REJECTED;
+                    }
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    break;
+                case HALF_OPEN:
+                    if (probeInFlight) {
+                        rejectedCount.incrementAndGet();
+                        return Permit.REJECTED;
+                    }
+                    probeInFlight = true;
+                    return Permit.PROBE;
+            }
+        }
+        notifyListeners(State.OPEN, State.HALF_OPEN);
+        return Permit.PROBE;
+    }
+
+    /**
+     * Record a request which completed.
+     * @param permit The Permit of the request.
+     * @param latencyNanos The time the request took, in nanoseconds.
+     */
+    public void onSuccess(@NonNull Permit permit, long latencyNanos) {
+        if (slowCallNanos > 0 && latencyNanos >= slowCallNanos) {
+            onFailure(permit);
+            return;
+        }
+
+        synchronized (this) {
+            if (permit == Permit.CALL) {
+                if (state == State.CLOSED) consecutiveFailures = 0;
+                return;
+            }
+            if (permit != Permit.PROBE || !isProbing()) return;
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            probeInFlight = false;
+        }
+        notifyListeners(State.HALF_OPEN, State.CLOSED);
+    }
+
+    /**
+     * Record a request which failed.
+     * @param permit The Permit of the request.
+     */
+    public void onFailure(@NonNull Permit permit) {
+        State from;
+        synchronized (this) {
+            from = state;
+            if (permit == Permit.CALL) {
+                if (state != State.CLOSED || ++consecutiveFailures < failureThreshold) return;
+            } else if (permit != Permit.PROBE || !isProbing()) {
+                return;
+            }
+
+            state = State.OPEN;
+            openedNanos = System.nanoTime();
+            probeInFlight = false;
+        }
+        openedCount.incrementAndGet();
+        notifyListeners(from, State.OPEN);
+    }
+
+    /**
+     * Hand back the Permit of a request which was never sent, e.g. because the transport threw.  A released probe
+     * lets the next request probe the endpoint.
+     * @param permit The Permit of the request.
+     */
+    public synchronized void release(@NonNull Permit permit) {
+        if (permit == Permit.PROBE && isProbing()) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // the caller holds the lock on 'this'
+    private boolean isProbing() {
+        return state == State.HALF_OPEN && probeInFlight;
+    }
+
+    /**
+     * @return The number of requests rejected while the breaker was open.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return The number of times the breaker opened.
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker(state=" + getState() + ", opened=" + openedCount.get() + ", rejected=" + rejectedCount.get() + ")";
+    }
+
+    private void notifyListeners(State from, State to) {
+        if (to == State.OPEN) {
+            log.warning("Circuit breaker " + from + " -> " + to + ", rejecting requests for " + TimeUnit.NANOSECONDS.toMillis(openNanos) + "ms");
+        } else {
+            log.info("Circuit breaker " + from + " -> " + to);
+        }
+
+        for (Listener listener : listeners) {
+            listener.stateChanged(this, from, to);
+        }
+    }
+}
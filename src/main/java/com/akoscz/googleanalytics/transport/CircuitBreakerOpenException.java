@@ -0,0 +1,11 @@
+package com.akoscz.googleanalytics.transport;
+
+/**
+ * Passed to Transport.Callback.failed() for requests rejected by an open CircuitBreaker.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,65 @@
+package com.akoscz.googleanalytics.transport;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.http.concurrent.BasicFuture;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Transport which only sends requests the CircuitBreaker lets through.  Requests rejected by the open breaker fail
+ * right away with a CircuitBreakerOpenException, without occupying a connection or waiting on a timeout, so the
+ * worker threads and the queue drain quickly while the endpoint is down.
+ *
+ * Failed requests and 5xx responses count as failures of the endpoint.  A request which the delegate refuses to send
+ * by throwing hands its permit back, so a refused probe does not keep the breaker half open.
+ */
+public class CircuitBreakerTransport extends ForwardingTransport {
+
+    @Getter
+    private final CircuitBreaker circuitBreaker;
+
+    public CircuitBreakerTransport(Transport delegate, @NonNull CircuitBreaker circuitBreaker) {
+        super(delegate);
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, final Callback callback) {
+        final CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            callback.failed(request, new CircuitBreakerOpenException("Circuit breaker is open, request rejected: " + request.getUri()));
+            BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+            future.completed(null);
+            return future;
+        }
+
+        final long startNanos = System.nanoTime();
+        boolean sent = false;
+        try {
+            Future<Integer> response = getDelegate().send(request, new Callback() {
+                @Override
+                public void completed(TransportRequest request, int statusCode, String responseBody) {
+                    if (statusCode >= 500) {
+                        circuitBreaker.onFailure(permit);
+                    } else {
+                        circuitBreaker.onSuccess(permit, System.nanoTime() - startNanos);
+                    }
+                    callback.completed(request, statusCode, responseBody);
+                }
+
+                @Override
+                public void failed(TransportRequest request, Throwable throwable) {
+                    circuitBreaker.onFailure(permit);
+                    callback.failed(request, throwable);
+                }
+            });
+            sent = true;
+            return response;
+        } finally {
+            if (!sent) {
+                circuitBreaker.release(permit);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.akoscz.googleanalytics.transport;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Transport which decorates another Transport, e.g. to retry failed requests.
+ * By default every method forwards to the delegate.
+ */
+public abstract class ForwardingTransport implements Transport {
+
+    @Getter
+    private final Transport delegate;
+
+    protected ForwardingTransport(@NonNull Transport delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param transport A transport, possibly decorated by one or more ForwardingTransports.
+     * @return The innermost transport which performs the network I/O.
+     */
+    public static Transport unwrap(Transport transport) {
+        while (transport instanceof ForwardingTransport) {
+            transport = ((ForwardingTransport) transport).getDelegate();
+        }
+        return transport;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return delegate.isBlocking();
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, Callback callback) {
+        return delegate.send(request, callback);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
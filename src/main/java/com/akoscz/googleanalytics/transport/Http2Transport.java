@@ -0,0 +1,69 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.akoscz.googleanalytics.util.Http2Client;
+import lombok.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non blocking Transport backed by the JDK 11+ HTTP/2 client.  See Http2Client.
+ */
+public class Http2Transport implements Transport {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final Http2Client http2Client;
+
+    public Http2Transport(@NonNull Http2Client http2Client) {
+        this.http2Client = http2Client;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return false;
+    }
+
+    @Override
+    public Future<Integer> send(final TransportRequest request, final Callback callback) {
+        Http2Client.Callback http2Callback = new Http2Client.Callback() {
+            @Override
+            public void completed(int statusCode, String responseBody) {
+                callback.completed(request, statusCode, responseBody);
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                callback.failed(request, throwable);
+            }
+        };
+
+        if (request.isGet()) {
+            return http2Client.get(request.getUri(), request.isReadResponse(), http2Callback);
+        }
+        return http2Client.post(request.getUri(), request.getContentType(), request.getBodyBytes(), request.isReadResponse(), http2Callback);
+    }
+
+    /**
+     * Shuts down the executor of the client, waiting up to CLOSE_TIMEOUT_SECONDS for the responses being handled.
+     * The JDK client releases its connection once it is no longer referenced.
+     */
+    @Override
+    public void close() {
+        Executor executor = http2Client.getExecutor();
+        if (!(executor instanceof ExecutorService)) return;
+
+        ExecutorService executorService = (ExecutorService) executor;
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
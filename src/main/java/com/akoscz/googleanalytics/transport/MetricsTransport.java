@@ -0,0 +1,55 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.akoscz.googleanalytics.metrics.SenderMetrics;
+import com.akoscz.googleanalytics.util.HitEvent;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Transport which records the bytes and the latency of every request in the SenderMetrics.  It decorates the
+ * transport performing the network I/O, so every retry is recorded as a request of its own and requests rejected by
+ * the open circuit breaker are not recorded at all.
+ *
+ * Every request is also emitted as a HitEvent.SEND flight recorder event while a recording is running.  The pooled
+ * http clients do not expose the time spent leasing a connection, so it is part of the duration of the event.
+ */
+public class MetricsTransport extends ForwardingTransport {
+
+    @Getter
+    private final SenderMetrics metrics;
+
+    public MetricsTransport(Transport delegate, @NonNull SenderMetrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, final Callback callback) {
+        metrics.recordBytesSent(request.getPayloadLength());
+
+        final Object sendEvent = HitEvent.SEND.begin();
+        final long startNanos = System.nanoTime();
+        return getDelegate().send(request, new Callback() {
+            @Override
+            public void completed(TransportRequest request, int statusCode, String responseBody) {
+                metrics.recordHttpLatency(System.nanoTime() - startNanos);
+                if (sendEvent != null) commitSendEvent(sendEvent, request, statusCode, null);
+                callback.completed(request, statusCode, responseBody);
+            }
+
+            @Override
+            public void failed(TransportRequest request, Throwable throwable) {
+                metrics.recordHttpLatency(System.nanoTime() - startNanos);
+                if (sendEvent != null) commitSendEvent(sendEvent, request, 0, throwable.toString());
+                callback.failed(request, throwable);
+            }
+        });
+    }
+
+    private static void commitSendEvent(Object event, TransportRequest request, int statusCode, String failure) {
+        HitEvent.SEND.commit(event, HitEvent.hitType(request), request.getMethod().name(),
+                request.getPayloadLength(), statusCode, failure);
+    }
+}
@@ -0,0 +1,66 @@
+package com.akoscz.googleanalytics.transport;
+
+import lombok.NonNull;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * A non blocking Transport backed by the event driven Apache CloseableHttpAsyncClient.
+ * Many requests are kept in flight on a few I/O threads, the Callback is invoked on one of the I/O threads.
+ */
+public class NioHttpTransport implements Transport {
+
+    private final CloseableHttpAsyncClient httpAsyncClient;
+
+    public NioHttpTransport(@NonNull CloseableHttpAsyncClient httpAsyncClient) {
+        this.httpAsyncClient = httpAsyncClient;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return false;
+    }
+
+    @Override
+    public Future<Integer> send(final TransportRequest request, final Callback callback) {
+        final BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+        httpAsyncClient.execute(ApacheHttpTransport.buildHttpRequest(request), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse httpResponse) {
+                int statusCode = httpResponse.getStatusLine().getStatusCode();
+                try {
+                    callback.completed(request, statusCode, ApacheHttpTransport.readResponse(request, httpResponse.getEntity()));
+                    future.completed(statusCode);
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                callback.failed(request, e);
+                future.completed(null);
+            }
+
+            @Override
+            public void cancelled() {
+                failed(new IOException("Request cancelled"));
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpAsyncClient.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+}
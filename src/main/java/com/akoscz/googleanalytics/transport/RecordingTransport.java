@@ -0,0 +1,122 @@
+package com.akoscz.googleanalytics.transport;
+
+import org.apache.http.concurrent.BasicFuture;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-memory Transport that never touches the network.  Every request is answered with the configured status code
+ * after the configured latency, which makes it possible to benchmark and load test the encode and queue pipeline on a
+ * machine without network access.
+ *
+ * The most recent requests, up to the configured maximum, are retained so they can be inspected.
+ */
+public class RecordingTransport implements Transport {
+
+    public static final int DEFAULT_MAX_RECORDED_REQUESTS = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long latencyNanos;
+    private final int statusCode;
+    private final int maxRecordedRequests;
+
+    private final Queue<TransportRequest> requests = new ConcurrentLinkedQueue<TransportRequest>();
+    private final AtomicInteger recordedCount = new AtomicInteger();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    public RecordingTransport() {
+        this(0, TimeUnit.MILLISECONDS);
+    }
+
+    public RecordingTransport(long latency, TimeUnit unit) {
+        this(latency, unit, 200, DEFAULT_MAX_RECORDED_REQUESTS);
+    }
+
+    /**
+     * @param latency The simulated latency of every request.
+     * @param unit The TimeUnit of the latency.
+     * @param statusCode The status code every request is answered with.
+     * @param maxRecordedRequests The maximum number of requests retained for inspection.
+     */
+    public RecordingTransport(long latency, TimeUnit unit, int statusCode, int maxRecordedRequests) {
+        this.latencyNanos = unit.toNanos(latency);
+        this.statusCode = statusCode;
+        this.maxRecordedRequests = maxRecordedRequests;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, Callback callback) {
+        if (latencyNanos > 0) {
+            // simulate the round trip, parkNanos may return early so keep parking until the deadline
+            long deadline = System.nanoTime() + latencyNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        record(request);
+        callback.completed(request, statusCode, null);
+
+        BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+        future.completed(statusCode);
+        return future;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The total number of bytes of the uri and body of all requests.
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * @return The most recent requests, oldest first.
+     */
+    public List<TransportRequest> getRequests() {
+        return new ArrayList<TransportRequest>(requests);
+    }
+
+    public void clear() {
+        requests.clear();
+        recordedCount.set(0);
+        requestCount.set(0);
+        byteCount.set(0);
+    }
+
+    private void record(TransportRequest request) {
+        requestCount.incrementAndGet();
+        byteCount.addAndGet(request.getUri().getBytes(UTF_8).length
+                + (request.getBodyBytes() == null ? 0 : request.getBodyBytes().length));
+
+        if (maxRecordedRequests <= 0) return;
+        requests.add(request);
+        if (recordedCount.incrementAndGet() > maxRecordedRequests && requests.poll() != null) {
+            recordedCount.decrementAndGet();
+        }
+    }
+}
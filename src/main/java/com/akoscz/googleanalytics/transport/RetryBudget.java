@@ -0,0 +1,50 @@
+package com.akoscz.googleanalytics.transport;
+
+/**
+ * A token bucket which limits the number of retries relative to the number of successful requests.
+ *
+ * Every retry takes a token from the bucket and every successful request puts a fraction of a token back, up to the
+ * capacity of the bucket.  While the endpoint is healthy the bucket stays full.  During an outage the bucket drains
+ * after a burst of retries and only a fraction of the requests are retried from then on, so retries cannot multiply
+ * the load on an endpoint which is already failing.
+ */
+public class RetryBudget {
+
+    private final double maxTokens;
+    private final double tokenRatio;
+
+    // guarded by 'this'
+    private double tokens;
+
+    /**
+     * @param maxTokens The capacity of the bucket, i.e. the number of retries allowed in a burst.
+     * @param tokenRatio The fraction of a token returned by every successful request, e.g. 0.1 allows one retry
+     *                   for every ten successful requests once the bucket is drained.
+     */
+    public RetryBudget(double maxTokens, double tokenRatio) {
+        this.maxTokens = maxTokens;
+        this.tokenRatio = tokenRatio;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Take a token for a retry.
+     * @return True if the retry may be performed, False if the budget is exhausted.
+     */
+    public synchronized boolean tryAcquire() {
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Record a successful request.
+     */
+    public synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + tokenRatio);
+    }
+
+    public synchronized double getTokens() {
+        return tokens;
+    }
+}
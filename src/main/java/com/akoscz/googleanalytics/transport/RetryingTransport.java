@@ -0,0 +1,211 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.akoscz.googleanalytics.util.GoogleAnalyticsThreadFactory;
+import com.akoscz.googleanalytics.util.OverflowTask;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.http.concurrent.BasicFuture;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Transport which retries requests that failed with a 5xx response code, a timeout or a connection reset.
+ *
+ * Retries are delayed with exponential backoff and full jitter, i.e. a random delay between zero and
+ * baseDelay * 2^(retry - 1), capped at maxDelay.  Every retry must be granted by the RetryBudget.
+ *
+ * Delayed retries are scheduled on a timer so they do not hold on to a thread while they wait.  Once due, retries
+ * on a blocking delegate are handed to the executor while retries on a non blocking delegate are sent from the timer.
+ *
+ * The Callback and the returned Future only see the outcome of the last attempt.  A RetryAwareCallback is notified
+ * of every retry before it is scheduled.
+ */
+@Log
+public class RetryingTransport extends ForwardingTransport {
+
+    private static final String THREAD_NAME_FORMAT = "googleanalytics-retry-thread-{0}";
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final RetryBudget retryBudget;
+    private final Executor executor;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong budgetExhaustedCount = new AtomicLong();
+
+    /**
+     * @param delegate The transport performing the requests.
+     * @param maxRetries The maximum number of retries of a request.
+     * @param baseDelayMillis The maximum delay, in milliseconds, before the first retry.
+     * @param maxDelayMillis The cap on the delay, in milliseconds, before any retry.
+     * @param retryBudget The budget every retry is taken from.
+     * @param executor The executor on which retries on a blocking delegate are performed.
+     */
+    public RetryingTransport(Transport delegate, int maxRetries, long baseDelayMillis, long maxDelayMillis,
+                             @NonNull RetryBudget retryBudget, @NonNull Executor executor) {
+        super(delegate);
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryBudget = retryBudget;
+        this.executor = executor;
+
+        timer = new ScheduledThreadPoolExecutor(1, new GoogleAnalyticsThreadFactory(THREAD_NAME_FORMAT));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, Callback callback) {
+        BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+        attempt(request, callback, future, 0);
+        return future;
+    }
+
+    /**
+     * Retries which are already scheduled are still performed, on the closed delegate.
+     */
+    @Override
+    public void close() {
+        timer.shutdown();
+        super.close();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return The number of retries which were not performed because the retry budget was exhausted.
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.get();
+    }
+
+    /**
+     * @param retry The number of the retry, starting at 1.
+     * @return The delay, in milliseconds, before the retry.
+     */
+    /* package */ long backoffMillis(int retry) {
+        long ceiling = baseDelayMillis << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /* package */ static boolean isRetryable(int statusCode) {
+        return statusCode >= 500 && statusCode < 600;
+    }
+
+    /* package */ static boolean isRetryable(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                // the endpoint cannot be found or cannot be trusted, retrying will not change that
+                return !(cause instanceof UnknownHostException
+                        || cause instanceof SSLHandshakeException
+                        || cause instanceof SSLPeerUnverifiedException);
+            }
+        }
+        return false;
+    }
+
+    private void attempt(final TransportRequest request, final Callback callback, final BasicFuture<Integer> future,
+                         final int retries) {
+        getDelegate().send(request, new Callback() {
+            @Override
+            public void completed(TransportRequest request, int statusCode, String responseBody) {
+                if (isRetryable(statusCode)) {
+                    if (scheduleRetry(request, callback, future, retries, "response code " + statusCode)) return;
+                } else {
+                    retryBudget.deposit();
+                }
+
+                callback.completed(request, statusCode, responseBody);
+                future.completed(statusCode);
+            }
+
+            @Override
+            public void failed(TransportRequest request, Throwable throwable) {
+                if (isRetryable(throwable) && scheduleRetry(request, callback, future, retries, throwable.toString())) {
+                    return;
+                }
+
+                callback.failed(request, throwable);
+                future.completed(null);
+            }
+        });
+    }
+
+    /**
+     * @return True if the retry was scheduled, False if the request must not be retried.
+     */
+    private boolean scheduleRetry(final TransportRequest request, final Callback callback,
+                                  final BasicFuture<Integer> future, final int retries, String reason) {
+        if (retries >= maxRetries) return false;
+
+        if (!retryBudget.tryAcquire()) {
+            budgetExhaustedCount.incrementAndGet();
+            log.fine("Retry budget exhausted, not retrying request: " + request.getUri());
+            return false;
+        }
+
+        final int retry = retries + 1;
+        long delayMillis = backoffMillis(retry);
+        log.info("Retrying request: " + request.getUri() + " (" + reason + ") retry " + retry + " in " + delayMillis + "ms");
+
+        final OverflowTask attempt = new OverflowTask() {
+            @Override
+            public void run() {
+                attempt(request, callback, future, retry);
+            }
+
+            @Override
+            public void dropped() {
+                // the send queue is full or shut down, give up on the request instead of leaving its Future incomplete
+                callback.failed(request, new RejectedExecutionException("Send queue is full or shut down, retry dropped: " + request.getUri()));
+                future.completed(null);
+            }
+
+            @Override
+            public boolean spill() {
+                // spilled by a SpoolingTransport through the failed callback
+                return false;
+            }
+        };
+
+        // before the retry can complete
+        if (callback instanceof RetryAwareCallback) {
+            ((RetryAwareCallback) callback).retrying(request, retry);
+        }
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (isBlocking()) {
+                        executor.execute(attempt);
+                    } else {
+                        attempt.run();
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+            return false;
+        }
+
+        retryCount.incrementAndGet();
+        return true;
+    }
+}
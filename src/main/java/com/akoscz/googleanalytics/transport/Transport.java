@@ -0,0 +1,48 @@
+package com.akoscz.googleanalytics.transport;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Transport performs the network I/O of fully encoded requests to the Google Analytics endpoints.
+ *
+ * Blocking transports perform the I/O on the calling thread and complete the returned Future before returning,
+ * so asynchronous sends must be handed off to a worker thread.  Non blocking transports perform the I/O on their own
+ * threads and return immediately.
+ *
+ * Transports must not throw on network failures, the Callback is notified instead.
+ */
+public interface Transport {
+
+    interface Callback {
+        void completed(TransportRequest request, int statusCode, String responseBody);
+        void failed(TransportRequest request, Throwable throwable);
+    }
+
+    /**
+     * A Callback which is also notified before every retry of its request by a RetryingTransport, and instead of
+     * failed() or completed() when a SpoolingTransport wrote the undeliverable request to the spool.  Transports
+     * which wrap the Callback of a request must pass the notifications on.
+     */
+    interface RetryAwareCallback extends Callback {
+        void retrying(TransportRequest request, int retry);
+        void spooled(TransportRequest request);
+    }
+
+    /**
+     * @return True if send() performs the network I/O on the calling thread, False otherwise.
+     */
+    boolean isBlocking();
+
+    /**
+     * Send the request.
+     * @param request The encoded request.
+     * @param callback Notified once the request completed or failed.
+     * @return The Future of the response status code.  The Future completes with null if the request failed.
+     */
+    Future<Integer> send(TransportRequest request, Callback callback);
+
+    /**
+     * Release the resources held by the transport.
+     */
+    void close();
+}
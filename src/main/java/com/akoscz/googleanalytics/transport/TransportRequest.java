@@ -0,0 +1,85 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.HttpMethod;
+import lombok.Value;
+
+import java.nio.charset.Charset;
+
+/**
+ * An immutable, fully encoded request handed to a Transport.
+ * To build one use:
+ *      TransportRequest.get(String url, boolean readResponse)
+ *      TransportRequest.post(String uri, String contentType, String body, boolean readResponse)
+ *      TransportRequest.post(String uri, String contentType, byte[] body, boolean readResponse)
+ *
+ * A request is stamped with the time it is built, which is when its hit was built, unless the time is given.
+ *
+ * For GET requests the payload is encoded in the query string of the uri and the body is null.  The body of a POST
+ * request is carried as the bytes the transports write, so an encoded hit is not turned into a String and back.
+ */
+@Value
+public class TransportRequest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    HttpMethod method;
+    String uri;
+    String contentType;
+    /**
+     * The url encoded body of a POST request, which only contains ASCII characters.  It must not be modified.
+     */
+    byte[] bodyBytes;
+    /**
+     * True if the response body should be read and passed to the Callback, e.g. in debug mode.
+     */
+    boolean readResponse;
+    /**
+     * The time the hit, or the oldest hit of a batch, was built, in milliseconds since the epoch.  The queue time of
+     * the hits starts then.
+     */
+    long createdMillis;
+
+    public static TransportRequest get(String url, boolean readResponse) {
+        return new TransportRequest(HttpMethod.GET, url, null, null, readResponse, System.currentTimeMillis());
+    }
+
+    public static TransportRequest post(String uri, String contentType, String body, boolean readResponse) {
+        return post(uri, contentType, body, readResponse, System.currentTimeMillis());
+    }
+
+    public static TransportRequest post(String uri, String contentType, String body, boolean readResponse,
+                                        long createdMillis) {
+        return post(uri, contentType, body == null ? null : body.getBytes(UTF_8), readResponse, createdMillis);
+    }
+
+    /**
+     * @param body The encoded body, which the request takes over without copying it.
+     */
+    public static TransportRequest post(String uri, String contentType, byte[] body, boolean readResponse) {
+        return post(uri, contentType, body, readResponse, System.currentTimeMillis());
+    }
+
+    public static TransportRequest post(String uri, String contentType, byte[] body, boolean readResponse,
+                                        long createdMillis) {
+        return new TransportRequest(HttpMethod.POST, uri, contentType, body, readResponse, createdMillis);
+    }
+
+    public boolean isGet() {
+        return method == HttpMethod.GET;
+    }
+
+    /**
+     * @return The body of a POST request as a String, e.g. to log or spool it, or null for GET requests.
+     */
+    public String getBody() {
+        return bodyBytes == null ? null : new String(bodyBytes, UTF_8);
+    }
+
+    /**
+     * @return The length of the url encoded payload, the body of a POST request or the url of a GET request.
+     */
+    public int getPayloadLength() {
+        if (isGet()) return uri == null ? 0 : uri.length();
+        return bodyBytes == null ? 0 : bodyBytes.length;
+    }
+}
@@ -0,0 +1,92 @@
+package com.akoscz.googleanalytics.transport;
+
+import lombok.Cleanup;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.concurrent.BasicFuture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Future;
+
+/**
+ * A blocking Transport backed by java.net.HttpURLConnection.
+ *
+ * Every request opens its own connection and disconnects it once the response is read, so nothing is kept alive
+ * between hits and the proxy settings of the config are not applied.  Prefer the pooled ApacheHttpTransport.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    private static final String ENCODING = "UTF-8";
+
+    private final String userAgent;
+
+    /**
+     * @param userAgent The User-Agent header value sent with every request.  Ignored if null or empty.
+     */
+    public UrlConnectionTransport(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public Future<Integer> send(TransportRequest request, Callback callback) {
+        BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(request.getUri()).openConnection();
+            connection.setRequestMethod(request.getMethod().name());
+            if (StringUtils.isNotEmpty(userAgent)) {
+                connection.setRequestProperty("User-Agent", userAgent);
+            }
+
+            if (!request.isGet()) {
+                byte[] body = request.getBodyBytes();
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                connection.setRequestProperty("Content-Type", request.getContentType());
+                @Cleanup OutputStream outputStream = connection.getOutputStream();
+                outputStream.write(body);
+            }
+
+            final int responseCode = connection.getResponseCode();
+
+            String responseBody = null;
+            if (request.isReadResponse()) {
+                StringBuilder content = new StringBuilder();
+                @Cleanup BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(connection.getInputStream(), ENCODING));
+
+                String line;
+                // read from the urlconnection via the bufferedreader
+                while ((line = bufferedReader.readLine()) != null) {
+                    content.append(line + "\n");
+                }
+                responseBody = content.toString();
+            }
+
+            callback.completed(request, responseCode, responseBody);
+            future.completed(responseCode);
+        } catch (IOException e) {
+            callback.failed(request, e);
+            future.completed(null);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        return future;
+    }
+
+    @Override
+    public void close() {
+        // connections are not pooled
+    }
+}
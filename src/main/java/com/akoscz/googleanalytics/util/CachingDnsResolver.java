@@ -0,0 +1,96 @@
+package com.akoscz.googleanalytics.util;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.http.conn.DnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A DnsResolver which caches the addresses of every host it resolved for a fixed TTL.
+ *
+ * Only the first lookup of a host blocks on the delegate resolver.  Once an entry is older than the TTL the cached
+ * addresses keep being returned while the entry is refreshed on the refresh executor, so hits are never held up by
+ * a DNS lookup after the first one.  If the refresh fails the stale addresses are kept until the next refresh.
+ */
+@Log
+public class CachingDnsResolver implements DnsResolver {
+
+    private final DnsResolver delegate;
+    private final long ttlMillis;
+    private final Executor refreshExecutor;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param delegate The resolver performing the actual lookups.
+     * @param ttlMillis The time, in milliseconds, after which a cached entry is refreshed.
+     * @param refreshExecutor The executor on which expired entries are refreshed.
+     */
+    public CachingDnsResolver(@NonNull DnsResolver delegate, long ttlMillis, @NonNull Executor refreshExecutor) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        Entry entry = cache.get(host);
+        if (entry == null) {
+            entry = new Entry(delegate.resolve(host));
+            cache.put(host, entry);
+        } else if (entry.isExpired(ttlMillis)) {
+            refresh(host, entry);
+        }
+        return entry.addresses.clone();
+    }
+
+    /**
+     * Drop all cached entries.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    private void refresh(final String host, Entry entry) {
+        // only one refresh per entry, the first caller to see it expired schedules it
+        if (!entry.refreshing.compareAndSet(false, true)) return;
+
+        final Entry stale = entry;
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cache.replace(host, stale, new Entry(delegate.resolve(host)));
+                    } catch (UnknownHostException e) {
+                        log.warning("Unable to refresh the addresses of '" + host + "': " + e.toString());
+                        // try again on the next lookup
+                        stale.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stale.refreshing.set(false);
+        }
+    }
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long resolvedMillis = System.currentTimeMillis();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(InetAddress[] addresses) {
+            this.addresses = addresses;
+        }
+
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - resolvedMillis >= ttlMillis;
+        }
+    }
+}
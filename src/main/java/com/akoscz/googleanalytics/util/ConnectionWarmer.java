@@ -0,0 +1,101 @@
+package com.akoscz.googleanalytics.util;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens connections to the Google Analytics endpoints ahead of the first hits and returns them to the pool, so the
+ * DNS lookup, the TCP connect and the TLS handshake are already done by the time the first hits are sent.
+ *
+ * Runs in the background, failures are logged and otherwise ignored.  Only direct routes are warmed up, requests
+ * through a proxy set up their connections on first use.
+ */
+@Log
+public class ConnectionWarmer implements Runnable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    private final HttpClientConnectionManager connectionManager;
+    private final Collection<String> endpoints;
+    private final int connections;
+
+    /**
+     * @param connectionManager The pool the connections are returned to.
+     * @param endpoints The endpoint URIs to connect to.  Endpoints on the same host share their connections.
+     * @param connections The number of connections to open per host.
+     */
+    public ConnectionWarmer(@NonNull HttpClientConnectionManager connectionManager, @NonNull Collection<String> endpoints,
+                            int connections) {
+        this.connectionManager = connectionManager;
+        this.endpoints = endpoints;
+        this.connections = connections;
+    }
+
+    @Override
+    public void run() {
+        for (HttpRoute route : buildRoutes()) {
+            warmUp(route);
+        }
+    }
+
+    private Set<HttpRoute> buildRoutes() {
+        Set<HttpRoute> routes = new LinkedHashSet<HttpRoute>();
+        for (String endpoint : endpoints) {
+            HttpHost host = URIUtils.extractHost(URI.create(endpoint));
+            if (host == null) continue;
+
+            try {
+                // the pool is keyed by the route the client plans for a request, which carries the resolved port
+                HttpHost target = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host),
+                        host.getSchemeName());
+                routes.add(new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName())));
+            } catch (Exception e) {
+                log.warning("Unable to warm up connections to '" + endpoint + "': " + e.toString());
+            }
+        }
+        return routes;
+    }
+
+    private void warmUp(HttpRoute route) {
+        // lease all connections at once, leasing them one after the other would hand back the same connection
+        List<HttpClientConnection> leased = new ArrayList<HttpClientConnection>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                HttpClientConnection connection = connectionManager.requestConnection(route, null)
+                        .get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connectionManager.connect(connection, route, CONNECT_TIMEOUT_MILLIS, context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+            }
+            log.info("Warmed up " + leased.size() + " connections to " + route);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warning("Unable to warm up connections to " + route + ": " + e.toString());
+        } finally {
+            for (HttpClientConnection connection : leased) {
+                // connections that failed to connect are closed by the pool rather than reused
+                connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
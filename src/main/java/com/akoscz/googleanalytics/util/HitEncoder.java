@@ -0,0 +1,327 @@
+package com.akoscz.googleanalytics.util;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * A single pass encoder of hit payloads and GET urls, which percent-encodes the parameter values straight into a
+ * reusable byte buffer.
+ *
+ * Values are encoded like URLEncoder.encode(value, "UTF-8"): the unreserved characters are kept, spaces become '+'
+ * and every other byte of the UTF-8 encoding is written as %XX, using precomputed tables rather than a Charset
+ * encoder.  The length limit of a field is checked before its value is written and the limit of the whole payload
+ * while it is written, so an oversized payload fails as soon as it crosses the limit.  The only garbage of an encoded
+ * hit is the copy of its bytes, which the transports write as they are, or the String of a GET url.
+ *
+ * Every thread owns one encoder, which is not reentrant:
+ *      byte[] payload = HitEncoder.get().begin(8192, "Too long").param("v", 1).param("t", "pageview").toByteArray();
+ */
+public class HitEncoder {
+
+    /**
+     * The capacity of the buffer, the maximum size of a hit payload accepted by the Measurement Protocol.
+     */
+    public static final int CAPACITY = 8 * 1024;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    // the number of bytes every ASCII character is encoded to, 1 for the unreserved characters and space, otherwise 3
+    private static final byte[] ENCODED_LENGTH = new byte[128];
+
+    static {
+        for (int c = 0; c < ENCODED_LENGTH.length; c++) {
+            boolean unreserved = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-' || c == '*' || c == '_';
+            ENCODED_LENGTH[c] = (byte) (unreserved || c == ' ' ? 1 : 3);
+        }
+    }
+
+    private static final ThreadLocal<HitEncoder> ENCODERS = new ThreadLocal<HitEncoder>() {
+        @Override
+        protected HitEncoder initialValue() {
+            return new HitEncoder();
+        }
+    };
+
+    private final byte[] buffer = new byte[CAPACITY];
+    private int length;
+    private int maxBytes;
+    private String tooLongMessage;
+    private byte firstSeparator;
+    private boolean empty;
+
+    /**
+     * @return The encoder of the current thread.
+     */
+    public static HitEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Start a new payload, discarding the previous one.
+     * @param maxBytes The maximum size of the payload, at most CAPACITY.
+     * @param tooLongMessage The message of the RuntimeException thrown when the payload exceeds maxBytes.
+     * @return This encoder.
+     */
+    public HitEncoder begin(int maxBytes, String tooLongMessage) {
+        this.length = 0;
+        this.maxBytes = Math.min(maxBytes, CAPACITY);
+        this.tooLongMessage = tooLongMessage;
+        this.firstSeparator = 0;
+        this.empty = true;
+        return this;
+    }
+
+    /**
+     * Write the url the parameters are appended to as a query string.
+     * @param url The url, which must only contain ASCII characters.
+     * @return This encoder.
+     */
+    public HitEncoder url(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            write(url.charAt(i));
+        }
+        firstSeparator = '?';
+        return this;
+    }
+
+    /**
+     * Write the parameter, unless its value is null or empty.
+     * @return This encoder.
+     */
+    public HitEncoder param(String name, String value) {
+        return param(name, value, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Write the parameter, unless its value is null or empty.
+     * @param maxValueBytes The maximum size of the value in UTF-8, before it is encoded.
+     * @param tooLongMessage The message of the RuntimeException thrown when the value exceeds maxValueBytes.
+     * @return This encoder.
+     */
+    public HitEncoder param(String name, String value, int maxValueBytes, String tooLongMessage) {
+        if (value == null || value.isEmpty()) return this;
+        // the field limit takes precedence over the limit of the payload
+        if (value.length() > maxValueBytes / 3 && utf8Length(value) > maxValueBytes) {
+            throw new RuntimeException(tooLongMessage);
+        }
+
+        writeName(name);
+        for (int i = 0; i < value.length(); i++) {
+            int codePoint = value.charAt(i);
+            if (codePoint < 0x80) {
+                writeEncoded(codePoint);
+            } else if (codePoint < 0x800) {
+                writeEncoded(0xC0 | (codePoint >> 6));
+                writeEncoded(0x80 | (codePoint & 0x3F));
+            } else if (isSurrogatePair(value, i)) {
+                codePoint = Character.toCodePoint((char) codePoint, value.charAt(++i));
+                writeEncoded(0xF0 | (codePoint >> 18));
+                writeEncoded(0x80 | ((codePoint >> 12) & 0x3F));
+                writeEncoded(0x80 | ((codePoint >> 6) & 0x3F));
+                writeEncoded(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate((char) codePoint)) {
+                // a malformed surrogate is replaced, like String.getBytes() does
+                writeEncoded('?');
+            } else {
+                writeEncoded(0xE0 | (codePoint >> 12));
+                writeEncoded(0x80 | ((codePoint >> 6) & 0x3F));
+                writeEncoded(0x80 | (codePoint & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write a numeric parameter without converting it to a String first.
+     * @return This encoder.
+     */
+    public HitEncoder param(String name, long value) {
+        writeName(name);
+        if (value < 0) {
+            write('-');
+        } else {
+            value = -value;
+        }
+        // the digits of the negated value, so that Long.MIN_VALUE does not overflow
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' - (value % 10));
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Write a UUID parameter in its canonical form without converting it to a String first.
+     * @return This encoder.
+     */
+    public HitEncoder param(String name, UUID value) {
+        if (value == null) return this;
+
+        writeName(name);
+        writeHex(value.getMostSignificantBits() >>> 32, 8);
+        write('-');
+        writeHex(value.getMostSignificantBits() >>> 16, 4);
+        write('-');
+        writeHex(value.getMostSignificantBits(), 4);
+        write('-');
+        writeHex(value.getLeastSignificantBits() >>> 48, 4);
+        write('-');
+        writeHex(value.getLeastSignificantBits(), 12);
+        return this;
+    }
+
+    /**
+     * Write parameters which were encoded before, see toByteArray().
+     * @param params The encoded "name=value" pairs separated by '&'.
+     * @return This encoder.
+     */
+    public HitEncoder params(byte[] params) {
+        if (params.length == 0) return this;
+
+        writeSeparator();
+        ensureCapacity(params.length);
+        System.arraycopy(params, 0, buffer, length, params.length);
+        length += params.length;
+        return this;
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return The encoded payload, which only contains ASCII characters.
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, US_ASCII);
+    }
+
+    /**
+     * @return A copy of the bytes written, e.g. the body of a POST request, or parameters to be written again with
+     * params().
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, 0, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * @return The number of bytes the value is url encoded to, without encoding it.
+     */
+    public static int encodedLength(String value) {
+        if (value == null) return 0;
+
+        int encodedLength = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                encodedLength += ENCODED_LENGTH[c];
+            } else if (c < 0x800) {
+                encodedLength += 2 * 3;
+            } else if (isSurrogatePair(value, i)) {
+                encodedLength += 4 * 3;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                encodedLength += 3;
+            } else {
+                encodedLength += 3 * 3;
+            }
+        }
+        return encodedLength;
+    }
+
+    /**
+     * @return The number of bytes of the UTF-8 encoding of the value, without encoding it.
+     */
+    private static int utf8Length(String value) {
+        int utf8Length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (isSurrogatePair(value, i)) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        return utf8Length;
+    }
+
+    private static boolean isSurrogatePair(String value, int i) {
+        return Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1));
+    }
+
+    private void writeName(String name) {
+        writeSeparator();
+        for (int i = 0; i < name.length(); i++) {
+            write(name.charAt(i));
+        }
+        write('=');
+    }
+
+    private void writeSeparator() {
+        if (!empty) {
+            write('&');
+        } else if (firstSeparator != 0) {
+            write(firstSeparator);
+        }
+        empty = false;
+    }
+
+    /**
+     * @param b A byte of the UTF-8 encoding of a value.
+     */
+    private void writeEncoded(int b) {
+        if (b < 0x80 && ENCODED_LENGTH[b] == 1) {
+            write(b == ' ' ? '+' : b);
+        } else {
+            ensureCapacity(3);
+            buffer[length++] = '%';
+            buffer[length++] = HEX_DIGITS[(b >> 4) & 0xF];
+            buffer[length++] = HEX_DIGITS[b & 0xF];
+        }
+    }
+
+    private void writeHex(long value, int digits) {
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            // lower case, like UUID.toString()
+            buffer[i] = (byte) Character.forDigit((int) (value & 0xF), 16);
+            value >>>= 4;
+        }
+        length += digits;
+    }
+
+    private void write(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (length + bytes > maxBytes) {
+            throw new RuntimeException(tooLongMessage);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.akoscz.googleanalytics.util;
+
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import lombok.extern.java.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * A JDK Flight Recorder event type for a stage of the hit lifecycle, to tell where the time of a hit goes:
+ *  - VALIDATE validates the parameters of a hit on the thread calling send().
+ *  - ENCODE encodes the payload or the url of a hit on the thread calling send().
+ *  - QUEUE is the time a request waited in the send queue.  It ends when a worker thread picks the request up, or when
+ *    the request is dropped or spilled.
+ *  - SEND is one attempt of the transport performing the network I/O: the connection lease, the request and the
+ *    response of the server.  Every retry is an event of its own.
+ *
+ * The library targets Java 7, so the event types are defined at runtime with the JDK 9+ jdk.jfr.EventFactory, accessed
+ * reflectively.  Older runtimes emit no events.  Every type keeps an enabled flag which a FlightRecorderListener
+ * refreshes when a recording starts or stops.  While no recording is running begin() is a single volatile read which
+ * returns null, and nothing is allocated.
+ *
+ * To emit an event:
+ *      Object event = HitEvent.ENCODE.begin();
+ *      String payload = encode();
+ *      if (event != null) HitEvent.ENCODE.commit(event, hitType, "POST", payload.length());
+ *
+ * The events are named com.akoscz.googleanalytics.Hit* and are recorded with the settings of the recording, e.g.
+ *      jcmd <pid> JFR.start duration=60s filename=hits.jfr
+ */
+@Log
+public class HitEvent {
+
+    private static final String NAME_PREFIX = "com.akoscz.googleanalytics.";
+    private static final String[] CATEGORY = {"Google Analytics"};
+
+    private static final boolean AVAILABLE;
+
+    private static Constructor<?> annotationElement;
+    private static Constructor<?> valueDescriptor;
+    private static Class<?> nameAnnotation;
+    private static Class<?> labelAnnotation;
+    private static Class<?> descriptionAnnotation;
+    private static Class<?> categoryAnnotation;
+    private static Method createFactory;
+    private static Method newEvent;
+    private static Method getEventType;
+    private static Method eventTypeEnabled;
+    private static Method eventBegin;
+    private static Method eventSet;
+    private static Method eventCommit;
+
+    static {
+        boolean available;
+        try {
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class, List.class);
+            nameAnnotation = Class.forName("jdk.jfr.Name");
+            labelAnnotation = Class.forName("jdk.jfr.Label");
+            descriptionAnnotation = Class.forName("jdk.jfr.Description");
+            categoryAnnotation = Class.forName("jdk.jfr.Category");
+            createFactory = eventFactory.getMethod("create", List.class, List.class);
+            newEvent = eventFactory.getMethod("newEvent");
+            getEventType = eventFactory.getMethod("getEventType");
+            eventTypeEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            eventBegin = event.getMethod("begin");
+            eventSet = event.getMethod("set", int.class, Object.class);
+            eventCommit = event.getMethod("commit");
+            available = (Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable").invoke(null);
+        } catch (Exception e) {
+            // running on a JVM older than Java 9, or without the jdk.jfr module
+            available = false;
+        }
+        AVAILABLE = available;
+    }
+
+    public static final HitEvent VALIDATE = new HitEvent("HitValidate", "Hit Validate",
+            "Validating the parameters of a hit",
+            String.class, "hitType", "Hit Type",
+            boolean.class, "valid", "Valid");
+
+    public static final HitEvent ENCODE = new HitEvent("HitEncode", "Hit Encode",
+            "Encoding the payload or the url of a hit",
+            String.class, "hitType", "Hit Type",
+            String.class, "method", "HTTP Method",
+            int.class, "payloadBytes", "Payload Bytes");
+
+    public static final HitEvent QUEUE = new HitEvent("HitQueue", "Hit Queue Wait",
+            "A request waiting in the send queue for a worker thread",
+            String.class, "hitType", "Hit Type",
+            int.class, "hits", "Hits",
+            int.class, "payloadBytes", "Payload Bytes",
+            String.class, "status", "Status");
+
+    public static final HitEvent SEND = new HitEvent("HitSend", "Hit Send",
+            "One attempt to send a request on the network, from the connection lease to the response",
+            String.class, "hitType", "Hit Type",
+            String.class, "method", "HTTP Method",
+            int.class, "payloadBytes", "Payload Bytes",
+            int.class, "statusCode", "Status Code",
+            String.class, "failure", "Failure");
+
+    private static final List<HitEvent> EVENTS = Collections.unmodifiableList(
+            Arrays.asList(VALIDATE, ENCODE, QUEUE, SEND));
+
+    static {
+        if (AVAILABLE) {
+            addRecorderListener();
+        }
+    }
+
+    private final String name;
+    private final Object factory;
+    private volatile boolean enabled;
+
+    /**
+     * @param fields The type, name and label of every field, in the order of the values passed to commit().
+     */
+    private HitEvent(String name, String label, String description, Object... fields) {
+        this.name = NAME_PREFIX + name;
+        this.factory = AVAILABLE ? createFactory(this.name, label, description, fields) : null;
+    }
+
+    /**
+     * @return True if the runtime supports the flight recorder and custom event types, i.e. Java 9 or later.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return True if the event type is recorded by a running recording.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing an event.
+     * @return The event to commit once the stage is done, or null if the event type is not recorded.
+     */
+    public Object begin() {
+        if (!enabled) return null;
+        try {
+            Object event = newEvent.invoke(factory);
+            eventBegin.invoke(event);
+            return event;
+        } catch (Exception e) {
+            log.log(Level.FINE, "Unable to begin the event " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * End the event and write it to the recording, if it passes the threshold of the recording.
+     * @param event The event returned by begin(), ignored if null.
+     * @param values The values of the fields of the event type, in order.
+     */
+    public void commit(Object event, Object... values) {
+        if (event == null) return;
+        try {
+            for (int i = 0; i < values.length; i++) {
+                eventSet.invoke(event, i, values[i]);
+            }
+            eventCommit.invoke(event);
+        } catch (Exception e) {
+            log.log(Level.FINE, "Unable to commit the event " + name, e);
+        }
+    }
+
+    /**
+     * @return The value of the hit type parameter of the request, "batch" for a batch of hits, or null if the payload
+     * has no hit type.
+     */
+    public static String hitType(TransportRequest request) {
+        String payload = request.isGet() ? request.getUri() : request.getBody();
+        if (payload == null) return null;
+        if (payload.indexOf('\n') >= 0) return "batch";
+
+        int start = 2;
+        if (!payload.startsWith("t=")) {
+            int param = payload.indexOf("&t=");
+            if (param < 0) param = payload.indexOf("?t=");
+            if (param < 0) return null;
+            start = param + 3;
+        }
+        int end = payload.indexOf('&', start);
+        return end < 0 ? payload.substring(start) : payload.substring(start, end);
+    }
+
+    /**
+     * @return The jdk.jfr.EventFactory of the event type, or null if the event type cannot be defined.
+     */
+    private static Object createFactory(String name, String label, String description, Object[] fields) {
+        try {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotationElement.newInstance(nameAnnotation, name));
+            annotations.add(annotationElement.newInstance(labelAnnotation, label));
+            annotations.add(annotationElement.newInstance(descriptionAnnotation, description));
+            annotations.add(annotationElement.newInstance(categoryAnnotation, CATEGORY));
+
+            List<Object> descriptors = new ArrayList<Object>();
+            for (int i = 0; i < fields.length; i += 3) {
+                List<Object> fieldLabel = Collections.singletonList(
+                        annotationElement.newInstance(labelAnnotation, fields[i + 2]));
+                descriptors.add(valueDescriptor.newInstance(fields[i], fields[i + 1], fieldLabel));
+            }
+            return createFactory.invoke(null, annotations, descriptors);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Unable to define the event " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Refresh the enabled flags whenever the recorder is initialized or a recording changes its state.
+     */
+    private static void addRecorderListener() {
+        try {
+            Class<?> listener = Class.forName("jdk.jfr.FlightRecorderListener");
+            Object proxy = Proxy.newProxyInstance(HitEvent.class.getClassLoader(), new Class<?>[]{listener},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getDeclaringClass() == Object.class) {
+                                if (method.getName().equals("equals")) return proxy == args[0];
+                                if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                                return "HitEvent.RecorderListener";
+                            }
+                            refreshEnabled();
+                            return null;
+                        }
+                    });
+            Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listener).invoke(null, proxy);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Unable to listen to the flight recorder, no hit events will be emitted", e);
+        }
+    }
+
+    private static void refreshEnabled() {
+        for (HitEvent event : EVENTS) {
+            boolean enabled = false;
+            if (event.factory != null) {
+                try {
+                    enabled = (Boolean) eventTypeEnabled.invoke(getEventType.invoke(event.factory));
+                } catch (Exception e) {
+                    log.log(Level.FINE, "Unable to read the settings of the event " + event.name, e);
+                }
+            }
+            event.enabled = enabled;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.akoscz.googleanalytics.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A thin wrapper around the JDK 11+ java.net.http.HttpClient configured for HTTP/2.
+ * All requests to the same origin are multiplexed as streams over a single TLS connection.
+ *
+ * The library targets Java 7, so the JDK client is accessed reflectively.  Use isAvailable() to check whether the
+ * running JVM provides it before creating an instance.
+ *
+ * Every request returns a Future which is a java.util.concurrent.CompletableFuture of the response status code.
+ * The Callback is invoked on one of the threads of the executor once the request completes.
+ */
+public class Http2Client {
+
+    public interface Callback {
+        void completed(int statusCode, String responseBody);
+        void failed(Throwable throwable);
+    }
+
+    private static final boolean AVAILABLE;
+
+    private static Method newClientBuilder;
+    private static Method clientBuilderVersion;
+    private static Method clientBuilderProxy;
+    private static Method clientBuilderAuthenticator;
+    private static Method clientBuilderExecutor;
+    private static Method clientBuilderBuild;
+    private static Object http2Version;
+    private static Method proxySelectorOf;
+
+    private static Method newRequestBuilder;
+    private static Method requestBuilderHeader;
+    private static Method requestBuilderPost;
+    private static Method requestBuilderGet;
+    private static Method requestBuilderBuild;
+    private static Method bodyPublisherOfByteArray;
+    private static Method bodyHandlerOfString;
+    private static Method bodyHandlerDiscarding;
+
+    private static Method sendAsync;
+    private static Method responseStatusCode;
+    private static Method responseBody;
+    private static Method completableFutureHandle;
+    private static Class<?> biFunctionClass;
+
+    static {
+        boolean available;
+        try {
+            Class<?> client = Class.forName("java.net.http.HttpClient");
+            Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+            Class<?> version = Class.forName("java.net.http.HttpClient$Version");
+            Class<?> request = Class.forName("java.net.http.HttpRequest");
+            Class<?> requestBuilder = Class.forName("java.net.http.HttpRequest$Builder");
+            Class<?> bodyPublisher = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+            Class<?> bodyPublishers = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+            Class<?> response = Class.forName("java.net.http.HttpResponse");
+            Class<?> bodyHandler = Class.forName("java.net.http.HttpResponse$BodyHandler");
+            Class<?> bodyHandlers = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+            Class<?> completableFuture = Class.forName("java.util.concurrent.CompletableFuture");
+            biFunctionClass = Class.forName("java.util.function.BiFunction");
+
+            newClientBuilder = client.getMethod("newBuilder");
+            clientBuilderVersion = clientBuilder.getMethod("version", version);
+            clientBuilderProxy = clientBuilder.getMethod("proxy", ProxySelector.class);
+            clientBuilderAuthenticator = clientBuilder.getMethod("authenticator", Authenticator.class);
+            clientBuilderExecutor = clientBuilder.getMethod("executor", Executor.class);
+            clientBuilderBuild = clientBuilder.getMethod("build");
+            http2Version = version.getField("HTTP_2").get(null);
+            proxySelectorOf = ProxySelector.class.getMethod("of", InetSocketAddress.class);
+
+            newRequestBuilder = request.getMethod("newBuilder", URI.class);
+            requestBuilderHeader = requestBuilder.getMethod("header", String.class, String.class);
+            requestBuilderPost = requestBuilder.getMethod("POST", bodyPublisher);
+            requestBuilderGet = requestBuilder.getMethod("GET");
+            requestBuilderBuild = requestBuilder.getMethod("build");
+            bodyPublisherOfByteArray = bodyPublishers.getMethod("ofByteArray", byte[].class);
+            bodyHandlerOfString = bodyHandlers.getMethod("ofString");
+            bodyHandlerDiscarding = bodyHandlers.getMethod("discarding");
+
+            sendAsync = client.getMethod("sendAsync", request, bodyHandler);
+            responseStatusCode = response.getMethod("statusCode");
+            responseBody = response.getMethod("body");
+            completableFutureHandle = completableFuture.getMethod("handle", biFunctionClass);
+            available = true;
+        } catch (Exception e) {
+            // running on a JVM older than Java 11
+            available = false;
+        }
+        AVAILABLE = available;
+    }
+
+    private final Object httpClient;
+    private final String userAgent;
+    /**
+     * The executor on which the responses are handled, shut down by the Http2Transport when it is closed.
+     */
+    @Getter
+    private final Executor executor;
+
+    /**
+     * @return True if the running JVM provides the java.net.http.HttpClient, False otherwise.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Create an HTTP/2 client.
+     * @param userAgent The User-Agent header value sent with every request.  Ignored if null or empty.
+     * @param proxyHost The proxy host.  No proxy is used if null or empty.
+     * @param proxyPort The proxy port.
+     * @param proxyUserName The proxy user name.  No proxy authentication is performed if null or empty.
+     * @param proxyPassword The proxy password.
+     * @param executor The executor on which the responses are handled.
+     */
+    public Http2Client(String userAgent, String proxyHost, int proxyPort, final String proxyUserName,
+                       final String proxyPassword, @NonNull Executor executor) {
+        if (!AVAILABLE) throw new UnsupportedOperationException("java.net.http.HttpClient requires Java 11 or later");
+
+        this.userAgent = userAgent;
+        this.executor = executor;
+        try {
+            Object builder = newClientBuilder.invoke(null);
+            clientBuilderVersion.invoke(builder, http2Version);
+            clientBuilderExecutor.invoke(builder, executor);
+
+            if (StringUtils.isNotEmpty(proxyHost)) {
+                clientBuilderProxy.invoke(builder, proxySelectorOf.invoke(null, new InetSocketAddress(proxyHost, proxyPort)));
+
+                if (StringUtils.isNotEmpty(proxyUserName)) {
+                    clientBuilderAuthenticator.invoke(builder, new Authenticator() {
+                        @Override
+                        protected PasswordAuthentication getPasswordAuthentication() {
+                            if (getRequestorType() != RequestorType.PROXY) return null;
+                            char[] password = proxyPassword == null ? new char[0] : proxyPassword.toCharArray();
+                            return new PasswordAuthentication(proxyUserName, password);
+                        }
+                    });
+                }
+            }
+
+            httpClient = clientBuilderBuild.invoke(builder);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create the HTTP/2 client", unwrap(e));
+        }
+    }
+
+    /**
+     * Send a POST request.
+     * @param uri The request URI.
+     * @param contentType The Content-Type of the body.
+     * @param body The encoded request body.
+     * @param readBody True to read the response body and pass it to the callback, False to discard it.
+     * @param callback Invoked when the request completes.
+     * @return A CompletableFuture of the response status code.
+     */
+    public Future<Integer> post(@NonNull String uri, @NonNull String contentType, @NonNull byte[] body,
+                                boolean readBody, @NonNull Callback callback) {
+        try {
+            Object builder = newRequestBuilder(uri);
+            requestBuilderHeader.invoke(builder, "Content-Type", contentType);
+            requestBuilderPost.invoke(builder, bodyPublisherOfByteArray.invoke(null, (Object) body));
+            return sendAsync(requestBuilderBuild.invoke(builder), readBody, callback);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to send the HTTP/2 request", unwrap(e));
+        }
+    }
+
+    /**
+     * Send a GET request.
+     * @param uri The request URI.
+     * @param readBody True to read the response body and pass it to the callback, False to discard it.
+     * @param callback Invoked when the request completes.
+     * @return A CompletableFuture of the response status code.
+     */
+    public Future<Integer> get(@NonNull String uri, boolean readBody, @NonNull Callback callback) {
+        try {
+            Object builder = newRequestBuilder(uri);
+            requestBuilderGet.invoke(builder);
+            return sendAsync(requestBuilderBuild.invoke(builder), readBody, callback);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to send the HTTP/2 request", unwrap(e));
+        }
+    }
+
+    private Object newRequestBuilder(String uri) throws Exception {
+        Object builder = newRequestBuilder.invoke(null, URI.create(uri));
+        if (StringUtils.isNotEmpty(userAgent)) {
+            requestBuilderHeader.invoke(builder, "User-Agent", userAgent);
+        }
+        return builder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Future<Integer> sendAsync(Object request, boolean readBody, final Callback callback) throws Exception {
+        Object bodyHandler = readBody ? bodyHandlerOfString.invoke(null) : bodyHandlerDiscarding.invoke(null);
+        Object responseFuture = sendAsync.invoke(httpClient, request, bodyHandler);
+
+        // responseFuture.handle((response, throwable) -> ...) returns the CompletableFuture of the status code
+        Object handler = Proxy.newProxyInstance(Http2Client.class.getClassLoader(), new Class<?>[]{biFunctionClass},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+                        return handle(args[0], (Throwable) args[1], callback);
+                    }
+                });
+        return (Future<Integer>) completableFutureHandle.invoke(responseFuture, handler);
+    }
+
+    private static Integer handle(Object response, Throwable throwable, Callback callback) {
+        if (throwable != null) {
+            callback.failed(throwable);
+            return null;
+        }
+
+        try {
+            int statusCode = (Integer) responseStatusCode.invoke(response);
+            Object body = responseBody.invoke(response);
+            callback.completed(statusCode, body instanceof String ? (String) body : null);
+            return statusCode;
+        } catch (Exception e) {
+            callback.failed(unwrap(e));
+            return null;
+        }
+    }
+
+    private static Throwable unwrap(Exception e) {
+        return e instanceof InvocationTargetException ? ((InvocationTargetException) e).getCause() : e;
+    }
+}
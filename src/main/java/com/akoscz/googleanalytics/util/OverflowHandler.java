@@ -0,0 +1,138 @@
+package com.akoscz.googleanalytics.util;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.OverflowPolicy;
+import lombok.NonNull;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides what happens to a hit when the send queue is full, according to the configured OverflowPolicy:
+ *  - DROP_NEWEST drops the hit being sent.
+ *  - DROP_OLDEST drops the hit which waited longest in the queue to make room for the hit being sent.
+ *  - BLOCK waits up to blockTimeoutMillis for room in the queue, then drops the hit being sent.
+ *  - SPILL writes the hit being sent to a secondary store, e.g. the spool, or drops it if it cannot be stored.
+ *
+ * No policy ever runs a task on the calling thread, so send() never performs network I/O on the caller's thread.
+ * Tasks rejected because the executor is shut down are dropped.
+ */
+public abstract class OverflowHandler implements RejectedExecutionHandler {
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    public static OverflowHandler create(@NonNull OverflowPolicy policy, long blockTimeoutMillis) {
+        switch (policy) {
+            case DROP_OLDEST:
+                return new DropOldest();
+            case BLOCK:
+                return new Block(blockTimeoutMillis);
+            case SPILL:
+                return new Spill();
+            default:
+                return new DropNewest();
+        }
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            drop(task);
+        } else {
+            overflow(task, executor);
+        }
+    }
+
+    /**
+     * @return The number of hits dropped because the queue was full or the executor was shut down.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of hits written to the secondary store because the queue was full.
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * @return The number of times a caller waited for room in the queue.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    protected abstract void overflow(Runnable task, ThreadPoolExecutor executor);
+
+    protected AtomicLong spilledCount() {
+        return spilledCount;
+    }
+
+    protected AtomicLong blockedCount() {
+        return blockedCount;
+    }
+
+    protected void drop(Runnable task) {
+        droppedCount.incrementAndGet();
+        if (task instanceof OverflowTask) {
+            ((OverflowTask) task).dropped();
+        }
+    }
+
+    private static class DropNewest extends OverflowHandler {
+        @Override
+        protected void overflow(Runnable task, ThreadPoolExecutor executor) {
+            drop(task);
+        }
+    }
+
+    private static class DropOldest extends OverflowHandler {
+        @Override
+        protected void overflow(Runnable task, ThreadPoolExecutor executor) {
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest != null) {
+                drop(oldest);
+            }
+            // racing callers may take the freed slot first, the task is then dropped rather than looping
+            if (!executor.getQueue().offer(task)) {
+                drop(task);
+            }
+        }
+    }
+
+    private static class Block extends OverflowHandler {
+        private final long timeoutMillis;
+
+        Block(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        protected void overflow(Runnable task, ThreadPoolExecutor executor) {
+            blockedCount().incrementAndGet();
+            try {
+                // the pool is at its maximum size, the running workers pick the task up from the queue
+                if (executor.getQueue().offer(task, timeoutMillis, TimeUnit.MILLISECONDS)) return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drop(task);
+        }
+    }
+
+    private static class Spill extends OverflowHandler {
+        @Override
+        protected void overflow(Runnable task, ThreadPoolExecutor executor) {
+            if (task instanceof OverflowTask && ((OverflowTask) task).spill()) {
+                spilledCount().incrementAndGet();
+            } else {
+                drop(task);
+            }
+        }
+    }
+}
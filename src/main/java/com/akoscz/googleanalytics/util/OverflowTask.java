@@ -0,0 +1,19 @@
+package com.akoscz.googleanalytics.util;
+
+/**
+ * A task which the OverflowHandler can drop or spill when the send queue is full.
+ * Plain Runnables handed to the executor are dropped silently.
+ */
+public interface OverflowTask extends Runnable {
+
+    /**
+     * Called instead of run() once the task was dropped, e.g. to complete the Future of the request.
+     */
+    void dropped();
+
+    /**
+     * Write the hits of the task to a secondary store instead of running it.
+     * @return True if the hits were stored, False if the task has to be dropped.
+     */
+    boolean spill();
+}
@@ -0,0 +1,338 @@
+package com.akoscz.googleanalytics.util;
+
+import lombok.NonNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer BlockingQueue backed by a preallocated ring buffer.
+ *
+ * Unlike a LinkedBlockingDeque it does not allocate a node per element and producers do not share a lock with each
+ * other or with the consumers: offer() and poll() claim a slot with a single CAS on the tail or head counter.  Every
+ * slot carries a sequence number which tells whether it is free for the producer of the current lap or filled for
+ * its consumer (see Dmitry Vyukov's bounded MPMC queue).
+ *
+ * Consumers which find the queue empty block on a lock, which producers only touch while a consumer is waiting.
+ * Producers which find the queue full in put() back off by parking, the executor never calls put().
+ *
+ * The capacity is rounded up to the next power of two.  remove(Object) and the remove() of the iterator, which the
+ * executor uses to withdraw and purge tasks, take an element from the middle of the queue by leaving an empty slot
+ * behind.  The consumer which reaches the empty slot skips it, until then it is not counted by size().
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final long PUT_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    // the removed elements whose empty slots no consumer has skipped yet
+    private final AtomicInteger removedCount = new AtomicInteger();
+
+    /**
+     * @param capacity The minimum capacity of the queue, rounded up to the next power of two.
+     */
+    public RingBufferBlockingQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.elements = new AtomicReferenceArray<E>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(@NonNull E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                // the slot is free for this lap
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // publish the element to the consumer of this lap
+                    sequences.set(index, position + 1);
+                    signalNotEmpty();
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the consumer of the previous lap has not taken the element yet
+                return false;
+            } else {
+                // another producer claimed the slot
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                // the slot is filled for this lap
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.getAndSet(index, null);
+                    // hand the slot to the producer of the next lap
+                    sequences.set(index, position + capacity);
+                    if (element != null) return element;
+                    // the element was removed, skip its slot
+                    removedCount.decrementAndGet();
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // empty, or the producer of this lap has not published its element yet
+                return null;
+            } else {
+                // another consumer took the element
+                position = head.get();
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long position = head.get();
+            E element = null;
+            // skip the empty slots of removed elements
+            for (long next = position; element == null; next++) {
+                int index = (int) next & mask;
+                if (sequences.get(index) != next + 1) break;
+                element = elements.get(index);
+            }
+            // the element is only valid if no consumer took it in the meantime
+            if (head.get() == position) return element;
+        }
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException {
+        while (!offer(element)) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            LockSupport.parkNanos(this, PUT_BACKOFF_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(element)) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            LockSupport.parkNanos(this, Math.min(remaining, PUT_BACKOFF_NANOS));
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E element = poll();
+        if (element != null) return element;
+
+        lock.lockInterruptibly();
+        waitingConsumers.incrementAndGet();
+        try {
+            // a producer publishing after this poll sees the waiting consumer and signals it
+            while ((element = poll()) == null) {
+                notEmpty.await();
+            }
+        } finally {
+            waitingConsumers.decrementAndGet();
+            lock.unlock();
+        }
+        signalIfNotEmpty();
+        return element;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = poll();
+        if (element != null) return element;
+
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        waitingConsumers.incrementAndGet();
+        try {
+            while ((element = poll()) == null) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            waitingConsumers.decrementAndGet();
+            lock.unlock();
+        }
+        signalIfNotEmpty();
+        return element;
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long before = head.get();
+            long size = tail.get() - before - removedCount.get();
+            if (head.get() == before) {
+                return (int) Math.max(0, Math.min(size, capacity));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Remove an element equal to the given one, leaving an empty slot behind.  Scans the queue, so it is slower than
+     * poll().
+     * @return True if an element was removed.
+     */
+    @Override
+    public boolean remove(Object object) {
+        return object != null && remove(object, false);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super E> collection, int maxElements) {
+        if (collection == this) throw new IllegalArgumentException("Cannot drain a queue to itself");
+
+        int drained = 0;
+        E element;
+        while (drained < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return A weakly consistent iterator over a snapshot of the queued elements.  Its remove() removes the last
+     * returned element from the queue, unless a consumer took it already.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>(size());
+        long end = tail.get();
+        for (long position = head.get(); position < end; position++) {
+            int index = (int) position & mask;
+            E element = elements.get(index);
+            if (element != null && sequences.get(index) == position + 1) {
+                snapshot.add(element);
+            }
+        }
+        final Iterator<E> iterator = snapshot.iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) throw new IllegalStateException();
+                RingBufferBlockingQueue.this.remove(last, true);
+                last = null;
+            }
+        };
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Empty the first filled slot holding the given element.  A consumer which claims the slot at the same time gets
+     * either the element or the empty slot, never both.
+     * @param identity True to match the element itself, False to match an equal element.
+     */
+    private boolean remove(Object object, boolean identity) {
+        long end = tail.get();
+        for (long position = head.get(); position < end; position++) {
+            int index = (int) position & mask;
+            E element = elements.get(index);
+            if (element != null && sequences.get(index) == position + 1
+                    && (identity ? element == object : object.equals(element))
+                    && elements.compareAndSet(index, element, null)) {
+                removedCount.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signalNotEmpty() {
+        // the hot path: while the consumers are busy producers never touch the lock
+        if (waitingConsumers.get() == 0) return;
+
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A consumer woken up by a single signal passes it on if more elements are waiting.
+     */
+    private void signalIfNotEmpty() {
+        if (!isEmpty()) {
+            signalNotEmpty();
+        }
+    }
+
+    /**
+     * Keeps the head and tail counters on separate cache lines, so producers and consumers do not invalidate each
+     * other's counter.
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedAtomicLong extends AtomicLong {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,74 @@
+package com.akoscz.googleanalytics.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadFactory creating the JDK 21+ virtual threads.  A virtual thread blocked on network I/O releases its carrier
+ * thread, so thousands of sends can wait for a response without pinning an OS thread and its stack each.
+ *
+ * The library targets Java 7, so the virtual thread builder is accessed reflectively.  Use isAvailable() to check
+ * whether the running JVM provides virtual threads before creating an instance.
+ *
+ * Virtual threads are always daemon threads with normal priority.
+ */
+public class VirtualThreadFactory implements ThreadFactory {
+
+    private static final boolean AVAILABLE;
+
+    private static Method ofVirtual;
+    private static Method builderFactory;
+
+    static {
+        boolean available;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderFactory = builder.getMethod("factory");
+            available = true;
+        } catch (Exception e) {
+            // running on a JVM older than Java 21
+            available = false;
+        }
+        AVAILABLE = available;
+    }
+
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+    private final ThreadFactory factory;
+    private final String threadNameFormat;
+
+    /**
+     * @param threadNameFormat The MessageFormat of the thread names, {0} is replaced by the number of the thread.
+     * @throws IllegalStateException if the running JVM does not provide virtual threads.
+     */
+    public VirtualThreadFactory(String threadNameFormat) {
+        if (!AVAILABLE) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later");
+        }
+        this.threadNameFormat = threadNameFormat;
+        try {
+            factory = (ThreadFactory) builderFactory.invoke(ofVirtual.invoke(null));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create the virtual thread factory", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create the virtual thread factory", e.getCause());
+        }
+    }
+
+    /**
+     * @return True if the running JVM provides virtual threads.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = factory.newThread(r);
+        thread.setName(MessageFormat.format(threadNameFormat, threadNumber.getAndIncrement()));
+        return thread;
+    }
+}
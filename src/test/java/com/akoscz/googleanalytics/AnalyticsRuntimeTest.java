@@ -0,0 +1,294 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.RecordingTransport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AnalyticsRuntimeTest {
+
+    private GoogleAnalyticsConfig config;
+    private AnalyticsRuntime runtime;
+
+    @Before
+    public void beforeTest() {
+        config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        runtime = new AnalyticsRuntime(config);
+    }
+
+    @After
+    public void afterTest() {
+        runtime.close();
+    }
+
+    private TransportRequest request(int i) {
+        return TransportRequest.post(config.getEndpoint(), "text/plain", "v=1&t=pageview&dp=%2F" + i, false);
+    }
+
+    private RecordingTransport recordingTransport() {
+        return (RecordingTransport) ForwardingTransport.unwrap(runtime.getTransport());
+    }
+
+    @Test
+    public void testStart() {
+        assertFalse(runtime.isRunning());
+        assertSame(runtime, runtime.start());
+        assertTrue(runtime.isRunning());
+        assertEquals(config.getMinThreads(), runtime.getExecutor().getPoolSize());
+
+        // starting again does nothing
+        runtime.start();
+        assertEquals(config.getMinThreads(), runtime.getExecutor().getPoolSize());
+    }
+
+    @Test
+    public void testSend_SharesExecutorAndTransport() {
+        runtime.start();
+        for (int i = 0; i < 10; i++) {
+            runtime.send(request(i), true);
+        }
+        runtime.send(request(10), false);
+
+        // close sends the queued hits before releasing the executor and the transport
+        runtime.close();
+        assertEquals(11, recordingTransport().getRequestCount());
+        assertTrue(runtime.getExecutor().isTerminated());
+    }
+
+    @Test
+    public void testSend_AfterCloseIsDropped() {
+        runtime.start();
+        runtime.close();
+        assertFalse(runtime.isRunning());
+
+        runtime.send(request(0), true);
+        assertEquals(0, recordingTransport().getRequestCount());
+        assertEquals(1, runtime.getGraph().overflowHandler().getDroppedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStart_AfterClose() {
+        runtime.close();
+        runtime.start();
+    }
+
+    @Test
+    public void testFlush() {
+        config.setRecordingLatencyMillis(20);
+        runtime.start();
+        for (int i = 0; i < 10; i++) {
+            runtime.send(request(i), true);
+        }
+
+        ShutdownReport report = runtime.flush(5, TimeUnit.SECONDS);
+        assertTrue(report.isDrained());
+        assertEquals(10, report.getDelivered());
+        assertEquals(0, report.getAbandoned());
+        assertEquals(0, runtime.pendingHits());
+        assertEquals(10, recordingTransport().getRequestCount());
+
+        // the runtime keeps running with its original pool size
+        assertTrue(runtime.isRunning());
+        assertEquals(config.getMinThreads(), runtime.getExecutor().getCorePoolSize());
+    }
+
+    @Test
+    public void testShutdown_Drained() {
+        // the hits are still queued or in flight when shutdown starts
+        config.setRecordingLatencyMillis(50);
+        runtime.start();
+        runtime.send(TransportRequest.post(config.getBatchEndpoint(), HitBatch.CONTENT_TYPE,
+                "v=1&t=pageview&dp=%2F1\nv=1&t=pageview&dp=%2F2", false), true);
+        runtime.send(request(3), true);
+
+        ShutdownReport report = runtime.shutdown(5, TimeUnit.SECONDS);
+        assertTrue(report.isDrained());
+        assertEquals(3, report.getDelivered());
+        assertEquals(0, report.getFailed());
+        assertFalse(runtime.isRunning());
+
+        // shutting down again does nothing
+        assertEquals(new ShutdownReport(0, 0, 0, 0, true), runtime.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdown_DeadlineAbandonsQueuedHits() {
+        config.setMinThreads(1);
+        config.setMaxThreads(1);
+        config.setRecordingLatencyMillis(500);
+        runtime.start();
+        for (int i = 0; i < 5; i++) {
+            runtime.send(request(i), true);
+        }
+
+        ShutdownReport report = runtime.shutdown(50, TimeUnit.MILLISECONDS);
+        assertFalse(report.isDrained());
+        assertEquals(0, report.getDelivered());
+        assertEquals(0, report.getSpooled());
+        // four queued hits and the one in flight
+        assertEquals(5, report.getAbandoned());
+    }
+
+    @Test
+    public void testShutdown_DeadlineSpoolsQueuedHits() throws Exception {
+        File directory = Files.createTempDirectory("spool").toFile();
+        config.setSpoolDirectory(directory.getAbsolutePath());
+        config.setSpoolReplayIntervalMillis(0);
+        config.setMinThreads(1);
+        config.setMaxThreads(1);
+        config.setRecordingLatencyMillis(500);
+        runtime.start();
+        for (int i = 0; i < 5; i++) {
+            runtime.send(request(i), true);
+        }
+
+        ShutdownReport report = runtime.shutdown(50, TimeUnit.MILLISECONDS);
+        assertFalse(report.isDrained());
+        assertEquals(4, report.getSpooled());
+        assertEquals(1, report.getAbandoned());
+    }
+
+    /**
+     * @return A started server answering every request to /collect after 50 ms with the next status code, the last
+     * one repeats.
+     */
+    private HttpServer startServer(final AtomicInteger requestCount, final int... statusCodes) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int request = requestCount.getAndIncrement();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(statusCodes[Math.min(request, statusCodes.length - 1)], -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.BLOCKING);
+        config.setEndpoint("http://localhost:" + server.getAddress().getPort() + "/collect");
+        return server;
+    }
+
+    @Test
+    public void testShutdown_DrainsPendingRetries() throws Exception {
+        // the first request is answered with 503, the retry with 200
+        AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = startServer(requestCount, 503, 200);
+        try {
+            config.setRetryBaseDelayMillis(500);
+            runtime = new AnalyticsRuntime(config).start();
+            runtime.send(request(0), true);
+            while (requestCount.get() == 0) {
+                Thread.sleep(1);
+            }
+
+            // the retry is waiting for its backoff when shutdown starts
+            ShutdownReport report = runtime.shutdown(5, TimeUnit.SECONDS);
+            assertTrue(report.isDrained());
+            assertEquals(1, report.getDelivered());
+            assertEquals(0, report.getFailed());
+            assertEquals(0, report.getAbandoned());
+            assertEquals(2, requestCount.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testShutdown_SpooledHitsAreNotFailed() throws Exception {
+        AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = startServer(requestCount, 503);
+        try {
+            config.setSpoolDirectory(Files.createTempDirectory("spool").toFile().getAbsolutePath());
+            config.setSpoolReplayIntervalMillis(0);
+            config.setMaxRetries(0);
+            runtime = new AnalyticsRuntime(config).start();
+            runtime.send(request(0), true);
+            Future<SendResult> result = runtime.sendAsync(request(1), null);
+
+            // both hits are spooled while shutting down, and counted once
+            ShutdownReport report = runtime.shutdown(5, TimeUnit.SECONDS);
+            assertTrue(report.isDrained());
+            assertEquals(0, report.getDelivered());
+            assertEquals(0, report.getFailed());
+            assertEquals(2, report.getSpooled());
+            assertEquals(0, report.getAbandoned());
+
+            assertTrue(result.get(5, TimeUnit.SECONDS).isSpooled());
+            assertEquals(0, result.get().getStatusCode());
+            assertNull(result.get().getFailure());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCountHits() {
+        assertEquals(1, AnalyticsRuntime.countHits(TransportRequest.get(config.getEndpoint() + "?v=1", false)));
+        assertEquals(1, AnalyticsRuntime.countHits(request(0)));
+        assertEquals(2, AnalyticsRuntime.countHits(
+                TransportRequest.post(config.getBatchEndpoint(), HitBatch.CONTENT_TYPE, "v=1\nv=1", false)));
+    }
+
+    @Test
+    public void testSendAsync() throws Exception {
+        config.setRecordingLatencyMillis(20);
+        runtime.start();
+
+        final AtomicReference<SendResult> notified = new AtomicReference<SendResult>();
+        final CountDownLatch callbackDone = new CountDownLatch(1);
+        SendResult result = runtime.sendAsync(request(0), new SendCallback() {
+            @Override
+            public void completed(SendResult result) {
+                notified.set(result);
+                callbackDone.countDown();
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isDelivered());
+        assertEquals(200, result.getStatusCode());
+        assertTrue(result.getLatencyMillis() >= 20);
+        assertEquals(0, result.getRetries());
+        assertFalse(result.isSpooled());
+        assertNull(result.getFailure());
+        // the Future wakes up get() before it calls the callback
+        assertTrue(callbackDone.await(5, TimeUnit.SECONDS));
+        assertSame(result, notified.get());
+    }
+
+    @Test
+    public void testSendAsync_AfterCloseIsDropped() throws Exception {
+        runtime.start();
+        runtime.close();
+
+        SendResult result = runtime.sendAsync(request(0), null).get(5, TimeUnit.SECONDS);
+        assertFalse(result.isDelivered());
+        assertEquals(0, result.getStatusCode());
+        assertTrue(result.getFailure() instanceof RejectedExecutionException);
+        assertEquals(0, runtime.pendingHits());
+    }
+}
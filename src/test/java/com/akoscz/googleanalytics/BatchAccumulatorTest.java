@@ -0,0 +1,116 @@
+package com.akoscz.googleanalytics;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchAccumulatorTest {
+
+    private GoogleAnalyticsConfig config;
+    private BatchAccumulator accumulator;
+    private final List<HitBatch> sentBatches = new CopyOnWriteArrayList<HitBatch>();
+    private CountDownLatch sentLatch = new CountDownLatch(1);
+
+    @Before
+    public void beforeTest() {
+        config = new GoogleAnalyticsConfig();
+        config.setAutoBatching(true);
+        config.setBatchMaxHits(5);
+        // long enough that it never kicks in unless a test wants it to
+        config.setBatchLingerMillis(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    @After
+    public void afterTest() {
+        if (accumulator != null) accumulator.close();
+    }
+
+    private BatchAccumulator createAccumulator() {
+        accumulator = new BatchAccumulator(config, new BatchAccumulator.Sender() {
+            @Override
+            public void sendBatch(HitBatch batch) {
+                sentBatches.add(batch);
+                sentLatch.countDown();
+            }
+        });
+        return accumulator;
+    }
+
+    @Test
+    public void testFlush_Size() {
+        createAccumulator();
+        for (int i = 0; i < 12; i++) {
+            accumulator.add("v=1&t=event&ev=" + i);
+        }
+
+        assertEquals(2, sentBatches.size());
+        assertEquals(5, sentBatches.get(0).size());
+        assertEquals("v=1&t=event&ev=5", sentBatches.get(1).getPayloads().get(0));
+        assertEquals(2, accumulator.getFlushCount(BatchAccumulator.FlushReason.SIZE));
+
+        accumulator.flush();
+        assertEquals(3, sentBatches.size());
+        assertEquals(2, sentBatches.get(2).size());
+        assertEquals(1, accumulator.getFlushCount(BatchAccumulator.FlushReason.MANUAL));
+
+        long[] histogram = accumulator.getBatchSizeHistogram();
+        assertEquals(2, histogram[5]);
+        assertEquals(1, histogram[2]);
+        assertEquals(12, accumulator.getFlushedHitCount());
+        assertEquals(3, accumulator.getFlushedBatchCount());
+    }
+
+    @Test
+    public void testFlush_Bytes() {
+        config.setBatchMaxBytes(HitBatch.MAX_HIT_BYTES);
+        createAccumulator();
+
+        String payload = StringUtils.repeat("f", HitBatch.MAX_HIT_BYTES / 2);
+        accumulator.add(payload);
+        accumulator.add(payload);
+
+        assertEquals(1, sentBatches.size());
+        assertEquals(1, sentBatches.get(0).size());
+        assertEquals(1, accumulator.getFlushCount(BatchAccumulator.FlushReason.BYTES));
+    }
+
+    @Test
+    public void testFlush_Linger() throws InterruptedException {
+        config.setBatchLingerMillis(50);
+        createAccumulator();
+
+        accumulator.add("v=1&t=pageview");
+        assertTrue("batch was not flushed after the linger time", sentLatch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, sentBatches.size());
+        assertEquals(1, accumulator.getFlushCount(BatchAccumulator.FlushReason.LINGER));
+    }
+
+    @Test
+    public void testFlush_Empty() {
+        createAccumulator();
+        accumulator.flush();
+        assertTrue(sentBatches.isEmpty());
+        assertEquals(0, accumulator.getFlushedBatchCount());
+    }
+
+    @Test
+    public void testAdd_Closed() {
+        createAccumulator();
+        assertTrue(accumulator.add("v=1&t=pageview"));
+        accumulator.close();
+        assertEquals(1, sentBatches.size());
+
+        assertFalse(accumulator.add("v=1&t=pageview"));
+        accumulator.flush();
+        assertEquals(1, sentBatches.size());
+    }
+}
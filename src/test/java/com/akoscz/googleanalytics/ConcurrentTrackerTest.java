@@ -0,0 +1,230 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.RecordingTransport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentTrackerTest {
+
+    private final UUID clientId = UUID.randomUUID();
+    private GoogleAnalyticsConfig config;
+    private ConcurrentTracker tracker;
+
+    @Before
+    public void beforeTest() {
+        config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        tracker = GoogleAnalytics.buildConcurrentTracker("UA-12345-123", clientId, "Test Application", config)
+                .applicationVersion("1.0")
+                .build();
+    }
+
+    @After
+    public void afterTest() {
+        tracker.shutdown(1, TimeUnit.SECONDS);
+        GoogleAnalytics.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    private RecordingTransport transport() {
+        return (RecordingTransport) ForwardingTransport.unwrap(tracker.getRuntime().getTransport());
+    }
+
+    @Test
+    public void testBuildPayload() {
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&an=Test+Application&av=1.0&t=pageview",
+                tracker.buildPayload(Hit.pageview().build()));
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&an=Test+Application&av=1.0&uid=user+1&ec=Video"
+                + "&ea=play&el=trailer&ev=42&t=event",
+                tracker.buildPayload(Hit.event("Video", "play").userId("user 1").label("trailer").value(42).build()));
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&an=Test+Application&av=1.0&t=exception"
+                + "&exd=NullPointerException&exf=0",
+                tracker.buildPayload(Hit.exception("NullPointerException", false).build()));
+    }
+
+    @Test
+    public void testBuild_ValidatesSettings() {
+        try {
+            GoogleAnalytics.buildConcurrentTracker("UA-12345", clientId, "Test Application", config).build();
+            fail("Expected the malformed trackingId to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Malformed trackingId: 'UA-12345'.  Expected: 'UA-[0-9]+-[0-9]+'", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testHit_ValidatesRequiredParams() {
+        try {
+            Hit.event("Video", null).build();
+            fail("Expected the missing action to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("event 'action' cannot be null or empty when HitType.event is specified!", e.getMessage());
+        }
+        try {
+            Hit.screenview("").build();
+            fail("Expected the empty screenName to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("'screenName' cannot be null or empty when HitType.screenview is specified!", e.getMessage());
+        }
+        try {
+            Hit.builder().build();
+            fail("Expected the missing type to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Missing HitType. 'type' cannot be null!", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSend_LeavesGlobalTrackerAlone() {
+        GoogleAnalytics.Tracker globalTracker = GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config)
+                .category("Global").label("kept");
+        tracker.send(Hit.event("Video", "play").label("trailer").build(), false);
+
+        GoogleAnalytics hit = globalTracker.build();
+        assertEquals("Global", hit.getCategory());
+        assertEquals("kept", hit.getLabel());
+        assertEquals(1, transport().getRequestCount());
+        assertTrue(transport().getRequests().get(0).getBody().endsWith("&el=trailer&t=event"));
+    }
+
+    @Test
+    public void testBuild_SharesRunningRuntimeOfSameConfig() {
+        GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config);
+        AnalyticsRuntime runtime = GoogleAnalytics.getRuntime();
+
+        ConcurrentTracker shared = GoogleAnalytics.buildConcurrentTracker("UA-12345-123", clientId, "Test Application",
+                config).build();
+        assertSame(runtime, shared.getRuntime());
+        // without a config the tracker uses the config of the running runtime
+        ConcurrentTracker defaulted = GoogleAnalytics.buildConcurrentTracker("UA-12345-123", clientId,
+                "Test Application", null).build();
+        assertSame(config, defaulted.getConfig());
+        assertSame(runtime, defaulted.getRuntime());
+    }
+
+    @Test
+    public void testBuild_OtherConfigOwnsRuntime() {
+        GoogleAnalyticsConfig globalConfig = new GoogleAnalyticsConfig();
+        globalConfig.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        GoogleAnalytics.Tracker globalTracker = GoogleAnalytics.buildTracker("UA-12345-123", clientId,
+                "Test Application", globalConfig);
+        AnalyticsRuntime globalRuntime = GoogleAnalytics.getRuntime();
+
+        ConcurrentTracker other = GoogleAnalytics.buildConcurrentTracker("UA-12345-123", clientId, "Test Application",
+                config).build();
+        try {
+            other.send(Hit.pageview().build(), false);
+            globalTracker.type(GoogleAnalytics.HitType.pageview).build().send(false);
+
+            // neither tracker closed or replaced the runtime of the other
+            assertNotSame(globalRuntime, other.getRuntime());
+            assertSame(globalRuntime, GoogleAnalytics.getRuntime());
+            assertTrue(globalRuntime.isRunning());
+            assertTrue(other.getRuntime().isRunning());
+            assertEquals(1, ((RecordingTransport) ForwardingTransport.unwrap(other.getRuntime().getTransport()))
+                    .getRequestCount());
+            assertEquals(1, ((RecordingTransport) ForwardingTransport.unwrap(globalRuntime.getTransport()))
+                    .getRequestCount());
+        } finally {
+            other.shutdown(1, TimeUnit.SECONDS);
+        }
+        assertTrue(globalRuntime.isRunning());
+    }
+
+    @Test
+    public void testGetRuntime_FollowsRebuiltGlobalRuntime() {
+        GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config);
+        AnalyticsRuntime closed = GoogleAnalytics.getRuntime();
+        assertSame(closed, tracker.getRuntime());
+        GoogleAnalytics.shutdown(1, TimeUnit.SECONDS);
+
+        GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config);
+        AnalyticsRuntime rebuilt = GoogleAnalytics.getRuntime();
+        assertNotSame(closed, rebuilt);
+        assertSame(rebuilt, tracker.getRuntime());
+
+        tracker.send(Hit.pageview().build(), false);
+        assertEquals(1, ((RecordingTransport) ForwardingTransport.unwrap(rebuilt.getTransport())).getRequestCount());
+    }
+
+    @Test
+    public void testGetRuntime_BuiltBeforeGlobalRuntime() {
+        tracker.send(Hit.pageview().build(), false);
+        AnalyticsRuntime own = tracker.getRuntime();
+        assertEquals(1, transport().getRequestCount());
+
+        // the global runtime takes over, and the runtime of the tracker is closed instead of running alongside it
+        GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config);
+        AnalyticsRuntime global = GoogleAnalytics.getRuntime();
+        assertNotSame(own, global);
+        assertSame(global, tracker.getRuntime());
+        assertFalse(own.isRunning());
+
+        tracker.send(Hit.pageview().build(), false);
+        assertEquals(1, ((RecordingTransport) ForwardingTransport.unwrap(global.getTransport())).getRequestCount());
+    }
+
+    @Test
+    public void testSend_ConcurrentProducers() throws Exception {
+        final int producers = 8;
+        final int hitsPerProducer = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < hitsPerProducer; i++) {
+                            tracker.send(Hit.event("producer" + producer, "hit").label(String.valueOf(i)).build());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(tracker.flush(10, TimeUnit.SECONDS).isDrained());
+
+        // every hit arrived with its own fields
+        Set<String> bodies = new HashSet<String>();
+        for (TransportRequest request : transport().getRequests()) {
+            bodies.add(request.getBody());
+        }
+        assertEquals(producers * hitsPerProducer, bodies.size());
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < hitsPerProducer; i++) {
+                assertTrue(bodies.contains("v=1&tid=UA-12345-123&cid=" + clientId + "&an=Test+Application&av=1.0"
+                        + "&ec=producer" + p + "&ea=hit&el=" + i + "&t=event"));
+            }
+        }
+    }
+
+    @Test
+    public void testSendAll_Batch() {
+        tracker.sendAll(Arrays.asList(Hit.pageview().build(), Hit.screenview("Home").build()), false);
+
+        assertEquals(1, transport().getRequestCount());
+        TransportRequest request = transport().getRequests().get(0);
+        assertEquals(config.getBatchEndpoint(), request.getUri());
+        assertEquals(tracker.buildPayload(Hit.pageview().build()) + "\n"
+                + tracker.buildPayload(Hit.screenview("Home").build()), request.getBody());
+    }
+}
@@ -1,6 +1,12 @@
 package com.akoscz.googleanalytics;
 
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.RecordingTransport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
 import com.akoscz.googleanalytics.util.UserAgent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.NameValuePair;
 import org.junit.Before;
@@ -8,7 +14,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -16,6 +24,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -993,6 +1003,122 @@ public class GoogleAnalyticsTest {
         tracker.dataSource(fluff).build().buildPostParams();
     }
 
+    @Test
+    public void testBuildPayload() {
+        String payload = tracker.build().buildPayload();
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&t=pageview&an=Test+Application", payload);
+    }
+
+    @Test
+    public void testSend_RecordingTransport() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        GoogleAnalytics.Tracker recordingTracker = GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config)
+                .type(GoogleAnalytics.HitType.pageview);
+
+        recordingTracker.build().send(false);
+
+        RecordingTransport transport = (RecordingTransport) ForwardingTransport.unwrap(GoogleAnalytics.getGraph().transport());
+        assertEquals(1, transport.getRequestCount());
+        TransportRequest request = transport.getRequests().get(0);
+        assertEquals(config.getEndpoint(), request.getUri());
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&t=pageview&an=Test+Application", request.getBody());
+    }
+
+    @Test
+    public void testSend_AutoBatchAfterAccumulatorClosedIsDropped() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        config.setAutoBatching(true);
+        GoogleAnalytics.Tracker batchingTracker = GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config)
+                .type(GoogleAnalytics.HitType.pageview);
+
+        // a shutdown closes the accumulator while the hit is being sent
+        GoogleAnalytics.getRuntime().getBatchAccumulator().close();
+        batchingTracker.build().send(true);
+
+        assertEquals(1, GoogleAnalytics.getRuntime().getMetrics().getHitsDropped());
+        RecordingTransport transport = (RecordingTransport) ForwardingTransport.unwrap(GoogleAnalytics.getGraph().transport());
+        assertEquals(0, transport.getRequestCount());
+    }
+
+    @Test
+    public void testSend_AsyncGetDoesNotWaitForResponse() throws Exception {
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch respond = new CountDownLatch(1);
+        final CountDownLatch responded = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requested.countDown();
+                try {
+                    respond.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                responded.countDown();
+            }
+        });
+        server.start();
+        try {
+            GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+            config.setHttpMethod(GoogleAnalyticsConfig.HttpMethod.GET);
+            config.setTransportType(GoogleAnalyticsConfig.TransportType.NIO);
+            config.setEndpoint("http://localhost:" + server.getAddress().getPort() + "/collect");
+            GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config)
+                    .type(GoogleAnalytics.HitType.pageview).build().send(true);
+
+            // send() returned before the server responded
+            assertEquals(1, responded.getCount());
+            assertTrue(requested.await(5, TimeUnit.SECONDS));
+            respond.countDown();
+
+            ShutdownReport report = GoogleAnalytics.flush(5, TimeUnit.SECONDS);
+            assertTrue(report.isDrained());
+            assertEquals(1, GoogleAnalytics.getRuntime().getMetrics().getHitsSent());
+        } finally {
+            respond.countDown();
+            GoogleAnalytics.shutdown(5, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConnectionPoolStats() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setPoolMaxTotal(42);
+        GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config);
+        assertEquals(42, GoogleAnalytics.getConnectionPoolStats().getMax());
+
+        // the recording transport does not pool connections
+        config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config);
+        assertNull(GoogleAnalytics.getConnectionPoolStats());
+    }
+
+    @Test
+    public void testBuildTracker_SharesRuntime() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config);
+        AnalyticsRuntime runtime = GoogleAnalytics.getRuntime();
+        assertTrue(runtime.isRunning());
+
+        // the same config keeps the running runtime
+        GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, config);
+        assertSame(runtime, GoogleAnalytics.getRuntime());
+
+        // another config starts a new runtime and closes the previous one
+        GoogleAnalytics.buildTracker(trackingId, clientId, applicationName, new GoogleAnalyticsConfig());
+        assertNotSame(runtime, GoogleAnalytics.getRuntime());
+        assertFalse(runtime.isRunning());
+        assertTrue(runtime.getExecutor().isShutdown());
+    }
+
     @Test
     public void testNetworkToLocanhost() {
         // TODO: inject a mock httpClient
@@ -0,0 +1,105 @@
+package com.akoscz.googleanalytics;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HitBatchTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testToBody() {
+        HitBatch batch = new HitBatch();
+        assertTrue(batch.add("v=1&t=pageview"));
+        assertTrue(batch.add("v=1&t=event"));
+
+        assertEquals(2, batch.size());
+        assertEquals("v=1&t=pageview\nv=1&t=event", batch.toBody());
+        // the separator counts towards the total size of the batch
+        assertEquals(batch.toBody().length(), batch.getByteCount());
+    }
+
+    @Test
+    public void testAdd_MaxHits() {
+        HitBatch batch = new HitBatch();
+        for (int i = 0; i < HitBatch.MAX_HITS; i++) {
+            assertTrue(batch.add("v=1&t=pageview"));
+        }
+        assertFalse(batch.add("v=1&t=pageview"));
+        assertEquals(HitBatch.MAX_HITS, batch.size());
+    }
+
+    @Test
+    public void testAdd_MaxBytes() {
+        String payload = StringUtils.repeat("f", HitBatch.MAX_HIT_BYTES);
+        HitBatch batch = new HitBatch();
+        assertTrue(batch.add(payload));
+        // the second payload plus the separator would exceed 16K bytes
+        assertFalse(batch.add(payload));
+        assertTrue(batch.add(StringUtils.repeat("f", HitBatch.MAX_BYTES - HitBatch.MAX_HIT_BYTES - 1)));
+        assertEquals(HitBatch.MAX_BYTES, batch.getByteCount());
+    }
+
+    @Test
+    public void testAdd_MaxHitBytes() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Hit payload must not exceed 8192 bytes!");
+        new HitBatch().add(StringUtils.repeat("f", HitBatch.MAX_HIT_BYTES + 1));
+    }
+
+    @Test
+    public void testConstructor_MaxBytesBelowHitLimit() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxBytes must be between 8192 and 16384: 4096");
+        new HitBatch(HitBatch.MAX_HITS, 4096);
+    }
+
+    @Test
+    public void testConfig_RejectsOutOfRangeLimits() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        try {
+            config.setBatchMaxBytes(HitBatch.MAX_HIT_BYTES - 1);
+            fail("Expected a batchMaxBytes below the hit limit to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("batchMaxBytes must be between 8192 and 16384: 8191", e.getMessage());
+        }
+        try {
+            config.setBatchMaxHits(HitBatch.MAX_HITS + 1);
+            fail("Expected a batchMaxHits above the protocol limit to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("batchMaxHits must be between 1 and 20: 21", e.getMessage());
+        }
+        assertEquals(HitBatch.MAX_BYTES, config.getBatchMaxBytes());
+        assertEquals(HitBatch.MAX_HITS, config.getBatchMaxHits());
+    }
+
+    @Test
+    public void testPack() {
+        List<String> payloads = new ArrayList<String>();
+        for (int i = 0; i < 45; i++) {
+            payloads.add("v=1&t=event&ev=" + i);
+        }
+
+        List<HitBatch> batches = HitBatch.pack(payloads);
+        assertEquals(3, batches.size());
+        assertEquals(20, batches.get(0).size());
+        assertEquals(20, batches.get(1).size());
+        assertEquals(5, batches.get(2).size());
+
+        // ensure the order of the hits is retained
+        assertEquals("v=1&t=event&ev=0", batches.get(0).getPayloads().get(0));
+        assertEquals("v=1&t=event&ev=44", batches.get(2).getPayloads().get(4));
+    }
+
+    @Test
+    public void testPack_Empty() {
+        assertTrue(HitBatch.pack(new ArrayList<String>()).isEmpty());
+    }
+}
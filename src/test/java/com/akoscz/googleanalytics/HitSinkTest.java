@@ -0,0 +1,204 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.RecordingTransport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class HitSinkTest {
+
+    private GoogleAnalytics.Tracker tracker;
+
+    @Before
+    public void beforeTest() {
+        buildTracker(0, 0);
+    }
+
+    /**
+     * Build the tracker with a new runtime.
+     * @param threads The number of worker threads, zero for the default.
+     * @param latencyMillis The latency of every request.
+     */
+    private void buildTracker(int threads, long latencyMillis) {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        config.setRecordingLatencyMillis(latencyMillis);
+        if (threads > 0) {
+            config.setMinThreads(threads);
+            config.setMaxThreads(threads);
+        }
+        tracker = GoogleAnalytics.buildTracker("UA-12345-123", UUID.randomUUID(), "Test Application", config);
+    }
+
+    private GoogleAnalytics hit() {
+        // sending a hit resets the type of the tracker
+        return tracker.type(GoogleAnalytics.HitType.pageview).build();
+    }
+
+    private static class RecordingSubscription implements HitSink.Subscription {
+        final AtomicLong requested = new AtomicLong();
+        final AtomicInteger cancelled = new AtomicInteger();
+
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.incrementAndGet();
+        }
+    }
+
+    private static void awaitCompleted(HitSink sink, long hits) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sink.getDeliveredCount() + sink.getFailedCount() < hits && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testOnSubscribe_RequestsMaxInFlight() {
+        HitSink sink = new HitSink(8);
+        RecordingSubscription subscription = new RecordingSubscription();
+        sink.onSubscribe(subscription);
+        assertEquals(8, subscription.requested.get());
+
+        // a sink is only subscribed once
+        RecordingSubscription second = new RecordingSubscription();
+        sink.onSubscribe(second);
+        assertEquals(0, second.requested.get());
+        assertEquals(1, second.cancelled.get());
+    }
+
+    @Test
+    public void testOnNext_RequestsOneHitPerCompletedHit() throws Exception {
+        HitSink sink = new HitSink(4);
+        RecordingSubscription subscription = new RecordingSubscription();
+        sink.onSubscribe(subscription);
+
+        for (int i = 0; i < 4; i++) {
+            sink.onNext(hit());
+        }
+        awaitCompleted(sink, 4);
+
+        assertEquals(4, sink.getSentCount());
+        assertEquals(4, sink.getDeliveredCount());
+        assertEquals(0, sink.getFailedCount());
+        assertEquals(8, subscription.requested.get());
+
+        // no more hits are sent once the publisher completed
+        sink.onComplete();
+        sink.onNext(hit());
+        assertEquals(4, sink.getSentCount());
+        assertEquals(8, subscription.requested.get());
+    }
+
+    @Test
+    public void testOnNext_SignalsDemandSerially() throws Exception {
+        // the hits complete concurrently on 8 worker threads
+        buildTracker(8, 1);
+
+        final AtomicInteger requesting = new AtomicInteger();
+        final AtomicInteger overlapping = new AtomicInteger();
+        RecordingSubscription subscription = new RecordingSubscription() {
+            @Override
+            public void request(long n) {
+                if (requesting.incrementAndGet() > 1) {
+                    overlapping.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.request(n);
+                requesting.decrementAndGet();
+            }
+        };
+        HitSink sink = new HitSink(16);
+        sink.onSubscribe(subscription);
+
+        // publish as the demand arrives
+        int hits = 400;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (int sent = 0; sent < hits && System.nanoTime() < deadline; ) {
+            if (sent < subscription.requested.get()) {
+                sink.onNext(hit());
+                sent++;
+            } else {
+                Thread.yield();
+            }
+        }
+        awaitCompleted(sink, hits);
+        // the demand of the last hits is signalled after they completed
+        while (subscription.requested.get() < 16 + hits && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(hits, sink.getDeliveredCount());
+        assertEquals(0, overlapping.get());
+        // the initial demand and one more hit per completed hit
+        assertEquals(16 + hits, subscription.requested.get());
+    }
+
+    @Test
+    public void testOnNext_BeyondDemandCancels() throws Exception {
+        // the hits are still in flight when the third hit arrives
+        buildTracker(0, 100);
+        HitSink sink = new HitSink(2);
+        RecordingSubscription subscription = new RecordingSubscription();
+        sink.onSubscribe(subscription);
+
+        for (int i = 0; i < 3; i++) {
+            sink.onNext(hit());
+        }
+        awaitCompleted(sink, 2);
+
+        assertEquals(2, sink.getSentCount());
+        assertEquals(1, subscription.cancelled.get());
+        // no demand is signalled to the cancelled subscription
+        assertEquals(2, subscription.requested.get());
+    }
+
+    @Test
+    public void testAsFlowSubscriber() throws Exception {
+        // java.util.concurrent.Flow is only available on Java 9 or later
+        assumeTrue(HitSink.isFlowAvailable());
+
+        HitSink sink = new HitSink(2);
+        Object subscriber = sink.asFlowSubscriber();
+        Class<?> subscriberClass = Class.forName("java.util.concurrent.Flow$Subscriber");
+        assertTrue(subscriberClass.isInstance(subscriber));
+
+        // publisher.subscribe(subscriber), publisher.submit(hit) and publisher.close()
+        Class<?> publisherClass = Class.forName("java.util.concurrent.SubmissionPublisher");
+        Object publisher = publisherClass.newInstance();
+        publisherClass.getMethod("subscribe", subscriberClass).invoke(publisher, subscriber);
+        Method submit = publisherClass.getMethod("submit", Object.class);
+        for (int i = 0; i < 10; i++) {
+            submit.invoke(publisher, hit());
+        }
+        awaitCompleted(sink, 10);
+        publisherClass.getMethod("close").invoke(publisher);
+
+        assertEquals(10, sink.getSentCount());
+        assertEquals(10, sink.getDeliveredCount());
+        RecordingTransport transport = (RecordingTransport) ForwardingTransport.unwrap(GoogleAnalytics.getGraph().transport());
+        assertEquals(10, transport.getRequestCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxInFlight_Invalid() {
+        new HitSink(0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.akoscz.googleanalytics;
+
+import com.akoscz.googleanalytics.transport.ForwardingTransport;
+import com.akoscz.googleanalytics.transport.RecordingTransport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class HitTemplateTest {
+
+    private final UUID clientId = UUID.randomUUID();
+    private GoogleAnalyticsConfig config;
+    private GoogleAnalytics.Tracker tracker;
+
+    @Before
+    public void beforeTest() {
+        config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        tracker = GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config)
+                .applicationVersion("1.0")
+                .applicationId("com.example.app");
+    }
+
+    private HitTemplate eventTemplate() {
+        return tracker.type(GoogleAnalytics.HitType.event).category("Video").action("play").build().template();
+    }
+
+    @Test
+    public void testBuildPayload() {
+        HitTemplate template = eventTemplate();
+        assertEquals(GoogleAnalytics.HitType.event, template.getType());
+
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&ec=Video&ea=play&t=event&an=Test+Application&av=1.0"
+                + "&el=Big+Buck+Bunny&ev=42", template.hit().label("Big Buck Bunny").value(42).buildPayload());
+        // the slots of another hit start from the defaults of the template
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&ec=Video&ea=play&t=event&an=Test+Application&av=1.0"
+                + "&uid=user+1", template.hit().userId("user 1").buildPayload());
+    }
+
+    @Test
+    public void testBuildUrlString() {
+        HitTemplate template = eventTemplate();
+        assertEquals(config.getEndpoint() + "?v=1&tid=UA-12345-123&cid=" + clientId + "&ec=Video&ea=play&t=event"
+                + "&an=Test+Application&av=1.0&aid=com.example.app&el=trailer",
+                template.hit().label("trailer").buildUrlString());
+    }
+
+    @Test
+    public void testTemplate_ResetsTracker() {
+        eventTemplate();
+        assertNull(tracker.build().getCategory());
+        assertNull(tracker.build().getApplicationVersion());
+    }
+
+    @Test
+    public void testTemplate_Defaults() {
+        HitTemplate template = tracker.type(GoogleAnalytics.HitType.event).category("Video").action("play")
+                .label("default").value(1).build().template();
+        HitTemplate.Hit hit = template.hit();
+        assertEquals("default", hit.getLabel());
+        assertEquals(Integer.valueOf(1), hit.getValue());
+        assertTrue(hit.buildPayload().endsWith("&el=default&ev=1"));
+        assertTrue(hit.label(null).value(null).buildPayload().endsWith("&av=1.0"));
+    }
+
+    @Test
+    public void testTemplate_ValidatesOnce() {
+        try {
+            tracker.type(GoogleAnalytics.HitType.event).category("Video").build().template();
+            fail("Expected the missing action to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("event 'action' cannot be null or empty when HitType.event is specified!", e.getMessage());
+        }
+        try {
+            tracker.type(GoogleAnalytics.HitType.event).category(StringUtils.repeat("c", 151)).action("play")
+                    .build().template();
+            fail("Expected the category to be too long");
+        } catch (RuntimeException e) {
+            assertEquals("'category' cannot exceed 150 bytes!", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testHit_ValidatesSlots() {
+        HitTemplate template = eventTemplate();
+        try {
+            template.hit().value(-1).buildPayload();
+            fail("Expected the negative value to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("event 'value' cannot be negative!", e.getMessage());
+        }
+        try {
+            template.hit().label(StringUtils.repeat("l", 501)).buildPayload();
+            fail("Expected the label to be too long");
+        } catch (RuntimeException e) {
+            assertEquals("event 'label' cannot exceed 500 bytes!", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testScreenviewTemplate_ScreenNamePerHit() {
+        HitTemplate template = tracker.type(GoogleAnalytics.HitType.screenview).build().template();
+        assertTrue(template.hit().screenName("Home").buildPayload().endsWith("&cd=Home"));
+        try {
+            template.hit().buildPayload();
+            fail("Expected the missing screenName to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("'screenName' cannot be null or empty when HitType.screenview is specified!", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSend_RecordingTransport() {
+        HitTemplate template = eventTemplate();
+        template.hit().label("first").send(false);
+        template.hit().label("second").send(false);
+
+        RecordingTransport transport = (RecordingTransport) ForwardingTransport.unwrap(GoogleAnalytics.getGraph().transport());
+        assertEquals(2, transport.getRequestCount());
+        TransportRequest request = transport.getRequests().get(1);
+        assertEquals(config.getEndpoint(), request.getUri());
+        assertTrue(request.getBody().endsWith("&el=second"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.akoscz.googleanalytics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TrackingContextTest {
+
+    private final UUID clientId = UUID.randomUUID();
+    private GoogleAnalyticsConfig config;
+    private GoogleAnalytics.Tracker tracker;
+    private ExecutorService executor;
+
+    @Before
+    public void beforeTest() {
+        config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+        tracker = GoogleAnalytics.buildTracker("UA-12345-123", clientId, "Test Application", config);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void afterTest() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOpen_RestoresPreviousContext() {
+        assertSame(TrackingContext.EMPTY, TrackingContext.current());
+
+        TrackingContext.Scope outer = TrackingContext.current().withUserId("outer").open();
+        TrackingContext.Scope inner = TrackingContext.current().withDataSource("web").open();
+        assertEquals("outer", TrackingContext.current().getUserId());
+        assertEquals("web", TrackingContext.current().getDataSource());
+
+        inner.close();
+        assertEquals("outer", TrackingContext.current().getUserId());
+        assertNull(TrackingContext.current().getDataSource());
+
+        outer.close();
+        assertSame(TrackingContext.EMPTY, TrackingContext.current());
+    }
+
+    @Test
+    public void testWrap_PropagatesToExecutor() throws Exception {
+        final AtomicReference<TrackingContext> seen = new AtomicReference<TrackingContext>();
+        Callable<String> userId = new Callable<String>() {
+            @Override
+            public String call() {
+                return TrackingContext.current().getUserId();
+            }
+        };
+
+        TrackingContext.Scope scope = TrackingContext.current().withUserId("user 1").open();
+        try {
+            assertEquals("user 1", executor.submit(TrackingContext.current().wrap(userId)).get());
+            TrackingContext.propagating(executor).execute(new Runnable() {
+                @Override
+                public void run() {
+                    seen.set(TrackingContext.current());
+                }
+            });
+        } finally {
+            scope.close();
+        }
+
+        // the worker thread is back to the empty context after the task
+        Future<String> unwrapped = executor.submit(userId);
+        assertNull(unwrapped.get());
+        assertEquals("user 1", seen.get().getUserId());
+    }
+
+    @Test
+    public void testBuildPayload_EnrichedFromContext() {
+        TrackingContext.Scope scope = TrackingContext.current()
+                .withUserId("user 1").withDataSource("web").withAnonymizeIP(true).open();
+        try {
+            assertEquals("v=1&aip=1&ds=web&tid=UA-12345-123&cid=" + clientId + "&uid=user+1&t=pageview"
+                    + "&an=Test+Application", tracker.type(GoogleAnalytics.HitType.pageview).build().buildPayload());
+
+            // the fields of the hit take precedence
+            assertEquals("v=1&aip=0&ds=app&tid=UA-12345-123&cid=" + clientId + "&uid=user+2&t=pageview"
+                    + "&an=Test+Application", tracker.type(GoogleAnalytics.HitType.pageview).userId("user 2")
+                    .dataSource("app").anonymizeIP(false).build().buildPayload());
+        } finally {
+            scope.close();
+        }
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&t=pageview&an=Test+Application",
+                tracker.type(GoogleAnalytics.HitType.pageview).userId(null).dataSource(null).anonymizeIP(null)
+                        .build().buildPayload());
+    }
+
+    @Test
+    public void testTemplate_EnrichedPerHit() {
+        HitTemplate template;
+        TrackingContext.Scope scope = TrackingContext.current().withUserId("creator").withDataSource("web").open();
+        try {
+            template = tracker.type(GoogleAnalytics.HitType.pageview).build().template();
+        } finally {
+            scope.close();
+        }
+        // the context of the thread which created the template is not part of it
+        assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&t=pageview&an=Test+Application",
+                template.hit().buildPayload());
+
+        scope = TrackingContext.current().withUserId("user 1").withDataSource("web").open();
+        try {
+            assertEquals("v=1&tid=UA-12345-123&cid=" + clientId + "&t=pageview&an=Test+Application&ds=web&uid=user+1",
+                    template.hit().buildPayload());
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentTracker_EnrichedPerHit() {
+        ConcurrentTracker concurrentTracker = GoogleAnalytics
+                .buildConcurrentTracker("UA-12345-123", clientId, "Test Application", config)
+                .dataSource("app")
+                .build();
+        TrackingContext.Scope scope = TrackingContext.current()
+                .withUserId("user 1").withDataSource("web").withAnonymizeIP(true).open();
+        try {
+            // the dataSource of the tracker takes precedence
+            assertEquals("v=1&ds=app&tid=UA-12345-123&cid=" + clientId + "&an=Test+Application&aip=1&uid=user+1"
+                    + "&t=pageview", concurrentTracker.buildPayload(Hit.pageview().build()));
+        } finally {
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.akoscz.googleanalytics.dagger;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.util.CachingDnsResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HttpClientModuleTest {
+
+    @Test
+    public void testConnectionManager_PoolSettings() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setMaxThreads(3);
+        config.setPoolMaxTotal(40);
+        config.setPoolMaxPerRoute(25);
+        config.setValidateAfterInactivityMillis(500);
+
+        HttpClientModule module = new HttpClientModule();
+        PoolingHttpClientConnectionManager connectionManager =
+                module.providesConnectionManager(module.providesDnsResolver(config), config);
+
+        // the pool is sized independently of the thread pool
+        assertEquals(40, connectionManager.getMaxTotal());
+        assertEquals(25, connectionManager.getDefaultMaxPerRoute());
+        assertEquals(500, connectionManager.getValidateAfterInactivity());
+
+        PoolStats stats = connectionManager.getTotalStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(0, stats.getPending());
+        assertEquals(0, stats.getAvailable());
+        assertEquals(40, stats.getMax());
+        connectionManager.shutdown();
+    }
+
+    @Test
+    public void testAsyncConnectionManager_PoolSettings() throws Exception {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setMaxConnections(12);
+
+        // the pool is sized when the singleton is built, not by each builder provided from it
+        PoolingNHttpClientConnectionManager connectionManager = new HttpClientModule().providesAsyncConnectionManager(config);
+        assertEquals(12, connectionManager.getMaxTotal());
+        assertEquals(12, connectionManager.getDefaultMaxPerRoute());
+        connectionManager.shutdown();
+    }
+
+    @Test
+    public void testDnsResolver() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        assertSame(SystemDefaultDnsResolver.INSTANCE, new HttpClientModule().providesDnsResolver(config));
+
+        config.setDnsCacheTtlMillis(60 * 1000);
+        assertTrue(new HttpClientModule().providesDnsResolver(config) instanceof CachingDnsResolver);
+    }
+}
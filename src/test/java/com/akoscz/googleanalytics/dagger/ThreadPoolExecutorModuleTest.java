@@ -0,0 +1,56 @@
+package com.akoscz.googleanalytics.dagger;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import com.akoscz.googleanalytics.util.OverflowHandler;
+import com.akoscz.googleanalytics.util.VirtualThreadFactory;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+public class ThreadPoolExecutorModuleTest {
+
+    private ThreadPoolExecutor executor(GoogleAnalyticsConfig config) {
+        ThreadPoolExecutorModule module = new ThreadPoolExecutorModule();
+        OverflowHandler overflowHandler = module.providesOverflowHandler(config);
+        return module.providesExecutor(module.providesThreadFactory(config), module.providesQueue(config),
+                overflowHandler, config);
+    }
+
+    @Test
+    public void testExecutor_Platform() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setMinThreads(2);
+        config.setMaxThreads(6);
+
+        ThreadPoolExecutor executor = executor(config);
+        assertEquals(2, executor.getCorePoolSize());
+        assertEquals(6, executor.getMaximumPoolSize());
+        assertFalse(executor.allowsCoreThreadTimeOut());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExecutor_Virtual() {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setExecutorType(GoogleAnalyticsConfig.ExecutorType.VIRTUAL);
+        config.setMinThreads(2);
+        config.setMaxThreads(6);
+        config.setPoolMaxTotal(40);
+
+        ThreadPoolExecutor executor = executor(config);
+        if (VirtualThreadFactory.isAvailable()) {
+            // bounded by the connection pool rather than by maxThreads, idle virtual threads end
+            assertEquals(40, executor.getCorePoolSize());
+            assertEquals(40, executor.getMaximumPoolSize());
+            assertTrue(executor.allowsCoreThreadTimeOut());
+            assertTrue(executor.getThreadFactory() instanceof VirtualThreadFactory);
+        } else {
+            // runtimes older than Java 21 fall back to the platform threads
+            assertEquals(2, executor.getCorePoolSize());
+            assertEquals(6, executor.getMaximumPoolSize());
+        }
+        executor.shutdown();
+    }
+}
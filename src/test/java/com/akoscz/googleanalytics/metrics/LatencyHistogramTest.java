@@ -0,0 +1,79 @@
+package com.akoscz.googleanalytics.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucket_UpperBoundWithinOneSixteenth() {
+        long previousBucket = -1;
+        for (long nanos = 0; nanos < 1L << 40; nanos = nanos < 64 ? nanos + 1 : nanos + nanos / 7) {
+            int bucket = LatencyHistogram.bucket(nanos);
+            assertTrue("bucket of " + nanos, bucket >= previousBucket && bucket < LatencyHistogram.BUCKETS);
+            assertTrue("upper bound of " + nanos, LatencyHistogram.upperBound(bucket) >= nanos);
+            assertTrue("upper bound of " + nanos, LatencyHistogram.upperBound(bucket) - nanos <= nanos / 16);
+            if (bucket > 0) {
+                assertTrue("previous bucket of " + nanos, LatencyHistogram.upperBound(bucket - 1) < nanos);
+            }
+            previousBucket = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(new LatencySnapshot(0, 0, 0, 0, 0, 0), histogram.snapshot());
+
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(0.5005, snapshot.getMeanMillis(), 1e-9);
+        assertEquals(0.5, snapshot.getP50Millis(), 0.5 / 16);
+        assertEquals(0.99, snapshot.getP99Millis(), 0.99 / 16);
+        assertEquals(0.999, snapshot.getP999Millis(), 0.999 / 16);
+        // the percentiles never exceed the maximum
+        assertTrue(snapshot.getP999Millis() <= snapshot.getMaxMillis());
+        assertEquals(1.0, snapshot.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void testRecord_Concurrent() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final StripedCounter counter = new StripedCounter();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                        counter.increment();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(80000, histogram.snapshot().getCount());
+        assertEquals(80000, counter.sum());
+        assertEquals(9999 / 1e6, histogram.snapshot().getMaxMillis(), 0);
+    }
+
+    @Test
+    public void testStripes() {
+        assertEquals(1, StripedCounter.stripes(1));
+        assertEquals(4, StripedCounter.stripes(3));
+        assertEquals(8, StripedCounter.stripes(8));
+        assertEquals(64, StripedCounter.stripes(256));
+    }
+}
@@ -0,0 +1,89 @@
+package com.akoscz.googleanalytics.metrics;
+
+import com.akoscz.googleanalytics.GoogleAnalytics;
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SenderMetricsTest {
+
+    private GoogleAnalyticsConfig config;
+
+    @Before
+    public void beforeTest() {
+        config = new GoogleAnalyticsConfig();
+        config.setTransportType(GoogleAnalyticsConfig.TransportType.RECORDING);
+    }
+
+    @After
+    public void afterTest() {
+        GoogleAnalytics.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    private void sendPageviews(int hits) {
+        GoogleAnalytics.Tracker tracker = GoogleAnalytics.buildTracker("UA-12345-123", UUID.randomUUID(),
+                "Test Application", config);
+        for (int i = 0; i < hits; i++) {
+            tracker.type(GoogleAnalytics.HitType.pageview).build().send();
+        }
+        assertTrue(GoogleAnalytics.flush(10, TimeUnit.SECONDS).isDrained());
+    }
+
+    @Test
+    public void testSend_CountsEveryStage() {
+        sendPageviews(10);
+
+        SenderMetrics metrics = GoogleAnalytics.getMetrics();
+        assertEquals(10, metrics.getHitsBuilt());
+        assertEquals(10, metrics.getHitsEnqueued());
+        assertEquals(10, metrics.getHitsSent());
+        assertEquals(0, metrics.getHitsFailed());
+        assertEquals(0, metrics.getHitsDropped());
+        assertEquals(0, metrics.getHitsRetried());
+        assertTrue(metrics.getBytesSent() > 10 * "v=1&t=pageview".length());
+        assertEquals(10, metrics.getQueueWait().getCount());
+        assertEquals(10, metrics.getHttpLatency().getCount());
+        assertEquals(0, metrics.getQueueDepth());
+    }
+
+    @Test
+    public void testSend_CountsDroppedHits() {
+        // a single worker and a single queued hit, the worker holds the first hit for 50 ms
+        config.setMinThreads(1);
+        config.setMaxThreads(1);
+        config.setQueueSize(1);
+        config.setRecordingLatencyMillis(50);
+        sendPageviews(10);
+
+        SenderMetrics metrics = GoogleAnalytics.getMetrics();
+        assertEquals(10, metrics.getHitsEnqueued());
+        assertTrue(metrics.getHitsDropped() >= 8);
+        assertEquals(10, metrics.getHitsSent() + metrics.getHitsDropped());
+        assertEquals(metrics.getHitsSent(), metrics.getHttpLatency().getCount());
+        assertTrue(metrics.getHttpLatency().getMaxMillis() >= 50);
+    }
+
+    @Test
+    public void testJmx_RegisteredWhileRunning() throws Exception {
+        config.setJmxEnabled(true);
+        sendPageviews(3);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(SenderMetrics.OBJECT_NAME);
+        assertEquals(3L, server.getAttribute(name, "HitsSent"));
+        assertEquals(3L, ((CompositeData) server.getAttribute(name, "HttpLatency")).get("count"));
+
+        GoogleAnalytics.shutdown(1, TimeUnit.SECONDS);
+        assertFalse(server.isRegistered(name));
+    }
+}
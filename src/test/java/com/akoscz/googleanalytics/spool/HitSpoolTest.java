@@ -0,0 +1,122 @@
+package com.akoscz.googleanalytics.spool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HitSpoolTest {
+
+    private File directory;
+    private HitSpool spool;
+
+    @Before
+    public void beforeTest() throws Exception {
+        directory = Files.createTempDirectory("hitspool").toFile();
+    }
+
+    @After
+    public void afterTest() {
+        if (spool != null) spool.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testAppendPeekRemove() throws Exception {
+        spool = new HitSpool(directory, HitSpool.DEFAULT_SEGMENT_BYTES);
+        assertTrue(spool.isEmpty());
+
+        assertTrue(spool.append("v=1&t=pageview&dp=%2Fa", 1000));
+        assertTrue(spool.append("v=1&t=event&ec=caf\u00e9", 2000));
+        assertTrue(spool.append("v=1&t=pageview&dp=%2Fc", 3000));
+        assertEquals(3, spool.size());
+
+        List<SpooledHit> hits = spool.peek(2);
+        assertEquals(2, hits.size());
+        assertEquals(new SpooledHit("v=1&t=pageview&dp=%2Fa", 1000), hits.get(0));
+        assertEquals(new SpooledHit("v=1&t=event&ec=caf\u00e9", 2000), hits.get(1));
+        // peeking does not remove
+        assertEquals(3, spool.size());
+
+        spool.remove(2);
+        assertEquals(1, spool.size());
+        hits = spool.peek(20);
+        assertEquals(1, hits.size());
+        assertEquals("v=1&t=pageview&dp=%2Fc", hits.get(0).getPayload());
+
+        spool.remove(1);
+        assertTrue(spool.isEmpty());
+        assertTrue(spool.peek(20).isEmpty());
+    }
+
+    @Test
+    public void testReopen_KeepsUnremovedHits() throws Exception {
+        spool = new HitSpool(directory, 1024);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(spool.append("v=1&t=pageview&dp=%2F" + i, i));
+        }
+        spool.remove(2);
+        spool.close();
+
+        spool = new HitSpool(directory, 1024);
+        assertEquals(3, spool.size());
+        List<SpooledHit> hits = spool.peek(20);
+        assertEquals("v=1&t=pageview&dp=%2F2", hits.get(0).getPayload());
+        assertEquals(2, hits.get(0).getEnqueuedMillis());
+        assertEquals("v=1&t=pageview&dp=%2F4", hits.get(2).getPayload());
+
+        // appends after reopening go after the existing hits
+        assertTrue(spool.append("v=1&t=pageview&dp=%2F5", 5));
+        assertEquals("v=1&t=pageview&dp=%2F5", spool.peek(20).get(3).getPayload());
+    }
+
+    @Test
+    public void testSegmentRollover() throws Exception {
+        // room for a few hits per segment
+        spool = new HitSpool(directory, 128);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(spool.append("v=1&t=pageview&dp=%2F" + i, i));
+        }
+        assertTrue(directory.listFiles().length > 1);
+
+        List<SpooledHit> hits = spool.peek(20);
+        assertEquals(20, hits.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("v=1&t=pageview&dp=%2F" + i, hits.get(i).getPayload());
+        }
+
+        // consumed segments are deleted, the last one is kept for appending
+        spool.remove(20);
+        assertTrue(spool.isEmpty());
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testAppend_TooLarge() throws Exception {
+        spool = new HitSpool(directory, 128);
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 128; i++) {
+            payload.append('x');
+        }
+        assertFalse(spool.append(payload.toString(), 0));
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void testAppend_Closed() throws Exception {
+        spool = new HitSpool(directory, 1024);
+        spool.close();
+        assertFalse(spool.append("v=1", 0));
+    }
+}
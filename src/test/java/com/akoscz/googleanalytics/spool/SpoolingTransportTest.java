@@ -0,0 +1,252 @@
+package com.akoscz.googleanalytics.spool;
+
+import com.akoscz.googleanalytics.HitBatch;
+import com.akoscz.googleanalytics.transport.CircuitBreaker;
+import com.akoscz.googleanalytics.transport.Transport;
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SpoolingTransportTest {
+
+    private static final String BATCH_ENDPOINT = "http://localhost/batch";
+
+    private static final Transport.Callback IGNORE = new Transport.Callback() {
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+        }
+    };
+
+    private final ScriptedTransport delegate = new ScriptedTransport();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(0, 0, 0);
+    private File directory;
+    private HitSpool spool;
+    private SpoolingTransport transport;
+
+    @Before
+    public void beforeTest() throws Exception {
+        directory = Files.createTempDirectory("hitspool").toFile();
+        spool = new HitSpool(directory, HitSpool.DEFAULT_SEGMENT_BYTES);
+        // replayed explicitly by the tests
+        transport = new SpoolingTransport(delegate, spool, BATCH_ENDPOINT, 0, circuitBreaker);
+    }
+
+    @After
+    public void afterTest() {
+        transport.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSend_FailedRequestIsSpooled() {
+        delegate.outcomes.add(new IOException("Connection reset"));
+        transport.send(TransportRequest.get("http://localhost/collect?v=1&t=pageview", false), IGNORE);
+
+        delegate.outcomes.add(503);
+        transport.send(TransportRequest.post(BATCH_ENDPOINT, HitBatch.CONTENT_TYPE, "v=1&t=event\nv=1&t=screenview", false), IGNORE);
+
+        delegate.outcomes.add(200);
+        transport.send(TransportRequest.get("http://localhost/collect?v=1&t=timing", false), IGNORE);
+
+        assertEquals(3, transport.getSpooledCount());
+        List<SpooledHit> hits = spool.peek(20);
+        assertEquals(3, hits.size());
+        assertEquals("v=1&t=pageview", hits.get(0).getPayload());
+        assertEquals("v=1&t=event", hits.get(1).getPayload());
+        assertEquals("v=1&t=screenview", hits.get(2).getPayload());
+    }
+
+    @Test
+    public void testSend_RetryAwareCallbackIsNotifiedOfSpooling() {
+        final List<String> outcomes = new ArrayList<String>();
+        Transport.RetryAwareCallback callback = new Transport.RetryAwareCallback() {
+            @Override
+            public void completed(TransportRequest request, int statusCode, String responseBody) {
+                outcomes.add("completed " + statusCode);
+            }
+
+            @Override
+            public void failed(TransportRequest request, Throwable throwable) {
+                outcomes.add("failed");
+            }
+
+            @Override
+            public void retrying(TransportRequest request, int retry) {
+            }
+
+            @Override
+            public void spooled(TransportRequest request) {
+                outcomes.add("spooled");
+            }
+        };
+
+        delegate.outcomes.add(new IOException("Connection reset"));
+        transport.send(TransportRequest.get("http://localhost/collect?v=1&t=pageview", false), callback);
+        delegate.outcomes.add(503);
+        transport.send(TransportRequest.get("http://localhost/collect?v=1&t=event", false), callback);
+        delegate.outcomes.add(200);
+        transport.send(TransportRequest.get("http://localhost/collect?v=1&t=timing", false), callback);
+        // debug requests are never spooled
+        delegate.outcomes.add(503);
+        transport.send(TransportRequest.get("http://localhost/debug/collect?v=1&t=timing", true), callback);
+
+        assertEquals(Arrays.asList("spooled", "spooled", "completed 200", "completed 503"), outcomes);
+        assertEquals(2, transport.getSpooledCount());
+    }
+
+    @Test
+    public void testSend_DebugRequestIsNotSpooled() {
+        delegate.outcomes.add(new IOException("Connection reset"));
+        transport.send(TransportRequest.get("http://localhost/debug/collect?v=1&t=pageview", true), IGNORE);
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void testReplay() {
+        long now = System.currentTimeMillis();
+        spool.append("v=1&t=pageview", now - 1000);
+        spool.append("v=1&t=event&qt=500", now - 1000);
+
+        delegate.outcomes.add(200);
+        transport.replay();
+
+        assertTrue(spool.isEmpty());
+        assertEquals(2, transport.getReplayedCount());
+        assertEquals(1, delegate.requests.size());
+
+        TransportRequest request = delegate.requests.get(0);
+        assertEquals(BATCH_ENDPOINT, request.getUri());
+        String[] payloads = request.getBody().split("\n");
+        assertEquals(2, payloads.length);
+        assertTrue(payloads[0].startsWith("v=1&t=pageview&qt="));
+        assertTrue(queueTime(payloads[0]) >= 1000);
+        assertTrue(payloads[1].startsWith("v=1&t=event&qt="));
+        assertTrue(queueTime(payloads[1]) >= 1500);
+    }
+
+    @Test
+    public void testReplay_QueueTimeStartsWhenHitWasBuilt() {
+        // the hit was built a minute before it failed, e.g. it waited in the queue and in retry backoff
+        long builtMillis = System.currentTimeMillis() - 60 * 1000;
+        delegate.outcomes.add(503);
+        transport.send(TransportRequest.post(BATCH_ENDPOINT, HitBatch.CONTENT_TYPE, "v=1&t=pageview", false, builtMillis), IGNORE);
+        assertEquals(builtMillis, spool.peek(1).get(0).getEnqueuedMillis());
+
+        delegate.outcomes.add(200);
+        transport.replay();
+        assertTrue(queueTime(delegate.requests.get(1).getBody()) >= 60 * 1000);
+    }
+
+    @Test
+    public void testReplay_FailedBatchStaysSpooled() {
+        spool.append("v=1&t=pageview", System.currentTimeMillis());
+
+        delegate.outcomes.add(503);
+        transport.replay();
+        assertEquals(1, spool.size());
+        assertEquals(0, transport.getReplayedCount());
+
+        delegate.outcomes.add(200);
+        transport.replay();
+        assertTrue(spool.isEmpty());
+        assertEquals(1, transport.getReplayedCount());
+    }
+
+    @Test
+    public void testReplay_ExpiredHitsAreDropped() {
+        long now = System.currentTimeMillis();
+        spool.append("v=1&t=pageview&dp=%2Fold", now - SpoolingTransport.MAX_QUEUE_TIME_MILLIS - 1000);
+        spool.append("v=1&t=pageview&dp=%2Fnew", now);
+
+        delegate.outcomes.add(200);
+        transport.replay();
+
+        assertTrue(spool.isEmpty());
+        assertEquals(1, transport.getDroppedCount());
+        assertEquals(1, transport.getReplayedCount());
+        assertFalse(delegate.requests.get(0).getBody().contains("old"));
+    }
+
+    @Test
+    public void testReplay_InBatchesOfMaxHits() {
+        for (int i = 0; i < HitBatch.MAX_HITS + 5; i++) {
+            spool.append("v=1&t=pageview&dp=%2F" + i, System.currentTimeMillis());
+        }
+
+        delegate.outcomes.add(200);
+        delegate.outcomes.add(200);
+        transport.replay();
+
+        assertTrue(spool.isEmpty());
+        assertEquals(2, delegate.requests.size());
+        assertEquals(HitBatch.MAX_HITS, delegate.requests.get(0).getBody().split("\n").length);
+        assertEquals(5, delegate.requests.get(1).getBody().split("\n").length);
+    }
+
+    @Test
+    public void testWithQueueTime() {
+        assertEquals("v=1&qt=10", SpoolingTransport.withQueueTime("v=1", 10));
+        assertEquals("v=1&qt=15", SpoolingTransport.withQueueTime("v=1&qt=5", 10));
+        assertEquals("v=1&t=event&qt=15", SpoolingTransport.withQueueTime("qt=5&v=1&t=event", 10));
+        assertEquals("v=1&t=event&qt=15", SpoolingTransport.withQueueTime("v=1&qt=5&t=event", 10));
+        assertEquals("v=1&qt=10", SpoolingTransport.withQueueTime("v=1&qt=abc", 10));
+        assertNull(SpoolingTransport.withQueueTime("v=1", SpoolingTransport.MAX_QUEUE_TIME_MILLIS + 1));
+    }
+
+    private static long queueTime(String payload) {
+        return Long.parseLong(payload.substring(payload.indexOf("qt=") + 3));
+    }
+
+    private static class ScriptedTransport implements Transport {
+        final Queue<Object> outcomes = new LinkedList<Object>();
+        final List<TransportRequest> requests = new ArrayList<TransportRequest>();
+
+        @Override
+        public boolean isBlocking() {
+            return true;
+        }
+
+        @Override
+        public synchronized Future<Integer> send(TransportRequest request, Callback callback) {
+            requests.add(request);
+            BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+            Object outcome = outcomes.remove();
+            if (outcome instanceof Integer) {
+                callback.completed(request, (Integer) outcome, null);
+                future.completed((Integer) outcome);
+            } else {
+                callback.failed(request, (Throwable) outcome);
+                future.completed(null);
+            }
+            return future;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
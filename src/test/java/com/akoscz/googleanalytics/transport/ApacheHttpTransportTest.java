@@ -0,0 +1,128 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ApacheHttpTransportTest {
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = new CopyOnWriteArraySet<Integer>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private ApacheHttpTransport transport;
+
+    @Before
+    public void beforeTest() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                requestCount.incrementAndGet();
+
+                byte[] response = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            }
+        });
+        server.start();
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        transport = new ApacheHttpTransport(HttpClients.custom().setConnectionManager(connectionManager).build());
+    }
+
+    @After
+    public void afterTest() {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testGet_KeepAlive() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(200), transport.send(TransportRequest.get(collectUri() + "?v=1&t=pageview", false), callback).get());
+        }
+
+        assertEquals(3, requestCount.get());
+        assertEquals(3, callback.completed.get());
+        // every GET was sent over the same pooled connection
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+    }
+
+    @Test
+    public void testGetAndPost_SharedConnection() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        transport.send(TransportRequest.get(collectUri() + "?v=1&t=pageview", false), callback);
+        transport.send(TransportRequest.post(collectUri(), "application/x-www-form-urlencoded", "v=1&t=event", true), callback);
+
+        assertEquals(2, callback.completed.get());
+        assertEquals("ok", callback.responseBody);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testSend_Failed() throws Exception {
+        server.stop(0);
+
+        RecordingCallback callback = new RecordingCallback();
+        assertNull(transport.send(TransportRequest.get(collectUri(), false), callback).get());
+        assertEquals(1, callback.failed.get());
+    }
+
+    @Test
+    public void testBuildHttpRequest_WritesBodyBytes() throws Exception {
+        byte[] body = "v=1&t=event&el=Caf%C3%A9".getBytes("US-ASCII");
+        HttpUriRequest request = ApacheHttpTransport.buildHttpRequest(
+                TransportRequest.post(collectUri(), "application/x-www-form-urlencoded", body, false));
+
+        HttpEntity entity = ((HttpPost) request).getEntity();
+        assertEquals("application/x-www-form-urlencoded", entity.getContentType().getValue());
+        assertEquals(body.length, entity.getContentLength());
+        assertArrayEquals(body, EntityUtils.toByteArray(entity));
+    }
+
+    private String collectUri() {
+        return "http://localhost:" + server.getAddress().getPort() + "/collect";
+    }
+
+    private static class RecordingCallback implements Transport.Callback {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        volatile String responseBody;
+
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+            completed.incrementAndGet();
+            this.responseBody = responseBody;
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            failed.incrementAndGet();
+        }
+    }
+}
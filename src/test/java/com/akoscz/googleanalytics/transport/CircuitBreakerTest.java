@@ -0,0 +1,197 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.akoscz.googleanalytics.transport.CircuitBreaker.Permit;
+import com.akoscz.googleanalytics.transport.CircuitBreaker.State;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static final Transport.Callback IGNORE = new Transport.Callback() {
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+        }
+    };
+
+    private final List<String> transitions = new CopyOnWriteArrayList<String>();
+
+    private CircuitBreaker createCircuitBreaker(long slowCallMillis, long openMillis) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, slowCallMillis, openMillis);
+        circuitBreaker.addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void stateChanged(CircuitBreaker circuitBreaker, State from, State to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+        return circuitBreaker;
+    }
+
+    @Test
+    public void testOpen_ConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(0, TimeUnit.MINUTES.toMillis(10));
+
+        circuitBreaker.onFailure(Permit.CALL);
+        circuitBreaker.onFailure(Permit.CALL);
+        // a success resets the count
+        circuitBreaker.onSuccess(Permit.CALL, 0);
+        circuitBreaker.onFailure(Permit.CALL);
+        circuitBreaker.onFailure(Permit.CALL);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.onFailure(Permit.CALL);
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertEquals(Permit.REJECTED, circuitBreaker.tryAcquire());
+        assertEquals(1, circuitBreaker.getRejectedCount());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+        assertEquals("[CLOSED->OPEN]", transitions.toString());
+    }
+
+    @Test
+    public void testOpen_SlowCalls() {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(100, TimeUnit.MINUTES.toMillis(10));
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onSuccess(Permit.CALL, TimeUnit.MILLISECONDS.toNanos(150));
+        }
+        assertEquals(State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHalfOpen_ProbeSucceeds() throws InterruptedException {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(0, 50);
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure(Permit.CALL);
+        }
+        Thread.sleep(100);
+
+        // only a single probe is let through
+        assertEquals(Permit.PROBE, circuitBreaker.tryAcquire());
+        assertEquals(Permit.REJECTED, circuitBreaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess(Permit.PROBE, 0);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertEquals(Permit.CALL, circuitBreaker.tryAcquire());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+    }
+
+    @Test
+    public void testHalfOpen_ProbeFails() throws InterruptedException {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(0, 50);
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure(Permit.CALL);
+        }
+        Thread.sleep(100);
+
+        assertEquals(Permit.PROBE, circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure(Permit.PROBE);
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertEquals(Permit.REJECTED, circuitBreaker.tryAcquire());
+        assertEquals(2, circuitBreaker.getOpenedCount());
+    }
+
+    @Test
+    public void testHalfOpen_LateOutcomesAreIgnored() throws InterruptedException {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(0, 50);
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure(Permit.CALL);
+        }
+        Thread.sleep(100);
+        assertEquals(Permit.PROBE, circuitBreaker.tryAcquire());
+
+        // requests sent while the breaker was closed complete while the probe is in flight
+        circuitBreaker.onSuccess(Permit.CALL, 0);
+        circuitBreaker.onFailure(Permit.CALL);
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(Permit.REJECTED, circuitBreaker.tryAcquire());
+
+        circuitBreaker.onSuccess(Permit.PROBE, 0);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+    }
+
+    @Test
+    public void testTransport_ProbeThrowsIsReleased() throws Exception {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(0, 50);
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure(Permit.CALL);
+        }
+        Thread.sleep(100);
+
+        final AtomicInteger sendCount = new AtomicInteger();
+        Transport refusing = new Transport() {
+            @Override
+            public boolean isBlocking() {
+                return false;
+            }
+
+            @Override
+            public Future<Integer> send(TransportRequest request, Callback callback) {
+                if (sendCount.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Client is closed");
+                }
+                callback.completed(request, 200, null);
+                return null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        CircuitBreakerTransport transport = new CircuitBreakerTransport(refusing, circuitBreaker);
+        TransportRequest request = TransportRequest.get("http://localhost/collect?v=1", false);
+        try {
+            transport.send(request, IGNORE);
+            fail("the delegate should have thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the probe was handed back, so the next request probes the endpoint and closes the breaker
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+        transport.send(request, IGNORE);
+        assertEquals(2, sendCount.get());
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testTransport_RejectsWhileOpen() throws Exception {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(0, TimeUnit.MINUTES.toMillis(10));
+        RecordingTransport recordingTransport = new RecordingTransport(0, TimeUnit.MILLISECONDS, 503,
+                RecordingTransport.DEFAULT_MAX_RECORDED_REQUESTS);
+        CircuitBreakerTransport transport = new CircuitBreakerTransport(recordingTransport, circuitBreaker);
+
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        Transport.Callback callback = new Transport.Callback() {
+            @Override
+            public void completed(TransportRequest request, int statusCode, String responseBody) {
+            }
+
+            @Override
+            public void failed(TransportRequest request, Throwable throwable) {
+                failures.add(throwable);
+            }
+        };
+
+        TransportRequest request = TransportRequest.get("http://localhost/collect?v=1", false);
+        for (int i = 0; i < 5; i++) {
+            transport.send(request, callback);
+        }
+
+        // the 5xx responses opened the breaker, the remaining requests never reached the delegate
+        assertEquals(3, recordingTransport.getRequestCount());
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0) instanceof CircuitBreakerOpenException);
+        assertNull(transport.send(request, callback).get());
+    }
+}
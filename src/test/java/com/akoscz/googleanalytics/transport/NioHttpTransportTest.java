@@ -0,0 +1,194 @@
+package com.akoscz.googleanalytics.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NioHttpTransportTest {
+
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final CountDownLatch respond = new CountDownLatch(1);
+    private volatile boolean holdResponses;
+
+    private CloseableHttpAsyncClient httpAsyncClient;
+    private NioHttpTransport transport;
+
+    @Before
+    public void beforeTest() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                if (holdResponses) {
+                    try {
+                        respond.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                byte[] response = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            }
+        });
+        server.start();
+
+        httpAsyncClient = HttpAsyncClients.createDefault();
+        httpAsyncClient.start();
+        transport = new NioHttpTransport(httpAsyncClient);
+    }
+
+    @After
+    public void afterTest() {
+        respond.countDown();
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testIsBlocking() {
+        assertFalse(transport.isBlocking());
+    }
+
+    @Test
+    public void testSend_Completed() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        Future<Integer> get = transport.send(TransportRequest.get(collectUri() + "?v=1&t=pageview", false), callback);
+        Future<Integer> post = transport.send(
+                TransportRequest.post(collectUri(), "application/x-www-form-urlencoded", "v=1&t=event", true), callback);
+
+        assertEquals(Integer.valueOf(200), get.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(200), post.get(5, TimeUnit.SECONDS));
+        assertEquals(2, requestCount.get());
+        assertEquals(2, callback.completed.get());
+        assertEquals(0, callback.failed.get());
+        assertEquals("ok", callback.responseBody);
+        // the callback runs on an I/O thread of the client
+        assertNotSame(Thread.currentThread(), callback.thread);
+    }
+
+    @Test
+    public void testSend_DoesNotWaitForResponse() throws Exception {
+        holdResponses = true;
+
+        RecordingCallback callback = new RecordingCallback();
+        Future<Integer> response = transport.send(TransportRequest.get(collectUri() + "?v=1&t=pageview", false), callback);
+        assertFalse(response.isDone());
+        assertEquals(0, callback.completed.get());
+
+        respond.countDown();
+        assertEquals(Integer.valueOf(200), response.get(5, TimeUnit.SECONDS));
+        assertEquals(1, callback.completed.get());
+    }
+
+    @Test
+    public void testSend_Failed() throws Exception {
+        server.stop(0);
+
+        RecordingCallback callback = new RecordingCallback();
+        assertNull(transport.send(TransportRequest.get(collectUri(), false), callback).get(5, TimeUnit.SECONDS));
+        assertEquals(0, callback.completed.get());
+        assertEquals(1, callback.failed.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSend_CancelledIsFailed() throws Exception {
+        CloseableHttpAsyncClient client = mock(CloseableHttpAsyncClient.class);
+        when(client.execute(any(HttpUriRequest.class), any(FutureCallback.class))).thenAnswer(new Answer<Future<?>>() {
+            @Override
+            public Future<?> answer(InvocationOnMock invocation) {
+                ((FutureCallback<?>) invocation.getArguments()[1]).cancelled();
+                return null;
+            }
+        });
+
+        RecordingCallback callback = new RecordingCallback();
+        assertNull(new NioHttpTransport(client).send(TransportRequest.get(collectUri(), false), callback).get(5, TimeUnit.SECONDS));
+        assertEquals(0, callback.completed.get());
+        assertEquals(1, callback.failed.get());
+        assertTrue(callback.failure.get() instanceof IOException);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        holdResponses = true;
+
+        RecordingCallback callback = new RecordingCallback();
+        Future<Integer> response = transport.send(TransportRequest.get(collectUri() + "?v=1&t=pageview", false), callback);
+        while (requestCount.get() == 0) {
+            Thread.sleep(1);
+        }
+
+        // the request in flight fails, and the closed client accepts no more requests
+        transport.close();
+        assertFalse(httpAsyncClient.isRunning());
+        assertNull(response.get(5, TimeUnit.SECONDS));
+        assertEquals(1, callback.failed.get());
+
+        try {
+            transport.send(TransportRequest.get(collectUri(), false), callback);
+            fail("a closed transport should not send");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, requestCount.get());
+    }
+
+    private String collectUri() {
+        return "http://localhost:" + server.getAddress().getPort() + "/collect";
+    }
+
+    private static class RecordingCallback implements Transport.Callback {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        volatile String responseBody;
+        volatile Thread thread;
+
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+            // only the response to a debug request is read
+            if (responseBody != null) {
+                this.responseBody = responseBody;
+            }
+            thread = Thread.currentThread();
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            failure.set(throwable);
+            thread = Thread.currentThread();
+            failed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.akoscz.googleanalytics.transport;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RetryingTransportTest {
+
+    private static final TransportRequest REQUEST = TransportRequest.post("http://localhost/collect", "text/plain", "v=1", false);
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ScriptedTransport delegate = new ScriptedTransport();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private RetryingTransport transport;
+
+    private final Transport.Callback callback = new Transport.Callback() {
+        @Override
+        public void completed(TransportRequest request, int statusCode, String responseBody) {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void failed(TransportRequest request, Throwable throwable) {
+            failed.incrementAndGet();
+        }
+    };
+
+    @After
+    public void afterTest() {
+        if (transport != null) transport.close();
+    }
+
+    private RetryingTransport createTransport(int maxRetries, RetryBudget retryBudget) {
+        transport = new RetryingTransport(delegate, maxRetries, 1, 10, retryBudget, DIRECT_EXECUTOR);
+        return transport;
+    }
+
+    @Test
+    public void testSend_RetriedUntilSuccess() throws Exception {
+        createTransport(3, new RetryBudget(10, 0.1));
+        delegate.outcomes.add(503);
+        delegate.outcomes.add(new SocketTimeoutException("Read timed out"));
+        delegate.outcomes.add(200);
+
+        Future<Integer> statusCode = transport.send(REQUEST, callback);
+
+        assertEquals(Integer.valueOf(200), statusCode.get(5, TimeUnit.SECONDS));
+        assertEquals(3, delegate.attempts.get());
+        assertEquals(2, transport.getRetryCount());
+        // only the final outcome is reported
+        assertEquals(1, completed.get());
+        assertEquals(0, failed.get());
+    }
+
+    @Test
+    public void testSend_RetryAwareCallback() throws Exception {
+        createTransport(3, new RetryBudget(10, 0.1));
+        delegate.outcomes.add(503);
+        delegate.outcomes.add(503);
+        delegate.outcomes.add(200);
+
+        final AtomicInteger lastRetry = new AtomicInteger();
+        Future<Integer> statusCode = transport.send(REQUEST, new Transport.RetryAwareCallback() {
+            @Override
+            public void retrying(TransportRequest request, int retry) {
+                lastRetry.set(retry);
+            }
+
+            @Override
+            public void completed(TransportRequest request, int statusCode, String responseBody) {
+                // the retries are known when the request completes
+                completed.set(lastRetry.get());
+            }
+
+            @Override
+            public void failed(TransportRequest request, Throwable throwable) {
+                failed.incrementAndGet();
+            }
+
+            @Override
+            public void spooled(TransportRequest request) {
+            }
+        });
+
+        assertEquals(Integer.valueOf(200), statusCode.get(5, TimeUnit.SECONDS));
+        assertEquals(2, lastRetry.get());
+        assertEquals(2, completed.get());
+    }
+
+    @Test
+    public void testSend_MaxRetries() throws Exception {
+        createTransport(2, new RetryBudget(10, 0.1));
+        for (int i = 0; i < 5; i++) {
+            delegate.outcomes.add(500);
+        }
+
+        assertEquals(Integer.valueOf(500), transport.send(REQUEST, callback).get(5, TimeUnit.SECONDS));
+        assertEquals(3, delegate.attempts.get());
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    public void testSend_NotRetryable() throws Exception {
+        createTransport(3, new RetryBudget(10, 0.1));
+        delegate.outcomes.add(400);
+        assertEquals(Integer.valueOf(400), transport.send(REQUEST, callback).get(5, TimeUnit.SECONDS));
+
+        delegate.outcomes.add(new UnknownHostException("www.google-analytics.com"));
+        assertNull(transport.send(REQUEST, callback).get(5, TimeUnit.SECONDS));
+
+        assertEquals(2, delegate.attempts.get());
+        assertEquals(0, transport.getRetryCount());
+        assertEquals(1, failed.get());
+    }
+
+    @Test
+    public void testSend_BudgetExhausted() throws Exception {
+        RetryBudget retryBudget = new RetryBudget(1, 0.5);
+        createTransport(3, retryBudget);
+        delegate.outcomes.add(500);
+        delegate.outcomes.add(500);
+
+        // the single token pays for the first retry only
+        assertEquals(Integer.valueOf(500), transport.send(REQUEST, callback).get(5, TimeUnit.SECONDS));
+        assertEquals(2, delegate.attempts.get());
+        assertEquals(1, transport.getBudgetExhaustedCount());
+
+        // successful requests refill the budget
+        delegate.outcomes.add(200);
+        delegate.outcomes.add(200);
+        transport.send(REQUEST, callback).get(5, TimeUnit.SECONDS);
+        transport.send(REQUEST, callback).get(5, TimeUnit.SECONDS);
+        assertEquals(1.0, retryBudget.getTokens(), 0.0001);
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryingTransport transport = createTransport(10, new RetryBudget(10, 0.1));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(transport.backoffMillis(1) <= 1);
+            assertTrue(transport.backoffMillis(3) <= 4);
+            assertTrue(transport.backoffMillis(30) <= 10);
+        }
+    }
+
+    @Test
+    public void testIsRetryable() {
+        assertTrue(RetryingTransport.isRetryable(502));
+        assertFalse(RetryingTransport.isRetryable(200));
+        assertFalse(RetryingTransport.isRetryable(404));
+
+        assertTrue(RetryingTransport.isRetryable(new IOException("Connection reset")));
+        assertTrue(RetryingTransport.isRetryable(new RuntimeException(new SocketTimeoutException())));
+        assertFalse(RetryingTransport.isRetryable(new UnknownHostException()));
+        assertFalse(RetryingTransport.isRetryable(new IllegalStateException()));
+    }
+
+    /**
+     * A blocking transport which answers each request with the next scripted status code or exception.
+     */
+    private static class ScriptedTransport implements Transport {
+        final Queue<Object> outcomes = new LinkedList<Object>();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        @Override
+        public boolean isBlocking() {
+            return true;
+        }
+
+        @Override
+        public synchronized Future<Integer> send(TransportRequest request, Callback callback) {
+            attempts.incrementAndGet();
+            BasicFuture<Integer> future = new BasicFuture<Integer>(null);
+            Object outcome = outcomes.remove();
+            if (outcome instanceof Integer) {
+                callback.completed(request, (Integer) outcome, null);
+                future.completed((Integer) outcome);
+            } else {
+                callback.failed(request, (Throwable) outcome);
+                future.completed(null);
+            }
+            return future;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
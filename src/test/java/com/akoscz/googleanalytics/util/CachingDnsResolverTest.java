@@ -0,0 +1,91 @@
+package com.akoscz.googleanalytics.util;
+
+import org.apache.http.conn.DnsResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingDnsResolverTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final List<Runnable> refreshes = new ArrayList<Runnable>();
+    private volatile boolean failLookups;
+    private volatile InetAddress address;
+
+    private final DnsResolver delegate = new DnsResolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (failLookups) throw new UnknownHostException(host);
+            return new InetAddress[]{address};
+        }
+    };
+
+    // refreshes are run by the test so it can observe the stale entry
+    private final Executor refreshExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            refreshes.add(command);
+        }
+    };
+
+    @Before
+    public void beforeTest() throws UnknownHostException {
+        address = InetAddress.getByAddress("collect", new byte[]{10, 0, 0, 1});
+    }
+
+    @Test
+    public void testResolve_Cached() throws Exception {
+        CachingDnsResolver resolver = new CachingDnsResolver(delegate, 60 * 1000, refreshExecutor);
+
+        assertEquals(address, resolver.resolve("collect")[0]);
+        assertEquals(address, resolver.resolve("collect")[0]);
+        assertEquals(1, lookups.get());
+        assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void testResolve_RefreshedInBackground() throws Exception {
+        CachingDnsResolver resolver = new CachingDnsResolver(delegate, 0, refreshExecutor);
+        InetAddress stale = address;
+        resolver.resolve("collect");
+
+        address = InetAddress.getByAddress("collect", new byte[]{10, 0, 0, 2});
+        // the expired entry is returned while a single refresh is scheduled
+        assertEquals(stale, resolver.resolve("collect")[0]);
+        assertEquals(stale, resolver.resolve("collect")[0]);
+        assertEquals(1, refreshes.size());
+
+        refreshes.remove(0).run();
+        assertEquals(address, resolver.resolve("collect")[0]);
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testResolve_RefreshFailed() throws Exception {
+        CachingDnsResolver resolver = new CachingDnsResolver(delegate, 0, refreshExecutor);
+        resolver.resolve("collect");
+
+        failLookups = true;
+        resolver.resolve("collect");
+        refreshes.remove(0).run();
+
+        // the stale addresses are kept and the refresh is retried on the next lookup
+        assertEquals(address, resolver.resolve("collect")[0]);
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testResolve_UnknownHost() throws Exception {
+        failLookups = true;
+        new CachingDnsResolver(delegate, 60 * 1000, refreshExecutor).resolve("collect");
+    }
+}
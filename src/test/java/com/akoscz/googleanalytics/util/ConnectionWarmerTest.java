@@ -0,0 +1,81 @@
+package com.akoscz.googleanalytics.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ConnectionWarmerTest {
+
+    private HttpServer server;
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    @Before
+    public void beforeTest() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        connectionManager = new PoolingHttpClientConnectionManager();
+    }
+
+    @After
+    public void afterTest() {
+        connectionManager.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testWarmUp() {
+        String baseUri = "http://localhost:" + server.getAddress().getPort();
+        // both endpoints are on the same host and share the warmed up connections
+        new ConnectionWarmer(connectionManager, Arrays.asList(baseUri + "/collect", baseUri + "/batch"), 2).run();
+
+        assertEquals(2, connectionManager.getTotalStats().getAvailable());
+        assertEquals(0, connectionManager.getTotalStats().getLeased());
+    }
+
+    @Test
+    public void testWarmUp_ReusedByClient() throws IOException {
+        String baseUri = "http://localhost:" + server.getAddress().getPort();
+        new ConnectionWarmer(connectionManager, Arrays.asList(baseUri + "/collect"), 1).run();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .build();
+        EntityUtils.consume(httpClient.execute(new HttpGet(baseUri + "/collect")).getEntity());
+
+        // the request was sent on the warmed up connection rather than on a new one
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+    }
+
+    @Test
+    public void testWarmUp_Unreachable() {
+        String baseUri = "http://localhost:" + server.getAddress().getPort();
+        server.stop(0);
+
+        new ConnectionWarmer(connectionManager, Arrays.asList(baseUri + "/collect"), 2).run();
+
+        assertEquals(0, connectionManager.getTotalStats().getAvailable());
+        assertEquals(0, connectionManager.getTotalStats().getLeased());
+    }
+}
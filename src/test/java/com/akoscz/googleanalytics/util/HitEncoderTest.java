@@ -0,0 +1,94 @@
+package com.akoscz.googleanalytics.util;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class HitEncoderTest {
+
+    private static final String[] VALUES = {
+            "Test Application", "a.b-c*d_e", "~!@#$%^&()+=[]{}|\\;:'\",<>/?`",
+            "\u00e9t\u00e9", "\u65e5\u672c\u8a9e", "\ud83d\ude00 smile", "dangling \ud83d", "\ude00 low"};
+
+    @Test
+    public void testParam_EncodesLikeUrlEncoder() throws Exception {
+        for (String value : VALUES) {
+            String encoded = HitEncoder.get().begin(HitEncoder.CAPACITY, "Too long").param("k", value).toString();
+            assertEquals("k=" + URLEncoder.encode(value, "UTF-8"), encoded);
+            assertEquals(URLEncoder.encode(value, "UTF-8").length(), HitEncoder.encodedLength(value));
+        }
+    }
+
+    @Test
+    public void testParam_Separators() {
+        String url = HitEncoder.get().begin(8000, "Too long")
+                .url("https://www.google-analytics.com/collect")
+                .param("v", 1)
+                .param("uid", (String) null)
+                .param("cid", (UUID) null)
+                .param("t", "")
+                .param("an", "App")
+                .toString();
+        assertEquals("https://www.google-analytics.com/collect?v=1&an=App", url);
+
+        String payload = HitEncoder.get().begin(8192, "Too long").param("v", 1).param("an", "App").toString();
+        assertEquals("v=1&an=App", payload);
+    }
+
+    @Test
+    public void testParam_Long() {
+        long[] values = {0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals("n=" + value, HitEncoder.get().begin(8192, "Too long").param("n", value).toString());
+        }
+    }
+
+    @Test
+    public void testParam_UUID() {
+        UUID[] values = {UUID.randomUUID(), new UUID(0, 0), new UUID(-1, -1), new UUID(0x0123456789abcdefL, 0x0fL)};
+        for (UUID value : values) {
+            assertEquals("cid=" + value, HitEncoder.get().begin(8192, "Too long").param("cid", value).toString());
+        }
+    }
+
+    @Test
+    public void testParam_FieldTooLong() {
+        HitEncoder.get().begin(8192, "Too long").param("cd", "\u00e9\u00e9", 4, "Field too long");
+        try {
+            HitEncoder.get().begin(8192, "Too long").param("cd", "\u00e9\u00e9a", 4, "Field too long");
+            fail("Expected the field limit to be enforced");
+        } catch (RuntimeException e) {
+            assertEquals("Field too long", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBegin_PayloadTooLong() {
+        HitEncoder encoder = HitEncoder.get().begin(10, "Too long").param("an", "1234567");
+        assertEquals(10, encoder.length());
+        try {
+            encoder.param("x", 1);
+            fail("Expected the payload limit to be enforced");
+        } catch (RuntimeException e) {
+            assertEquals("Too long", e.getMessage());
+        }
+
+        // the limit never exceeds the capacity of the buffer
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < HitEncoder.CAPACITY; i++) {
+            value.append('a');
+        }
+        try {
+            HitEncoder.get().begin(Integer.MAX_VALUE, "Too long").param("x", value.toString());
+            fail("Expected the capacity to be enforced");
+        } catch (RuntimeException e) {
+            assertEquals("Too long", e.getMessage());
+        }
+
+        // a new payload starts empty
+        assertEquals("v=1", HitEncoder.get().begin(8192, "Too long").param("v", 1).toString());
+    }
+}
@@ -0,0 +1,55 @@
+package com.akoscz.googleanalytics.util;
+
+import com.akoscz.googleanalytics.transport.TransportRequest;
+import org.junit.Test;
+
+import java.io.Closeable;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class HitEventTest {
+
+    @Test
+    public void testHitType() {
+        assertEquals("event", HitEvent.hitType(TransportRequest.post("http://localhost/collect", null,
+                "v=1&t=event&tid=UA-12345-123", false)));
+        assertEquals("pageview", HitEvent.hitType(TransportRequest.post("http://localhost/collect", null,
+                "t=pageview", false)));
+        assertEquals("screenview", HitEvent.hitType(TransportRequest.get(
+                "http://localhost/collect?t=screenview&v=1", false)));
+        assertEquals("batch", HitEvent.hitType(TransportRequest.post("http://localhost/batch", null,
+                "v=1&t=event\nv=1&t=pageview", false)));
+        assertNull(HitEvent.hitType(TransportRequest.post("http://localhost/collect", null, "v=1&tid=1", false)));
+        assertNull(HitEvent.hitType(TransportRequest.post("http://localhost/collect", null, (String) null, false)));
+    }
+
+    @Test
+    public void testBegin_NoRecording() {
+        assertFalse(HitEvent.SEND.isEnabled());
+        assertNull(HitEvent.SEND.begin());
+        // committing the event of a disabled type is a no-op
+        HitEvent.SEND.commit(null, "event", "POST", 10, 200, null);
+    }
+
+    @Test
+    public void testBegin_Recording() throws Exception {
+        // the flight recorder is only available on Java 9 or later
+        assumeTrue(HitEvent.isAvailable());
+
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, "com.akoscz.googleanalytics.HitEncode");
+        recordingClass.getMethod("start").invoke(recording);
+        try {
+            assertTrue(HitEvent.ENCODE.isEnabled());
+            Object event = HitEvent.ENCODE.begin();
+            assertNotNull(event);
+            HitEvent.ENCODE.commit(event, "event", "POST", 10);
+        } finally {
+            ((Closeable) recording).close();
+        }
+        assertFalse(HitEvent.ENCODE.isEnabled());
+        assertNull(HitEvent.ENCODE.begin());
+    }
+}
@@ -0,0 +1,126 @@
+package com.akoscz.googleanalytics.util;
+
+import com.akoscz.googleanalytics.transport.Http2Transport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class Http2ClientTest {
+
+    private HttpServer server;
+    private final AtomicReference<String> requestBody = new AtomicReference<String>();
+    private final AtomicReference<String> requestUserAgent = new AtomicReference<String>();
+
+    @Before
+    public void beforeTest() throws IOException {
+        // the JDK http client is only available on Java 11 or later
+        assumeTrue(Http2Client.isAvailable());
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestUserAgent.set(exchange.getRequestHeaders().getFirst("User-Agent"));
+                requestBody.set(read(exchange.getRequestBody()));
+
+                byte[] response = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void afterTest() {
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        Http2Client client = new Http2Client("test-agent", null, 0, null, null, Executors.newCachedThreadPool());
+
+        final AtomicReference<String> responseBody = new AtomicReference<String>();
+        Future<Integer> statusCode = client.post(collectUri(), "application/x-www-form-urlencoded", "v=1&t=pageview".getBytes("UTF-8"), true,
+                new Http2Client.Callback() {
+                    @Override
+                    public void completed(int statusCode, String body) {
+                        responseBody.set(body);
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        fail(throwable.toString());
+                    }
+                });
+
+        assertEquals(Integer.valueOf(200), statusCode.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", responseBody.get());
+        assertEquals("v=1&t=pageview", requestBody.get());
+        assertEquals("test-agent", requestUserAgent.get());
+    }
+
+    @Test
+    public void testTransportClose_ShutsDownExecutor() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Http2Client client = new Http2Client(null, null, 0, null, null, executor);
+        assertSame(executor, client.getExecutor());
+
+        new Http2Transport(client).close();
+        assertTrue(executor.isTerminated());
+    }
+
+    @Test
+    public void testGet_Failed() throws Exception {
+        Http2Client client = new Http2Client(null, null, 0, null, null, Executors.newCachedThreadPool());
+        server.stop(0);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Future<Integer> statusCode = client.get(collectUri(), false, new Http2Client.Callback() {
+            @Override
+            public void completed(int statusCode, String body) {
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                failure.set(throwable);
+            }
+        });
+
+        assertNull(statusCode.get(5, TimeUnit.SECONDS));
+        assertNotNull(failure.get());
+    }
+
+    private String collectUri() {
+        return "http://localhost:" + server.getAddress().getPort() + "/collect";
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        int count;
+        while ((count = inputStream.read(chunk)) != -1) {
+            buffer.write(chunk, 0, count);
+        }
+        return buffer.toString("UTF-8");
+    }
+}
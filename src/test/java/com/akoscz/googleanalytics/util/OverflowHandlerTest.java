@@ -0,0 +1,204 @@
+package com.akoscz.googleanalytics.util;
+
+import com.akoscz.googleanalytics.GoogleAnalyticsConfig.OverflowPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OverflowHandlerTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> dropped = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> spilled = Collections.synchronizedList(new ArrayList<String>());
+    private ThreadPoolExecutor executor;
+
+    @After
+    public void afterTest() {
+        release.countDown();
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * A single worker, blocked until release, and room for a single queued task.
+     */
+    private OverflowHandler createExecutor(OverflowPolicy policy, long blockTimeoutMillis) throws Exception {
+        OverflowHandler handler = OverflowHandler.create(policy, blockTimeoutMillis);
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(1),
+                new GoogleAnalyticsThreadFactory("overflow-test-{0}"), handler);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return handler;
+    }
+
+    private Task task(String name, boolean spillable) {
+        return new Task(name, spillable);
+    }
+
+    private void awaitQueueDrained() throws Exception {
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        OverflowHandler handler = createExecutor(OverflowPolicy.DROP_NEWEST, 0);
+        executor.execute(task("queued", true));
+        executor.execute(task("overflow", true));
+
+        assertEquals(Collections.singletonList("overflow"), dropped);
+        assertEquals(1, handler.getDroppedCount());
+
+        awaitQueueDrained();
+        assertEquals(Collections.singletonList("queued"), ran);
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        OverflowHandler handler = createExecutor(OverflowPolicy.DROP_OLDEST, 0);
+        executor.execute(task("queued", true));
+        executor.execute(task("overflow", true));
+
+        assertEquals(Collections.singletonList("queued"), dropped);
+        assertEquals(1, handler.getDroppedCount());
+
+        awaitQueueDrained();
+        assertEquals(Collections.singletonList("overflow"), ran);
+    }
+
+    @Test
+    public void testBlock_TimesOut() throws Exception {
+        OverflowHandler handler = createExecutor(OverflowPolicy.BLOCK, 50);
+        executor.execute(task("queued", true));
+
+        long start = System.nanoTime();
+        executor.execute(task("overflow", true));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(Collections.singletonList("overflow"), dropped);
+        assertEquals(1, handler.getBlockedCount());
+        assertEquals(1, handler.getDroppedCount());
+    }
+
+    @Test
+    public void testBlock_QueuedOnceThereIsRoom() throws Exception {
+        OverflowHandler handler = createExecutor(OverflowPolicy.BLOCK, 5000);
+        executor.execute(task("queued", true));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        }).start();
+        executor.execute(task("overflow", true));
+
+        awaitQueueDrained();
+        assertEquals(0, handler.getDroppedCount());
+        assertEquals(1, handler.getBlockedCount());
+        assertEquals(2, ran.size());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        OverflowHandler handler = createExecutor(OverflowPolicy.SPILL, 0);
+        executor.execute(task("queued", true));
+        executor.execute(task("spillable", true));
+        executor.execute(task("unspillable", false));
+
+        assertEquals(Collections.singletonList("spillable"), spilled);
+        assertEquals(Collections.singletonList("unspillable"), dropped);
+        assertEquals(1, handler.getSpilledCount());
+        assertEquals(1, handler.getDroppedCount());
+    }
+
+    @Test
+    public void testShutdown_Dropped() throws Exception {
+        OverflowHandler handler = createExecutor(OverflowPolicy.SPILL, 0);
+        executor.shutdown();
+        executor.execute(task("late", true));
+
+        assertEquals(Collections.singletonList("late"), dropped);
+        assertEquals(0, handler.getSpilledCount());
+    }
+
+    @Test
+    public void testNeverRunsOnCallerThread() throws Exception {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            release.countDown();
+            if (executor != null) executor.shutdownNow();
+
+            OverflowHandler handler = OverflowHandler.create(policy, 10);
+            executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(1),
+                    new GoogleAnalyticsThreadFactory("overflow-test-{0}"), handler);
+            final Thread caller = Thread.currentThread();
+            for (int i = 0; i < 100; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        assertNotSame(caller, Thread.currentThread());
+                        ran.add(Thread.currentThread().getName());
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            for (String name : ran) {
+                assertTrue(policy + " ran a task on " + name, name.startsWith("overflow-test-"));
+            }
+        }
+    }
+
+    private class Task implements OverflowTask {
+        private final String name;
+        private final boolean spillable;
+
+        Task(String name, boolean spillable) {
+            this.name = name;
+            this.spillable = spillable;
+        }
+
+        @Override
+        public void run() {
+            ran.add(name);
+        }
+
+        @Override
+        public void dropped() {
+            dropped.add(name);
+        }
+
+        @Override
+        public boolean spill() {
+            if (spillable) spilled.add(name);
+            return spillable;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.akoscz.googleanalytics.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class RingBufferBlockingQueueTest {
+
+    @Test
+    public void testCapacity_RoundedUpToPowerOfTwo() {
+        assertEquals(1, new RingBufferBlockingQueue<String>(1).capacity());
+        assertEquals(8, new RingBufferBlockingQueue<String>(8).capacity());
+        assertEquals(1024, new RingBufferBlockingQueue<String>(1000).capacity());
+    }
+
+    @Test
+    public void testOfferPoll_Fifo() {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(4);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertNull(queue.peek());
+
+        // wrap around the ring a few times
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(queue.offer(lap * 4 + i));
+            }
+            assertFalse(queue.offer(-1));
+            assertEquals(4, queue.size());
+            assertEquals(0, queue.remainingCapacity());
+            assertEquals(Integer.valueOf(lap * 4), queue.peek());
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(lap * 4 + i), queue.poll());
+            }
+            assertNull(queue.poll());
+            assertEquals(4, queue.remainingCapacity());
+        }
+    }
+
+    @Test
+    public void testDrainToAndIterator() {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(8);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+
+        List<Integer> snapshot = new ArrayList<Integer>();
+        for (Integer element : queue) {
+            snapshot.add(element);
+        }
+        assertEquals(5, snapshot.size());
+        assertEquals(Integer.valueOf(4), snapshot.get(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(2, queue.drainTo(drained, 2));
+        assertEquals(3, queue.drainTo(drained));
+        assertEquals(snapshot, drained);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(4);
+        // wrap around the ring once
+        for (int i = 0; i < 3; i++) {
+            queue.offer(i);
+            queue.poll();
+        }
+        for (int i = 0; i < 4; i++) {
+            queue.offer(i);
+        }
+
+        assertTrue(queue.remove(Integer.valueOf(0)));
+        assertTrue(queue.remove(Integer.valueOf(2)));
+        assertFalse(queue.remove(Integer.valueOf(2)));
+        assertFalse(queue.remove(Integer.valueOf(4)));
+        assertFalse(queue.contains(2));
+        assertEquals(2, queue.size());
+        assertEquals(Integer.valueOf(1), queue.peek());
+
+        // the consumers skip the empty slots
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+
+        // the skipped slots are free again
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(8);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+
+        Iterator<Integer> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+
+        List<Integer> drained = new ArrayList<Integer>();
+        queue.drainTo(drained);
+        assertEquals(Arrays.asList(1, 3), drained);
+    }
+
+    @Test
+    public void testConcurrentRemove() throws Exception {
+        final int elements = 100000;
+        final RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(64);
+        // every element is either taken by the consumer or removed, never both
+        final AtomicIntegerArray seen = new AtomicIntegerArray(elements);
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        seen.incrementAndGet(queue.take());
+                    }
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+
+        Thread remover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < elements; i++) {
+                    Integer element = i;
+                    if (queue.remove(element)) {
+                        seen.incrementAndGet(element);
+                    }
+                }
+            }
+        });
+        remover.start();
+        for (int i = 0; i < elements; i++) {
+            queue.put(i);
+        }
+        remover.join();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        consumer.interrupt();
+        consumer.join();
+        for (int i = 0; i < elements; i++) {
+            assertEquals("element " + i, 1, seen.get(i));
+        }
+    }
+
+    @Test
+    public void testThreadPoolExecutor_RemoveAndPurge() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new RingBufferBlockingQueue<Runnable>(16), new GoogleAnalyticsThreadFactory("ring-buffer-test-{0}"));
+        try {
+            // keep the only worker busy so the tasks stay queued
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Runnable withdrawn = new Runnable() {
+                @Override
+                public void run() {
+                    fail("a withdrawn task should not run");
+                }
+            };
+            executor.execute(withdrawn);
+            Future<?> cancelled = executor.submit(withdrawn);
+            Future<?> kept = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            assertEquals(3, executor.getQueue().size());
+
+            assertTrue(executor.remove(withdrawn));
+            cancelled.cancel(false);
+            executor.purge();
+            assertEquals(1, executor.getQueue().size());
+
+            release.countDown();
+            kept.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testPoll_Timeout() throws Exception {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(4);
+        long start = System.nanoTime();
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testTake_WokenUpByOffer() throws Exception {
+        final RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(4);
+        final List<Integer> taken = new ArrayList<Integer>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.add(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+
+        Thread.sleep(50);
+        assertTrue(queue.offer(42));
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(42, (int) taken.get(0));
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int producers = 8;
+        final int consumers = 4;
+        final int perProducer = 20000;
+        final RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(64);
+        final AtomicIntegerArray received = new AtomicIntegerArray(producers * perProducer);
+        final CountDownLatch done = new CountDownLatch(producers * perProducer);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * perProducer;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.put(offset + i);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            received.incrementAndGet(queue.take());
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            });
+            consumer.setDaemon(true);
+            threads.add(consumer);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < received.length(); i++) {
+            assertEquals("element " + i, 1, received.get(i));
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void testThreadPoolExecutorQueue() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 1, TimeUnit.SECONDS,
+                new RingBufferBlockingQueue<Runnable>(16), new GoogleAnalyticsThreadFactory("ring-buffer-test-{0}"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        final CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,45 @@
+package com.akoscz.googleanalytics.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadFactoryTest {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void testNewThread() throws InterruptedException {
+        // virtual threads are only available on Java 21 or later
+        assumeTrue(VirtualThreadFactory.isAvailable());
+
+        VirtualThreadFactory factory = new VirtualThreadFactory("virtual-{0}");
+        assertEquals("virtual-1", factory.newThread(NOOP).getName());
+        Thread thread = factory.newThread(NOOP);
+        assertEquals("virtual-2", thread.getName());
+        assertTrue(thread.isDaemon());
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        factory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }).start();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNewThread_Unavailable() {
+        assumeTrue(!VirtualThreadFactory.isAvailable());
+        new VirtualThreadFactory("virtual-{0}");
+    }
+}